@@ -3,8 +3,11 @@ package com.google.android.gms.samples.vision.ocrreader;
 import android.app.Activity;
 import android.content.pm.PackageManager;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v7.app.AlertDialog;
 
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.uimanager.SimpleViewManager;
 import com.facebook.react.uimanager.ThemedReactContext;
 import com.facebook.react.uimanager.annotations.ReactProp;
@@ -55,6 +58,91 @@ public class OcrReaderManager extends SimpleViewManager<OcrReaderView> {
         view.setCameraFillMode(cameraFillMode);
     }
 
+    // Performance profiles
+    // Possible values: "LOW_LATENCY", "BALANCED", "MAX_ACCURACY", or null for the defaults
+    @ReactProp(name = "performanceProfile")
+    public void setPerformanceProfile(OcrReaderView view, @Nullable String performanceProfile) {
+        view.setPerformanceProfile(performanceProfile);
+    }
+
+    // Values to extract natively from recognized text
+    // Array of built-in names ("IBAN", "CARD", "DATE", "AMOUNT", "PHONE", "EMAIL") or {name, pattern, validator}
+    @ReactProp(name = "extractors")
+    public void setExtractors(OcrReaderView view, @Nullable ReadableArray extractors) {
+        view.setExtractors(extractors);
+    }
+
+    // Catalogue to look up recognized lines in
+    // {path: local file with "id<TAB>label" lines, maxDistance: tolerated edits, default 1}
+    @ReactProp(name = "catalogue")
+    public void setCatalogue(OcrReaderView view, @Nullable ReadableMap catalogue) {
+        view.setCatalogue(catalogue);
+    }
+
+    // Passport / ID machine-readable zone scanning
+    // When true, only mrz_read events with validated documents are sent
+    @ReactProp(name = "mrzMode", defaultBoolean = false)
+    public void setMrzMode(OcrReaderView view, boolean mrzMode) {
+        view.setMrzMode(mrzMode);
+    }
+
+    @ReactProp(name = "skipEmptyFrames", defaultBoolean = false)
+    public void setSkipEmptyFrames(OcrReaderView view, boolean skipEmptyFrames) {
+        view.setSkipEmptyFrames(skipEmptyFrames);
+    }
+
+    @ReactProp(name = "focusGating", defaultBoolean = false)
+    public void setFocusGating(OcrReaderView view, boolean focusGating) {
+        view.setFocusGating(focusGating);
+    }
+
+    @ReactProp(name = "motionGating", defaultBoolean = false)
+    public void setMotionGating(OcrReaderView view, boolean motionGating) {
+        view.setMotionGating(motionGating);
+    }
+
+    // Standby while the view can't be seen (scrolled out, covered, hidden or of zero size)
+    @ReactProp(name = "autoStandby", defaultBoolean = true)
+    public void setAutoStandby(OcrReaderView view, boolean autoStandby) {
+        view.setAutoStandby(autoStandby);
+    }
+
+    // Longest a frame may spend in the recognizer before it is rebuilt, in ms; 0 = no watchdog
+    @ReactProp(name = "processingTimeout", defaultInt = 0)
+    public void setProcessingTimeout(OcrReaderView view, int processingTimeout) {
+        view.setProcessingTimeout(processingTimeout);
+    }
+
+    @ReactProp(name = "adaptiveResolution", defaultBoolean = false)
+    public void setAdaptiveResolution(OcrReaderView view, boolean adaptiveResolution) {
+        view.setAdaptiveResolution(adaptiveResolution);
+    }
+
+    @ReactProp(name = "autoZoom", defaultBoolean = false)
+    public void setAutoZoom(OcrReaderView view, boolean autoZoom) {
+        view.setAutoZoom(autoZoom);
+    }
+
+    @ReactProp(name = "coarseToFine", defaultBoolean = false)
+    public void setCoarseToFine(OcrReaderView view, boolean coarseToFine) {
+        view.setCoarseToFine(coarseToFine);
+    }
+
+    @ReactProp(name = "incremental", defaultBoolean = false)
+    public void setIncremental(OcrReaderView view, boolean incremental) {
+        view.setIncremental(incremental);
+    }
+
+    @ReactProp(name = "stitching", defaultBoolean = false)
+    public void setStitching(OcrReaderView view, boolean stitching) {
+        view.setStitching(stitching);
+    }
+
+    @ReactProp(name = "layout")
+    public void setLayout(OcrReaderView view, @Nullable ReadableMap layout) {
+        view.setLayout(layout);
+    }
+
     /**
      * Handle results from requestPermissions.
      * Call this method from MainActivity.java in your React Native app or implement a version of your own that checks for the camera permission.
@@ -1,27 +1,76 @@
 package com.google.android.gms.samples.vision.ocrreader;
 
+import android.Manifest;
+import android.content.ComponentCallbacks2;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+import android.util.SparseArray;
 
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.JSApplicationIllegalArgumentException;
 import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.facebook.react.uimanager.PixelUtil;
+import com.google.android.gms.samples.vision.ocrreader.ui.BlockSerializer;
 import com.google.android.gms.samples.vision.ocrreader.ui.OcrReaderView;
+import com.google.android.gms.samples.vision.ocrreader.ui.PerformanceProfile;
+import com.google.android.gms.samples.vision.ocrreader.camera.CameraCalibration;
+import com.google.android.gms.samples.vision.ocrreader.camera.CameraSource;
 import com.google.android.gms.samples.vision.ocrreader.camera.CameraSourcePreview;
-
+import com.google.android.gms.samples.vision.ocrreader.camera.HeadlessScanner;
+import com.google.android.gms.samples.vision.ocrreader.image.ImageRecognizer;
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.text.TextBlock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class OcrReaderModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
+public class OcrReaderModule extends ReactContextBaseJavaModule
+    implements LifecycleEventListener, ComponentCallbacks2 {
 
   private OcrReaderManager mOcrReaderManager;
+  private ImageRecognizer mImageRecognizer;
+  private final Map<String, ImageRecognizer.Batch> mBatches = new ConcurrentHashMap<>();
+  private HeadlessScanner mHeadlessScanner;
+  // The headless scanner's camera is opened, run and closed on this thread, and delivers frames
+  // on its looper. Created with the scanner, quit when the host is destroyed.
+  private HandlerThread mHeadlessThread;
+  private Handler mHeadlessHandler;
+
+  private static final String BATCH_ITEM_EVENT = "OcrReaderBatchItem";
+  private static final String MEMORY_TRIMMED_EVENT = "OcrReaderMemoryTrimmed";
+  private static final String HEADLESS_TEXT_EVENT = "OcrReaderHeadlessText";
+
+  // Capture settings of the headless scanner without calibration or options.
+  private static final int HEADLESS_PREVIEW_WIDTH = 1280;
+  private static final int HEADLESS_PREVIEW_HEIGHT = 960;
+  private static final float HEADLESS_FPS = 5.0f;
 
   public OcrReaderModule(ReactApplicationContext reactContext, OcrReaderManager ocrReaderManager) {
     super(reactContext);
 
     reactContext.addLifecycleEventListener(this);
+    reactContext.registerComponentCallbacks(this);
     mOcrReaderManager = ocrReaderManager;
   }
 
@@ -40,6 +89,10 @@ public class OcrReaderModule extends ReactContextBaseJavaModule implements Lifec
       {
         put("FocusMode", getFocusModes());
         put("CameraFillMode", getCameraFillModes());
+        put("PerformanceProfile", getPerformanceProfiles());
+        put("BatchItemEvent", BATCH_ITEM_EVENT);
+        put("MemoryTrimmedEvent", MEMORY_TRIMMED_EVENT);
+        put("HeadlessTextEvent", HEADLESS_TEXT_EVENT);
       }
     });
   }
@@ -54,6 +107,16 @@ public class OcrReaderModule extends ReactContextBaseJavaModule implements Lifec
     });
   }
 
+  private static Map<String, String> getPerformanceProfiles() {
+    return Collections.unmodifiableMap(new HashMap<String, String>() {
+      {
+        put("LOW_LATENCY", PerformanceProfile.LOW_LATENCY.getName());
+        put("BALANCED", PerformanceProfile.BALANCED.getName());
+        put("MAX_ACCURACY", PerformanceProfile.MAX_ACCURACY.getName());
+      }
+    });
+  }
+
   private static Map<String, Integer> getCameraFillModes() {
     return Collections.unmodifiableMap(new HashMap<String, Integer>() {
       {
@@ -83,6 +146,349 @@ public class OcrReaderModule extends ReactContextBaseJavaModule implements Lifec
       promise.reject("3", "Attempted to PAUSE barcode scanner before scanner view was instantiated.");
   }
 
+  /**
+   * Resolves with the text block under the point (in dp, relative to the reader view), or null.
+   * Answered from the overlay's spatial index, so no boxes need to be shipped to JS beforehand.
+   */
+  @ReactMethod
+  public void getTextAt(float x, float y, Promise promise) {
+    OcrReaderView view = mOcrReaderManager.getOcrReaderView();
+
+    if (view != null)
+      promise.resolve(view.getTextAt(PixelUtil.toPixelFromDIP(x), PixelUtil.toPixelFromDIP(y)));
+    else
+      promise.reject("4", "Attempted to query text before scanner view was instantiated.");
+  }
+
+  /**
+   * Resolves with all text blocks intersecting {x, y, width, height} (in dp, relative to the
+   * reader view).
+   */
+  @ReactMethod
+  public void getTextInRect(ReadableMap rect, Promise promise) {
+    OcrReaderView view = mOcrReaderManager.getOcrReaderView();
+
+    if (view != null) {
+      float left = PixelUtil.toPixelFromDIP(rect.getDouble("x"));
+      float top = PixelUtil.toPixelFromDIP(rect.getDouble("y"));
+      RectF region = new RectF(left, top,
+          left + PixelUtil.toPixelFromDIP(rect.getDouble("width")),
+          top + PixelUtil.toPixelFromDIP(rect.getDouble("height")));
+      promise.resolve(view.getTextInRect(region));
+    } else {
+      promise.reject("4", "Attempted to query text before scanner view was instantiated.");
+    }
+  }
+
+  /**
+   * Scans until one of the patterns has been read in minStableFrames consecutive frames, then
+   * stops the camera natively and resolves with {name, value, block}. See
+   * {@link OcrReaderView#startSession} for the options and rejection codes.
+   */
+  @ReactMethod
+  public void startSession(ReadableMap options, Promise promise) {
+    OcrReaderView view = mOcrReaderManager.getOcrReaderView();
+
+    if (view == null) {
+      promise.reject("5", "Attempted to start a scan session before scanner view was instantiated.");
+      return;
+    }
+
+    try {
+      view.startSession(options, promise);
+    } catch (JSApplicationIllegalArgumentException e) {
+      promise.reject("6", e.getMessage(), e);
+    }
+  }
+
+  @ReactMethod
+  public void cancelSession(Promise promise) {
+    OcrReaderView view = mOcrReaderManager.getOcrReaderView();
+
+    if (view != null) {
+      view.cancelSession();
+      promise.resolve(null);
+    } else {
+      promise.reject("5", "Attempted to cancel a scan session before scanner view was instantiated.");
+    }
+  }
+
+  /**
+   * Takes a full resolution picture with the reader's camera and recognizes the areas where the
+   * preview shows text. See {@link OcrReaderView#capture}.
+   */
+  @ReactMethod
+  public void captureText(Promise promise) {
+    OcrReaderView view = mOcrReaderManager.getOcrReaderView();
+
+    if (view != null)
+      view.capture(promise);
+    else
+      promise.reject("10", "Attempted to capture before scanner view was instantiated.");
+  }
+
+  /**
+   * Recognizes text in a still image (a file path, file:// or content:// URI) off the UI thread.
+   * Options: {maxDimension, region: {x, y, width, height}, tiled, tileSize, tileOverlap}, in
+   * pixels of the upright image. Tiled images are read at full resolution in overlapping tiles,
+   * which keeps small text on very large photos readable.
+   * Resolves with {data, blocks, width, height}: data holds the block texts as in text_read
+   * events, and blocks holds {text, bounds} with bounds in image pixels.
+   */
+  @ReactMethod
+  public void recognizeImage(String uri, @Nullable ReadableMap options, final Promise promise) {
+    ImageRecognizer.Options decodeOptions;
+    try {
+      decodeOptions = createImageOptions(options);
+    } catch (IllegalArgumentException e) {
+      promise.reject("9", e.getMessage(), e);
+      return;
+    }
+
+    getImageRecognizer().recognize(toUri(uri), decodeOptions, new ImageRecognizer.Callback() {
+      @Override
+      public void onRecognized(ImageRecognizer.Result result) {
+        promise.resolve(createImageResult(result));
+      }
+
+      @Override
+      public void onError(Exception e) {
+        promise.reject("9", e.getMessage(), e);
+      }
+    });
+  }
+
+  /**
+   * Recognizes a list of images on a worker pool sized to the device. Every finished image is
+   * sent as an OcrReaderBatchItem event {batchId, index, uri, result | error, completed, total},
+   * with result shaped like recognizeImage's. Resolves with {total, succeeded, failed, cancelled}
+   * after the last event. The batch id is chosen by the caller so that events arriving before
+   * this call returns can already be told apart.
+   */
+  @ReactMethod
+  public void recognizeBatch(final String batchId, final ReadableArray uris,
+                             @Nullable ReadableMap options, final Promise promise) {
+    if (mBatches.containsKey(batchId)) {
+      promise.reject("9", "A batch with id " + batchId + " is already running.");
+      return;
+    }
+
+    ImageRecognizer.Options decodeOptions;
+    try {
+      decodeOptions = createImageOptions(options);
+    } catch (IllegalArgumentException e) {
+      promise.reject("9", e.getMessage(), e);
+      return;
+    }
+
+    final List<Uri> parsed = new ArrayList<>(uris.size());
+    for (int i = 0; i < uris.size(); ++i) {
+      parsed.add(toUri(uris.getString(i)));
+    }
+
+    // Registered under the lock the completion takes, so a fast batch can't finish before it
+    // is registered.
+    synchronized (mBatches) {
+      ImageRecognizer.Batch batch = getImageRecognizer().recognizeBatch(parsed, decodeOptions,
+          new ImageRecognizer.BatchCallback() {
+            @Override
+            public void onItem(int index, ImageRecognizer.Result result, Exception error, int completed) {
+              WritableMap event = Arguments.createMap();
+              event.putString("batchId", batchId);
+              event.putInt("index", index);
+              event.putString("uri", parsed.get(index).toString());
+              if (result != null) {
+                event.putMap("result", createImageResult(result));
+              } else {
+                event.putString("error", error.getMessage());
+              }
+              event.putInt("completed", completed);
+              event.putInt("total", parsed.size());
+              sendEvent(BATCH_ITEM_EVENT, event);
+            }
+
+            @Override
+            public void onComplete(int succeeded, int failed, boolean cancelled) {
+              synchronized (mBatches) {
+                mBatches.remove(batchId);
+              }
+              WritableMap summary = Arguments.createMap();
+              summary.putInt("total", parsed.size());
+              summary.putInt("succeeded", succeeded);
+              summary.putInt("failed", failed);
+              summary.putBoolean("cancelled", cancelled);
+              promise.resolve(summary);
+            }
+          });
+      // An empty batch has already completed.
+      if (batch.getTotal() > 0) {
+        mBatches.put(batchId, batch);
+      }
+    }
+  }
+
+  /**
+   * Stops starting new images of a batch; its promise then resolves with cancelled set.
+   * Resolves with whether the batch was still running.
+   */
+  @ReactMethod
+  public void cancelBatch(String batchId, Promise promise) {
+    ImageRecognizer.Batch batch = mBatches.get(batchId);
+    if (batch != null) {
+      batch.cancel();
+    }
+    promise.resolve(batch != null);
+  }
+
+  /**
+   * Measures which preview size and frame rate suit this device (see {@link CameraCalibration})
+   * and stores the result, which readers then use whenever no performance profile is set, from
+   * their next camera start. Takes a few seconds and needs the camera, so the reader should be
+   * paused meanwhile. Resolves with {previewWidth, previewHeight, fps, latencyMs} and rejects
+   * with code "11" if the camera or the recognizer isn't available, or no preview size read the
+   * sample, storing nothing.
+   */
+  @ReactMethod
+  public void calibrate(final Promise promise) {
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        CameraCalibration.Result result;
+        try {
+          result = CameraCalibration.run(getReactApplicationContext(), CameraSource.CAMERA_FACING_BACK);
+        } catch (RuntimeException e) {
+          promise.reject("11", e.getMessage(), e);
+          return;
+        }
+        promise.resolve(createCalibrationResult(result));
+      }
+    }, "OcrReaderCalibration").start();
+  }
+
+  /**
+   * Resolves with the stored calibration, shaped like calibrate's result, or null if this device
+   * hasn't been calibrated since its last system update.
+   */
+  @ReactMethod
+  public void getCalibration(Promise promise) {
+    CameraCalibration.Result result = CameraCalibration.load(getReactApplicationContext());
+    if (result == null) {
+      promise.resolve(null);
+      return;
+    }
+    promise.resolve(createCalibrationResult(result));
+  }
+
+  /**
+   * Scans with the camera without a reader view, for unattended devices: no preview is shown and
+   * nothing is drawn (see {@link HeadlessScanner}). Options are {facing: "back" | "front",
+   * previewWidth, previewHeight, fps}; without them the calibrated settings are used, or
+   * 1280x960 at 5 fps. New text is sent as HeadlessTextEvent with {data, blocks, width, height,
+   * frameId}, blocks as [{text, bounds}] in pixels of the upright frame. Keeps running while the
+   * app is in the background, until stopHeadless or the host is destroyed. Resolves with
+   * {previewWidth, previewHeight} and rejects with code "12" if the camera can't be used,
+   * including by a mounted reader view.
+   */
+  @ReactMethod
+  public void startHeadless(@Nullable final ReadableMap options, final Promise promise) {
+    if (ContextCompat.checkSelfPermission(getReactApplicationContext(), Manifest.permission.CAMERA)
+        != PackageManager.PERMISSION_GRANTED) {
+      promise.reject("12", "The camera permission has not been granted.");
+      return;
+    }
+
+    int facing = CameraSource.CAMERA_FACING_BACK;
+    int previewWidth = HEADLESS_PREVIEW_WIDTH;
+    int previewHeight = HEADLESS_PREVIEW_HEIGHT;
+    float fps = HEADLESS_FPS;
+    CameraCalibration.Result calibration = CameraCalibration.load(getReactApplicationContext());
+    if (calibration != null) {
+      previewWidth = calibration.getPreviewWidth();
+      previewHeight = calibration.getPreviewHeight();
+      fps = calibration.getFps();
+    }
+    if (options != null) {
+      if (options.hasKey("facing") && "front".equals(options.getString("facing"))) {
+        facing = CameraSource.CAMERA_FACING_FRONT;
+      }
+      if (options.hasKey("previewWidth") && options.hasKey("previewHeight")) {
+        previewWidth = options.getInt("previewWidth");
+        previewHeight = options.getInt("previewHeight");
+      }
+      if (options.hasKey("fps")) {
+        fps = (float) options.getDouble("fps");
+      }
+    }
+
+    final HeadlessScanner scanner;
+    Handler handler;
+    synchronized (this) {
+      if (mHeadlessScanner == null) {
+        mHeadlessScanner = new HeadlessScanner(getReactApplicationContext(),
+            new HeadlessScanner.Listener() {
+              @Override
+              public void onText(SparseArray<TextBlock> blocks, int frameId, int frameWidth, int frameHeight) {
+                WritableMap event = createHeadlessResult(blocks, frameWidth, frameHeight);
+                event.putInt("frameId", frameId);
+                sendEvent(HEADLESS_TEXT_EVENT, event);
+              }
+            });
+      }
+      if (mHeadlessThread == null) {
+        mHeadlessThread = new HandlerThread("OcrReaderHeadless");
+        mHeadlessThread.start();
+        mHeadlessHandler = new Handler(mHeadlessThread.getLooper());
+      }
+      scanner = mHeadlessScanner;
+      handler = mHeadlessHandler;
+    }
+
+    final int cameraFacing = facing;
+    final int width = previewWidth;
+    final int height = previewHeight;
+    final float frameRate = fps;
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          scanner.start(cameraFacing, width, height, frameRate);
+        } catch (IOException | RuntimeException e) {
+          promise.reject("12", e.getMessage(), e);
+          return;
+        }
+        Size size = scanner.getPreviewSize();
+        WritableMap result = Arguments.createMap();
+        result.putInt("previewWidth", size != null ? size.getWidth() : 0);
+        result.putInt("previewHeight", size != null ? size.getHeight() : 0);
+        promise.resolve(result);
+      }
+    });
+  }
+
+  /**
+   * Stops headless scanning and releases the camera. Resolves with whether it was running.
+   */
+  @ReactMethod
+  public void stopHeadless(final Promise promise) {
+    final HeadlessScanner scanner;
+    Handler handler;
+    synchronized (this) {
+      scanner = mHeadlessScanner;
+      handler = mHeadlessHandler;
+    }
+    if (scanner == null) {
+      promise.resolve(false);
+      return;
+    }
+    // Waits for the frame in the recognizer, so it stays off the JS thread.
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        promise.resolve(scanner.stop());
+      }
+    });
+  }
+
     /* ----------------------------------------------
      * ------------- Lifecycle events ---------------
      * ---------------------------------------------- */
@@ -100,6 +506,89 @@ public class OcrReaderModule extends ReactContextBaseJavaModule implements Lifec
   @Override
   public void onHostDestroy() {
     release();
+
+    synchronized (this) {
+      if (mHeadlessScanner != null) {
+        final HeadlessScanner scanner = mHeadlessScanner;
+        final HandlerThread thread = mHeadlessThread;
+        mHeadlessHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            scanner.stop();
+            thread.quit();
+          }
+        });
+        mHeadlessScanner = null;
+        mHeadlessThread = null;
+        mHeadlessHandler = null;
+      }
+
+      if (mImageRecognizer != null) {
+        mImageRecognizer.release();
+        mImageRecognizer = null;
+      }
+    }
+  }
+
+  @Override
+  public void onCatalystInstanceDestroy() {
+    getReactApplicationContext().unregisterComponentCallbacks(this);
+  }
+
+    /* ----------------------------------------------
+     * ------------- Memory pressure ----------------
+     * ---------------------------------------------- */
+
+  /**
+   * Sheds memory in stages as the system runs low (see {@link OcrReaderView#trimMemory}); at
+   * RUNNING_CRITICAL and from BACKGROUND, but not at UI_HIDDEN, the idle recognizers of captures
+   * and still images are released as well.
+   * Everything is recreated on demand. Each trim is reported to JS as a MemoryTrimmedEvent with
+   * {level, releasedBytes, releasedRecognizers, cameraReleased}.
+   */
+  @Override
+  public void onTrimMemory(int level) {
+    if (level < TRIM_MEMORY_RUNNING_MODERATE) {
+      return;
+    }
+    OcrReaderView view = mOcrReaderManager.getOcrReaderView();
+    long releasedBytes = 0;
+    int releasedRecognizers = 0;
+    boolean cameraReleased = false;
+    if (view != null) {
+      boolean trimmed = view.isTrimmed();
+      releasedBytes = view.trimMemory(level);
+      cameraReleased = !trimmed && view.isTrimmed();
+      if (cameraReleased) {
+        releasedRecognizers++;
+      }
+    }
+    if (level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_BACKGROUND) {
+      if (view != null) {
+        releasedRecognizers += view.releaseIdleRecognizers();
+      }
+      synchronized (this) {
+        if (mImageRecognizer != null) {
+          releasedRecognizers += mImageRecognizer.trimMemory();
+        }
+      }
+    }
+
+    WritableMap event = Arguments.createMap();
+    event.putInt("level", level);
+    event.putDouble("releasedBytes", releasedBytes);
+    event.putInt("releasedRecognizers", releasedRecognizers);
+    event.putBoolean("cameraReleased", cameraReleased);
+    sendEvent(MEMORY_TRIMMED_EVENT, event);
+  }
+
+  @Override
+  public void onLowMemory() {
+    onTrimMemory(TRIM_MEMORY_COMPLETE);
+  }
+
+  @Override
+  public void onConfigurationChanged(Configuration newConfig) {
   }
 
 
@@ -146,4 +635,94 @@ public class OcrReaderModule extends ReactContextBaseJavaModule implements Lifec
 
     return view != null;
   }
-}
\ No newline at end of file
+
+  private synchronized ImageRecognizer getImageRecognizer() {
+    if (mImageRecognizer == null) {
+      mImageRecognizer = new ImageRecognizer(getReactApplicationContext());
+    }
+    return mImageRecognizer;
+  }
+
+  private void sendEvent(String name, WritableMap event) {
+    getReactApplicationContext()
+        .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+        .emit(name, event);
+  }
+
+  private static Uri toUri(String uri) {
+    Uri parsed = Uri.parse(uri);
+    return parsed.getScheme() != null ? parsed : Uri.fromFile(new File(uri));
+  }
+
+  private static ImageRecognizer.Options createImageOptions(@Nullable ReadableMap options) {
+    ImageRecognizer.Options decodeOptions = new ImageRecognizer.Options();
+    if (options == null) {
+      return decodeOptions;
+    }
+
+    if (options.hasKey("maxDimension")) {
+      decodeOptions.setMaxDimension(options.getInt("maxDimension"));
+    }
+    if (options.hasKey("region") && !options.isNull("region")) {
+      ReadableMap region = options.getMap("region");
+      int x = region.getInt("x");
+      int y = region.getInt("y");
+      decodeOptions.setRegion(new Rect(x, y, x + region.getInt("width"), y + region.getInt("height")));
+    }
+    if (options.hasKey("tileSize")) {
+      decodeOptions.setTileSize(options.getInt("tileSize"));
+    } else if (options.hasKey("tiled") && options.getBoolean("tiled")) {
+      decodeOptions.setTileSize(ImageRecognizer.DEFAULT_TILE_SIZE);
+    }
+    if (options.hasKey("tileOverlap")) {
+      decodeOptions.setTileOverlap(options.getInt("tileOverlap"));
+    }
+    return decodeOptions;
+  }
+
+  /**
+   * Describes the capture settings a calibration picked, and the latency it measured with them.
+   */
+  private static WritableMap createCalibrationResult(CameraCalibration.Result result) {
+    WritableMap map = Arguments.createMap();
+    map.putInt("previewWidth", result.getPreviewWidth());
+    map.putInt("previewHeight", result.getPreviewHeight());
+    map.putDouble("fps", result.getFps());
+    map.putDouble("latencyMs", result.getLatencyMillis());
+    return map;
+  }
+
+  /**
+   * Describes a headless frame's text like live scanning does, with bounds in frame pixels.
+   */
+  private static WritableMap createHeadlessResult(SparseArray<TextBlock> items, int width, int height) {
+    BlockSerializer blocks = new BlockSerializer(BlockSerializer.PIXELS);
+    for (int i = 0; i < items.size(); ++i) {
+      TextBlock block = items.valueAt(i);
+      if (block != null) {
+        blocks.add(block.getValue(), new RectF(block.getBoundingBox()));
+      }
+    }
+
+    WritableMap map = blocks.toMap();
+    map.putInt("width", width);
+    map.putInt("height", height);
+    return map;
+  }
+
+  /**
+   * Describes an image's text the way live scanning does: the block texts under "data", plus
+   * every block with its bounds in image pixels.
+   */
+  private static WritableMap createImageResult(ImageRecognizer.Result result) {
+    BlockSerializer blocks = new BlockSerializer(BlockSerializer.PIXELS);
+    for (int i = 0; i < result.getBlockCount(); ++i) {
+      blocks.add(result.getBlock(i).getValue(), result.getBounds(i));
+    }
+
+    WritableMap map = blocks.toMap();
+    map.putInt("width", result.getWidth());
+    map.putInt("height", result.getHeight());
+    return map;
+  }
+}
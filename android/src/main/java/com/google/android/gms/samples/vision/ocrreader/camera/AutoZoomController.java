@@ -0,0 +1,161 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.graphics.RectF;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides when to zoom in on text that is too small to read well, and back out when it gets cut
+ * off, too large, or is lost.<p>
+ *
+ * Zoom crops the center of the sensor, so text can only be zoomed in on as far as its bounds,
+ * seen from the frame's center, stay inside a margin.  Within that, each step aims for a
+ * comfortable line height, changes the zoom by at most half, and only happens once the same need
+ * has been seen in several frames in a row and a while after the last step.  The bounds at which
+ * it zooms in and out lie far apart, so one step can't undo the previous one.<p>
+ *
+ * Report every zoom change to it, including those made by hand, which also hold it off for a few
+ * seconds.  Call {@link #offerFrame} from the detector thread; zoom changes are reported from the
+ * thread that makes them, and taken up with the next frame.
+ */
+public class AutoZoomController {
+    // Median line height, in frame pixels, below which the controller zooms in, the height it
+    // aims for, and the height above which it zooms out.
+    private static final float MIN_LINE_HEIGHT = 20;
+    private static final float TARGET_LINE_HEIGHT = 32;
+    private static final float MAX_LINE_HEIGHT = 64;
+
+    // Share of the frame that zooming in keeps free around the text, and distance from the edges
+    // within which text is taken to be cut off.
+    private static final float MARGIN = 0.1f;
+    private static final float EDGE = 0.02f;
+
+    // Largest zoom change in one step, and the largest zoom used.  Beyond about 3x the preview
+    // only gets upscaled sensor pixels.
+    private static final float MAX_STEP = 1.5f;
+    private static final float MAX_RATIO = 3;
+
+    // Frames in a row that must call for the same step.
+    private static final int WINDOW = 5;
+
+    // Frames without text after which the zoom is reset.
+    private static final int MAX_EMPTY_FRAMES = 10;
+
+    // Frame time between steps, and after a zoom made by hand.
+    private static final long STEP_INTERVAL_MILLIS = 1000;
+    private static final long MANUAL_HOLD_MILLIS = 5000;
+
+    private float mRatio = 1;
+    private float mMaxRatio = MAX_RATIO;
+    private int mInFrames;
+    private int mOutFrames;
+    private int mEmptyFrames;
+    private long mLastStepMillis = -STEP_INTERVAL_MILLIS;
+
+    // Written on the UI thread, taken on the detector thread: a zoom made by hand, and the
+    // {requested, actual} ratios of the last step.
+    private volatile float mManualRatio = Float.NaN;
+    private volatile float[] mZoomed;
+
+    /**
+     * Takes one frame's text and returns the zoom ratio to switch to, or -1 to stay.
+     *
+     * @param regions     the text blocks, as fractions of the upright frame
+     * @param lineHeights the heights of the lines, in frame pixels
+     */
+    public float offerFrame(List<RectF> regions, List<Float> lineHeights, long timestampMillis) {
+        float[] zoomed = mZoomed;
+        if (zoomed != null) {
+            mZoomed = null;
+            if (zoomed[0] > mRatio && zoomed[1] <= mRatio) {
+                // The camera can't zoom in any further.
+                mMaxRatio = mRatio;
+            }
+            mRatio = zoomed[1];
+        }
+        float manual = mManualRatio;
+        if (!Float.isNaN(manual)) {
+            mManualRatio = Float.NaN;
+            mRatio = manual;
+            mMaxRatio = MAX_RATIO;
+            mInFrames = 0;
+            mOutFrames = 0;
+            mLastStepMillis = timestampMillis + MANUAL_HOLD_MILLIS - STEP_INTERVAL_MILLIS;
+        }
+        boolean ready = timestampMillis - mLastStepMillis >= STEP_INTERVAL_MILLIS;
+
+        if (regions.isEmpty() || lineHeights.isEmpty()) {
+            mInFrames = 0;
+            mOutFrames = 0;
+            if (++mEmptyFrames >= MAX_EMPTY_FRAMES && mRatio > 1 && ready) {
+                return step(1, timestampMillis);
+            }
+            return -1;
+        }
+        mEmptyFrames = 0;
+
+        RectF bounds = new RectF(regions.get(0));
+        for (RectF region : regions) {
+            bounds.union(region);
+        }
+        float height = median(lineHeights);
+        boolean cutOff = bounds.left < EDGE || bounds.top < EDGE
+                || bounds.right > 1 - EDGE || bounds.bottom > 1 - EDGE;
+        // How much the text can grow, about the frame's center, before it reaches the margin.
+        float spread = Math.max(Math.max(0.5f - bounds.left, bounds.right - 0.5f),
+                Math.max(0.5f - bounds.top, bounds.bottom - 0.5f));
+        float room = spread > 0 ? (0.5f - MARGIN) / spread : MAX_STEP;
+
+        float factor = 1;
+        if (mRatio > 1 && (cutOff || height > MAX_LINE_HEIGHT)) {
+            factor = cutOff ? 1 / MAX_STEP : Math.max(1 / MAX_STEP, TARGET_LINE_HEIGHT / height);
+            mOutFrames++;
+            mInFrames = 0;
+        } else if (height < MIN_LINE_HEIGHT && room > 1 && mRatio < mMaxRatio) {
+            factor = Math.min(Math.min(MAX_STEP, TARGET_LINE_HEIGHT / height), room);
+            mInFrames++;
+            mOutFrames = 0;
+        } else {
+            mInFrames = 0;
+            mOutFrames = 0;
+        }
+
+        if (ready && (mInFrames >= WINDOW || mOutFrames >= WINDOW)) {
+            return step(Math.max(1, Math.min(mMaxRatio, mRatio * factor)), timestampMillis);
+        }
+        return -1;
+    }
+
+    /**
+     * Tells the controller which ratio the camera actually zoomed to after a step it asked for.
+     * May be called from any thread.
+     */
+    public void onZoomed(float requested, float ratio) {
+        mZoomed = new float[]{requested, ratio};
+    }
+
+    /**
+     * Tells the controller the zoom was changed by hand.  May be called from any thread.
+     */
+    public void onManualZoom(float ratio) {
+        mManualRatio = ratio;
+    }
+
+    private float step(float ratio, long timestampMillis) {
+        mInFrames = 0;
+        mOutFrames = 0;
+        mEmptyFrames = 0;
+        mLastStepMillis = timestampMillis;
+        return Math.abs(ratio - mRatio) < 0.01f ? -1 : ratio;
+    }
+
+    private static float median(List<Float> values) {
+        float[] sorted = new float[values.size()];
+        for (int i = 0; i < sorted.length; ++i) {
+            sorted[i] = values.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
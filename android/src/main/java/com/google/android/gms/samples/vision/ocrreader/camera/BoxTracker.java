@@ -0,0 +1,152 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Follows boxes across detection results and predicts where each one is between detections.<p>
+ *
+ * Every committed box is matched to the track of the previous result it overlaps most.  Tracks are
+ * updated with an alpha-beta filter on the box center and size: a new measurement only partly
+ * corrects the prediction, so boxes glide instead of jumping, and the velocity estimate lets the
+ * renderer extrapolate at display rate.  Extrapolation is capped so a box whose text has left the
+ * frame stops drifting once the next result is overdue.<p>
+ *
+ * All coordinates are in the preview's coordinate system.  Not thread safe; callers synchronize.
+ */
+class BoxTracker<T> {
+    // Minimum overlap (intersection over union) for a box to continue a previous track.
+    private static final float MIN_MATCH_IOU = 0.3f;
+
+    // Filter gains: how far a measurement pulls the position and the velocity estimate.
+    private static final float ALPHA = 0.7f;
+    private static final float BETA = 0.2f;
+
+    // Boxes are not extrapolated further than this past their last measurement.
+    private static final long MAX_EXTRAPOLATION_MILLIS = 750;
+
+    private static class Track {
+        // Center x, center y, width, height and their rates of change per millisecond.
+        final float[] mState = new float[4];
+        final float[] mVelocity = new float[4];
+        long mUpdateMillis;
+    }
+
+    private Map<T, Track> mTracks = new HashMap<>();
+
+    /**
+     * Replaces the tracked items with a new detection result taken at {@code nowMillis}.
+     */
+    void update(List<T> items, List<RectF> boxes, long nowMillis) {
+        Map<T, Track> tracks = new HashMap<>();
+        List<Track> previous = new ArrayList<>(mTracks.values());
+
+        for (int i = 0; i < items.size(); ++i) {
+            RectF box = boxes.get(i);
+            Track track = takeBestMatch(previous, box, nowMillis);
+            if (track == null) {
+                track = new Track();
+                setState(track.mState, box);
+            } else {
+                correct(track, box, nowMillis);
+            }
+            track.mUpdateMillis = nowMillis;
+            tracks.put(items.get(i), track);
+        }
+
+        mTracks = tracks;
+    }
+
+    /**
+     * Writes the predicted box of {@code item} at {@code nowMillis} into {@code out}.  Returns
+     * false if the item is not tracked.
+     */
+    boolean predict(T item, long nowMillis, RectF out) {
+        Track track = mTracks.get(item);
+        if (track == null) {
+            return false;
+        }
+        long dt = Math.min(nowMillis - track.mUpdateMillis, MAX_EXTRAPOLATION_MILLIS);
+        float cx = track.mState[0] + track.mVelocity[0] * dt;
+        float cy = track.mState[1] + track.mVelocity[1] * dt;
+        float w = Math.max(1.0f, track.mState[2] + track.mVelocity[2] * dt);
+        float h = Math.max(1.0f, track.mState[3] + track.mVelocity[3] * dt);
+        out.set(cx - w / 2, cy - h / 2, cx + w / 2, cy + h / 2);
+        return true;
+    }
+
+    /**
+     * Returns true while any track is still being extrapolated, i.e. drawing again at
+     * {@code nowMillis} would move something.
+     */
+    boolean isMoving(long nowMillis) {
+        for (Track track : mTracks.values()) {
+            if (nowMillis - track.mUpdateMillis < MAX_EXTRAPOLATION_MILLIS
+                    && (track.mVelocity[0] != 0 || track.mVelocity[1] != 0
+                    || track.mVelocity[2] != 0 || track.mVelocity[3] != 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void clear() {
+        mTracks = new HashMap<>();
+    }
+
+    private Track takeBestMatch(List<Track> candidates, RectF box, long nowMillis) {
+        RectF predicted = new RectF();
+        Track best = null;
+        float bestIou = MIN_MATCH_IOU;
+        for (Track track : candidates) {
+            long dt = Math.min(nowMillis - track.mUpdateMillis, MAX_EXTRAPOLATION_MILLIS);
+            float cx = track.mState[0] + track.mVelocity[0] * dt;
+            float cy = track.mState[1] + track.mVelocity[1] * dt;
+            predicted.set(cx - track.mState[2] / 2, cy - track.mState[3] / 2,
+                    cx + track.mState[2] / 2, cy + track.mState[3] / 2);
+            float iou = intersectionOverUnion(predicted, box);
+            if (iou > bestIou) {
+                best = track;
+                bestIou = iou;
+            }
+        }
+        candidates.remove(best);
+        return best;
+    }
+
+    private static void correct(Track track, RectF box, long nowMillis) {
+        long dt = Math.max(1, nowMillis - track.mUpdateMillis);
+        long extrapolated = Math.min(dt, MAX_EXTRAPOLATION_MILLIS);
+        float[] measured = new float[4];
+        setState(measured, box);
+        for (int k = 0; k < 4; ++k) {
+            float predicted = track.mState[k] + track.mVelocity[k] * extrapolated;
+            float residual = measured[k] - predicted;
+            track.mState[k] = predicted + ALPHA * residual;
+            track.mVelocity[k] += BETA * residual / dt;
+        }
+    }
+
+    private static void setState(float[] state, RectF box) {
+        state[0] = (box.left + box.right) / 2;
+        state[1] = (box.top + box.bottom) / 2;
+        state[2] = box.right - box.left;
+        state[3] = box.bottom - box.top;
+    }
+
+    private static float intersectionOverUnion(RectF a, RectF b) {
+        float w = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+        float h = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+        if (w <= 0 || h <= 0) {
+            return 0;
+        }
+        float intersection = w * h;
+        float union = (a.right - a.left) * (a.bottom - a.top)
+                + (b.right - b.left) * (b.bottom - b.top) - intersection;
+        return union > 0 ? intersection / union : 0;
+    }
+}
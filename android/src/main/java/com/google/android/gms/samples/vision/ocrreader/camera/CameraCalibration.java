@@ -0,0 +1,263 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ImageFormat;
+import android.graphics.Paint;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.text.Text;
+import com.google.android.gms.vision.text.TextBlock;
+import com.google.android.gms.vision.text.TextRecognizer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Finds the capture settings that suit this device, and keeps them.<p>
+ *
+ * For each preview size the camera supports, smallest first, a synthetic frame of that size with
+ * a few lines of small print is rendered and recognized a few times.  The first size whose frame
+ * is read correctly within the latency budget is the fastest viable one: larger sizes only cost
+ * more time, smaller ones lose the small print.  The frame rate is set to about what the
+ * recognizer keeps up with at that size, since frames arriving faster are dropped anyway.  The
+ * result is stored in shared preferences along with the build fingerprint, so that it is measured
+ * again after a system update.
+ */
+public class CameraCalibration {
+    private static final String TAG = "CameraCalibration";
+
+    private static final String PREFERENCES = "ocr_reader_calibration";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_WIDTH = "width";
+    private static final String KEY_HEIGHT = "height";
+    private static final String KEY_FPS = "fps";
+    private static final String KEY_LATENCY = "latency";
+
+    // Lines of the synthetic frame.
+    private static final String[] SAMPLE_LINES = {"Invoice 20471", "Total due 138.50", "Ref KX-9042"};
+
+    // Height of the sample's lines as a share of the frame's shorter side, about that of small
+    // print held at a comfortable scanning distance.
+    private static final float LINE_HEIGHT = 0.025f;
+
+    // Median recognition time, in milliseconds, a preview size must stay within.
+    private static final long MAX_LATENCY_MILLIS = 250;
+
+    // Timed recognitions per size, after one untimed warm-up.
+    private static final int RUNS = 3;
+
+    // Smallest and largest sizes worth trying, by their longer side.
+    private static final int MIN_SIDE = 320;
+    private static final int MAX_SIDE = 1920;
+
+    private static final float MIN_FPS = 2.0f;
+    private static final float MAX_FPS = 30.0f;
+
+    /**
+     * Calibrated capture settings.
+     */
+    public static class Result {
+        private final int mPreviewWidth;
+        private final int mPreviewHeight;
+        private final float mFps;
+        private final long mLatencyMillis;
+
+        Result(int previewWidth, int previewHeight, float fps, long latencyMillis) {
+            mPreviewWidth = previewWidth;
+            mPreviewHeight = previewHeight;
+            mFps = fps;
+            mLatencyMillis = latencyMillis;
+        }
+
+        public int getPreviewWidth() {
+            return mPreviewWidth;
+        }
+
+        public int getPreviewHeight() {
+            return mPreviewHeight;
+        }
+
+        public float getFps() {
+            return mFps;
+        }
+
+        /**
+         * Median time the recognizer took on a frame of the preview size.
+         */
+        public long getLatencyMillis() {
+            return mLatencyMillis;
+        }
+    }
+
+    private CameraCalibration() {
+    }
+
+    /**
+     * Returns the stored settings, or null if this device hasn't been calibrated since its last
+     * system update.
+     */
+    @Nullable
+    public static Result load(Context context) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        if (!Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null))) {
+            return null;
+        }
+        return new Result(preferences.getInt(KEY_WIDTH, 0), preferences.getInt(KEY_HEIGHT, 0),
+                preferences.getFloat(KEY_FPS, MIN_FPS), preferences.getLong(KEY_LATENCY, 0));
+    }
+
+    /**
+     * Measures the preview sizes of the camera facing the given way, stores the result and
+     * returns it.  Takes a few seconds; call it off the UI thread, while the camera is not in use.
+     *
+     * @throws IllegalStateException if the recognizer is not operational yet, or no preview size
+     *                               read the sample
+     * @throws RuntimeException      if the camera could not be opened
+     */
+    public static Result run(Context context, int facing) {
+        List<Size> sizes = new ArrayList<>();
+        for (Size size : CameraSource.getValidPreviewSizes(facing)) {
+            int side = Math.max(size.getWidth(), size.getHeight());
+            if (side >= MIN_SIDE && side <= MAX_SIDE && !sizes.contains(size)) {
+                sizes.add(size);
+            }
+        }
+        if (sizes.isEmpty()) {
+            throw new IllegalStateException("The camera has no preview size to calibrate.");
+        }
+        Collections.sort(sizes, new Comparator<Size>() {
+            @Override
+            public int compare(Size a, Size b) {
+                return a.getWidth() * a.getHeight() - b.getWidth() * b.getHeight();
+            }
+        });
+
+        TextRecognizer recognizer = new TextRecognizer.Builder(context).build();
+        try {
+            if (!recognizer.isOperational()) {
+                throw new IllegalStateException("The text recognizer is not operational yet.");
+            }
+
+            // Without a size that is fast enough, the one that read the sample fastest.
+            Size best = null;
+            long bestLatency = Long.MAX_VALUE;
+            for (Size size : sizes) {
+                long[] latency = new long[1];
+                boolean read = measure(recognizer, size, latency);
+                Log.d(TAG, String.format(Locale.US, "%dx%d: %d ms, %s", size.getWidth(),
+                        size.getHeight(), latency[0], read ? "read" : "not read"));
+                if (read && latency[0] < bestLatency) {
+                    best = size;
+                    bestLatency = latency[0];
+                    if (latency[0] <= MAX_LATENCY_MILLIS) {
+                        break;
+                    }
+                }
+                if (latency[0] > 2 * MAX_LATENCY_MILLIS) {
+                    // Larger sizes will only be slower.
+                    break;
+                }
+            }
+            if (best == null) {
+                // Any size stored now would be a guess; keep what was there.
+                throw new IllegalStateException("No preview size read the sample.");
+            }
+
+            float fps = Math.max(MIN_FPS, Math.min(MAX_FPS, 1000.0f / Math.max(1, bestLatency)));
+            Result result = new Result(best.getWidth(), best.getHeight(), fps, bestLatency);
+            context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit()
+                    .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                    .putInt(KEY_WIDTH, result.getPreviewWidth())
+                    .putInt(KEY_HEIGHT, result.getPreviewHeight())
+                    .putFloat(KEY_FPS, result.getFps())
+                    .putLong(KEY_LATENCY, result.getLatencyMillis())
+                    .apply();
+            return result;
+        } finally {
+            recognizer.release();
+        }
+    }
+
+    /**
+     * Recognizes the synthetic frame of the given size a few times.  Returns whether every
+     * sample line was read, and puts the median time taken in latency[0].
+     */
+    private static boolean measure(TextRecognizer recognizer, Size size, long[] latency) {
+        Frame frame = new Frame.Builder()
+                .setImageData(renderSample(size.getWidth(), size.getHeight()), size.getWidth(),
+                        size.getHeight(), ImageFormat.NV21)
+                .build();
+
+        SparseArray<TextBlock> blocks = recognizer.detect(frame);
+        long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; ++i) {
+            long start = SystemClock.elapsedRealtime();
+            blocks = recognizer.detect(frame);
+            times[i] = SystemClock.elapsedRealtime() - start;
+        }
+        Arrays.sort(times);
+        latency[0] = times[RUNS / 2];
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < blocks.size(); ++i) {
+            for (Text line : blocks.valueAt(i).getComponents()) {
+                text.append(normalize(line.getValue())).append('\n');
+            }
+        }
+        for (String line : SAMPLE_LINES) {
+            if (text.indexOf(normalize(line)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renders the sample lines, black on white and centered, into an NV21 buffer.
+     */
+    private static ByteBuffer renderSample(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.BLACK);
+        paint.setTextAlign(Paint.Align.CENTER);
+        float lineHeight = LINE_HEIGHT * Math.min(width, height);
+        paint.setTextSize(lineHeight);
+        float y = height / 2.0f - lineHeight * (SAMPLE_LINES.length - 1);
+        for (String line : SAMPLE_LINES) {
+            canvas.drawText(line, width / 2.0f, y, paint);
+            y += 2 * lineHeight;
+        }
+
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        bitmap.recycle();
+        byte[] data = new byte[width * height * 3 / 2];
+        for (int i = 0; i < pixels.length; ++i) {
+            // Gray, so any channel is the luma.
+            data[i] = (byte) Color.red(pixels[i]);
+        }
+        Arrays.fill(data, width * height, data.length, (byte) 128);
+        return ByteBuffer.wrap(data);
+    }
+
+    private static String normalize(String text) {
+        return text.replaceAll("\\s+", "").toLowerCase(Locale.US);
+    }
+}
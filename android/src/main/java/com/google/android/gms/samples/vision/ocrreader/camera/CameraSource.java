@@ -20,6 +20,8 @@ import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
@@ -28,6 +30,7 @@ import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresPermission;
 import android.support.annotation.StringDef;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
@@ -45,6 +48,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -140,6 +144,22 @@ public class CameraSource {
     private String mFocusMode = null;
     private String mFlashMode = null;
 
+    // Kept so that it can be registered again whenever the camera is reopened.
+    private CameraAutoFocusMoveCallback mAutoFocusMoveCallback;
+
+    // Frames are dropped before detection while this reports movement.
+    private volatile MotionMonitor mMotionMonitor;
+
+    // While on standby, frames are dropped before detection and the camera runs at about this
+    // frame rate, its lowest.
+    private static final float STANDBY_FPS = 1.0f;
+    private volatile boolean mStandby;
+
+    // Preview buffers kept in circulation; lowered under memory pressure until the camera is
+    // started again.
+    private static final int PREVIEW_BUFFER_COUNT = 4;
+    private volatile int mMaxPreviewBuffers = PREVIEW_BUFFER_COUNT;
+
     // These instances need to be held onto to avoid GC of their underlying resources.  Even though
     // these aren't used outside of the method that creates them, they still must have hard
     // references maintained to them.
@@ -151,7 +171,12 @@ public class CameraSource {
      * frames become available from the camera.
      */
     private Thread mProcessingThread;
-    private FrameProcessingRunnable mFrameProcessor;
+    private volatile FrameProcessingRunnable mFrameProcessor;
+
+    // Notices frames stuck in the detector, and the listener that builds the detector to carry
+    // on with; see setProcessingWatchdog.
+    private volatile ProcessingWatchdog mWatchdog;
+    private StallListener mStallListener;
 
     /**
      * Map to convert between a byte array, received from the camera, and its associated byte
@@ -312,6 +337,24 @@ public class CameraSource {
         void onAutoFocusMoving(boolean start);
     }
 
+    /**
+     * Builds the detector that frame processing carries on with after a frame got stuck.
+     */
+    public interface StallListener {
+        /**
+         * Called on the watchdog's thread when a frame has been in the detector past the
+         * deadline, or on the thread stopping the camera or switching its preview size, with
+         * the camera lock held, when that has waited for the frame as long.  The stuck detector
+         * can't be used anymore, so this returns a new one to carry on with, or null to leave
+         * processing stuck, and the caller waiting.  The stuck one is released if its call ever
+         * returns.
+         *
+         * @param lastFrameMillis how long the last frame that came back took, or -1 if none did
+         */
+        @Nullable
+        Detector<?> onProcessingStalled(int frameId, long stalledMillis, long lastFrameMillis);
+    }
+
     //==============================================================================================
     // Public
     //==============================================================================================
@@ -355,6 +398,9 @@ public class CameraSource {
             mProcessingThread = new Thread(mFrameProcessor);
             mFrameProcessor.setActive(true);
             mProcessingThread.start();
+            if (mWatchdog != null) {
+                mWatchdog.start();
+            }
         }
         return this;
     }
@@ -380,6 +426,9 @@ public class CameraSource {
             mProcessingThread = new Thread(mFrameProcessor);
             mFrameProcessor.setActive(true);
             mProcessingThread.start();
+            if (mWatchdog != null) {
+                mWatchdog.start();
+            }
         }
         return this;
     }
@@ -392,21 +441,19 @@ public class CameraSource {
      * <p/>
      * Call {@link #release()} instead to completely shut down this camera source and release the
      * resources of the underlying detector.
+     * <p/>
+     * Waits for the frame being processed, or with a processing watchdog at most its deadline.
      */
     public void stop() {
         synchronized (mCameraLock) {
-            mFrameProcessor.setActive(false);
-            if (mProcessingThread != null) {
-                try {
-                    // Wait for the thread to complete to ensure that we can't have multiple threads
-                    // executing at the same time (i.e., which would happen if we called start too
-                    // quickly after stop).
-                    mProcessingThread.join();
-                } catch (InterruptedException e) {
-                    Log.d(TAG, "Frame processing thread interrupted on release.");
-                }
-                mProcessingThread = null;
+            if (mWatchdog != null) {
+                mWatchdog.stop();
             }
+            mFrameProcessor.setActive(false);
+            // Wait for the thread to complete to ensure that we can't have multiple threads
+            // executing at the same time (i.e., which would happen if we called start too
+            // quickly after stop).
+            joinProcessingThread();
 
             // clear the buffer to prevent oom exceptions
             mBytesToByteBuffer.clear();
@@ -436,6 +483,142 @@ public class CameraSource {
         }
     }
 
+    /**
+     * Switches the running camera to the supported preview size closest to the requested one,
+     * without closing it: frame processing is paused, the preview is stopped and restarted with
+     * the new size, and the preview buffers are kept if they are large enough for it.  Also taken
+     * as the requested size if the camera is started again.  Blocks until the frame being
+     * processed is done, or with a processing watchdog at most its deadline, so it must not be
+     * called from the detector.
+     *
+     * @return {@code true} if the preview size changed
+     */
+    public boolean setPreviewSize(int width, int height) {
+        synchronized (mCameraLock) {
+            mRequestedPreviewWidth = width;
+            mRequestedPreviewHeight = height;
+            if (mCamera == null) {
+                return false;
+            }
+
+            SizePair sizePair = selectSizePair(mCamera, width, height);
+            if (sizePair == null || sizePair.previewSize().equals(mPreviewSize)) {
+                return false;
+            }
+
+            mFrameProcessor.setActive(false);
+            joinProcessingThread();
+            mCamera.stopPreview();
+            // Also empties the camera's buffer queue, so every buffer is back in our hands.
+            mCamera.setPreviewCallbackWithBuffer(null);
+            mFrameProcessor.clearPendingFrame();
+
+            mPreviewSize = sizePair.previewSize();
+            Camera.Parameters parameters = mCamera.getParameters();
+            parameters.setPreviewSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+            if (sizePair.pictureSize() != null) {
+                parameters.setPictureSize(sizePair.pictureSize().getWidth(),
+                        sizePair.pictureSize().getHeight());
+            }
+            mCamera.setParameters(parameters);
+
+            mCamera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
+            for (byte[] buffer : getPreviewBuffers(mPreviewSize)) {
+                mCamera.addCallbackBuffer(buffer);
+            }
+            mCamera.startPreview();
+
+            mProcessingThread = new Thread(mFrameProcessor);
+            mFrameProcessor.setActive(true);
+            mProcessingThread.start();
+            return true;
+        }
+    }
+
+    /**
+     * Lets fewer preview buffers circulate, to give memory back under pressure: buffers beyond
+     * the count are dropped as they come back from the camera or the detector, rather than being
+     * handed to the camera again.  Two still keep frames coming, at a lower rate.  The full pool
+     * is allocated again when the camera is next started.
+     *
+     * @param count the buffers to keep, at least 2
+     * @return about how many bytes are freed
+     */
+    public long shrinkPreviewBuffers(int count) {
+        count = Math.max(2, count);
+        synchronized (mCameraLock) {
+            int excess = mBytesToByteBuffer.size() - count;
+            mMaxPreviewBuffers = count;
+            if (excess <= 0 || mPreviewSize == null) {
+                return 0;
+            }
+            return (long) excess * mPreviewSize.getWidth() * mPreviewSize.getHeight() * 3 / 2;
+        }
+    }
+
+    /**
+     * Returns about how many bytes the preview buffers in circulation take.
+     */
+    public long getPreviewBufferBytes() {
+        synchronized (mCameraLock) {
+            if (mPreviewSize == null) {
+                return 0;
+            }
+            return (long) mBytesToByteBuffer.size() * mPreviewSize.getWidth() * mPreviewSize.getHeight() * 3 / 2;
+        }
+    }
+
+    /**
+     * Sets the frame rate to ask the camera for, on the running camera as well.
+     *
+     * @return {@code true} if the running camera took a new frame rate range
+     */
+    public boolean setPreviewFps(float fps) {
+        synchronized (mCameraLock) {
+            mRequestedFps = fps;
+            return applyPreviewFps(mStandby ? STANDBY_FPS : fps);
+        }
+    }
+
+    /**
+     * Puts frame processing on standby, or back to work.  On standby, frames are dropped before
+     * detection and the camera is turned down to its lowest frame rate, but it stays open, so
+     * that work picks up again with the next frame once standby ends.
+     */
+    public void setStandby(boolean standby) {
+        synchronized (mCameraLock) {
+            if (standby == mStandby) {
+                return;
+            }
+            mStandby = standby;
+            applyPreviewFps(standby ? STANDBY_FPS : mRequestedFps);
+        }
+    }
+
+    public boolean isStandby() {
+        return mStandby;
+    }
+
+    /**
+     * Switches the running camera to the frame rate range closest to the given rate.  Call it
+     * with the camera lock held.
+     */
+    private boolean applyPreviewFps(float fps) {
+        if (mCamera == null) {
+            return false;
+        }
+        int[] previewFpsRange = selectPreviewFpsRange(mCamera, fps);
+        if (previewFpsRange == null) {
+            return false;
+        }
+        Camera.Parameters parameters = mCamera.getParameters();
+        parameters.setPreviewFpsRange(
+                previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        mCamera.setParameters(parameters);
+        return true;
+    }
+
     /**
      * Returns the preview size that is currently in use by the underlying camera.
      */
@@ -484,24 +667,80 @@ public class CameraSource {
         }
     }
 
+    /**
+     * Returns the current zoom as a ratio of the unzoomed field of view, 1 when not zoomed or when
+     * zoom isn't supported.
+     */
+    public float getZoomRatio() {
+        synchronized (mCameraLock) {
+            if (mCamera == null) {
+                return 1;
+            }
+            Camera.Parameters parameters = mCamera.getParameters();
+            if (!parameters.isZoomSupported()) {
+                return 1;
+            }
+            return parameters.getZoomRatios().get(parameters.getZoom()) / 100.0f;
+        }
+    }
+
+    /**
+     * Zooms to the supported ratio closest to the given one.  Zoom crops the center of the sensor
+     * for the preview, the frames and pictures alike, so boxes found in frames keep mapping onto
+     * the preview as they are.
+     *
+     * @param ratio the zoom ratio, 1 for none
+     * @return the ratio zoomed to, 1 if zoom isn't supported
+     */
+    public float setZoomRatio(float ratio) {
+        synchronized (mCameraLock) {
+            if (mCamera == null) {
+                return 1;
+            }
+            Camera.Parameters parameters = mCamera.getParameters();
+            if (!parameters.isZoomSupported()) {
+                return 1;
+            }
+            // Ratios are in hundredths, sorted ascending, one for every zoom step.
+            List<Integer> ratios = parameters.getZoomRatios();
+            int zoom = 0;
+            for (int i = 1; i < ratios.size(); ++i) {
+                if (Math.abs(ratios.get(i) - ratio * 100) < Math.abs(ratios.get(zoom) - ratio * 100)) {
+                    zoom = i;
+                }
+            }
+            if (zoom != parameters.getZoom()) {
+                parameters.setZoom(zoom);
+                mCamera.setParameters(parameters);
+            }
+            return ratios.get(zoom) / 100.0f;
+        }
+    }
+
     /**
      * Initiates taking a picture, which happens asynchronously.  The camera source should have been
      * activated previously with {@link #start()} or {@link #start(SurfaceHolder)}.  The camera
      * preview is suspended while the picture is being taken, but will resume once picture taking is
      * done.
      *
+     * The callbacks are never called if the camera is stopped, or its preview size changed, before
+     * the picture is taken.
+     *
      * @param shutter the callback for image capture moment, or null
      * @param jpeg    the callback for JPEG image data, or null
+     * @return false if the camera isn't open, so no picture is taken
      */
-    public void takePicture(ShutterCallback shutter, PictureCallback jpeg) {
+    public boolean takePicture(ShutterCallback shutter, PictureCallback jpeg) {
         synchronized (mCameraLock) {
-            if (mCamera != null) {
-                PictureStartCallback startCallback = new PictureStartCallback();
-                startCallback.mDelegate = shutter;
-                PictureDoneCallback doneCallback = new PictureDoneCallback();
-                doneCallback.mDelegate = jpeg;
-                mCamera.takePicture(startCallback, null, null, doneCallback);
+            if (mCamera == null) {
+                return false;
             }
+            PictureStartCallback startCallback = new PictureStartCallback();
+            startCallback.mDelegate = shutter;
+            PictureDoneCallback doneCallback = new PictureDoneCallback();
+            doneCallback.mDelegate = jpeg;
+            mCamera.takePicture(startCallback, null, null, doneCallback);
+            return true;
         }
     }
 
@@ -637,7 +876,8 @@ public class CameraSource {
     }
 
     /**
-     * Sets camera auto-focus move callback.
+     * Sets camera auto-focus move callback.  The callback stays registered if the camera is
+     * stopped and started again.
      *
      * @param cb the callback to run
      * @return {@code true} if the operation is supported (i.e. from Jelly Bean), {@code false}
@@ -650,12 +890,13 @@ public class CameraSource {
         }
 
         synchronized (mCameraLock) {
+            CameraAutoFocusMoveCallback autoFocusMoveCallback = null;
+            if (cb != null) {
+                autoFocusMoveCallback = new CameraAutoFocusMoveCallback();
+                autoFocusMoveCallback.mDelegate = cb;
+            }
+            mAutoFocusMoveCallback = autoFocusMoveCallback;
             if (mCamera != null) {
-                CameraAutoFocusMoveCallback autoFocusMoveCallback = null;
-                if (cb != null) {
-                    autoFocusMoveCallback = new CameraAutoFocusMoveCallback();
-                    autoFocusMoveCallback.mDelegate = cb;
-                }
                 mCamera.setAutoFocusMoveCallback(autoFocusMoveCallback);
             }
         }
@@ -663,6 +904,198 @@ public class CameraSource {
         return true;
     }
 
+    /**
+     * Aims focus and metering at a region of the frame, where supported.  Call
+     * {@link #autoFocus(AutoFocusCallback)} afterwards in auto focus modes; continuous modes pick
+     * the region up by themselves.
+     *
+     * @param region fractions (0..1) of the upright frame, or null to let the camera choose
+     * @return {@code true} if focus areas are supported and were set, {@code false} otherwise
+     */
+    public boolean setFocusArea(@Nullable RectF region) {
+        synchronized (mCameraLock) {
+            if (mCamera == null) {
+                return false;
+            }
+            Camera.Parameters parameters = mCamera.getParameters();
+            if (parameters.getMaxNumFocusAreas() == 0) {
+                return false;
+            }
+
+            List<Camera.Area> areas = null;
+            if (region != null) {
+                // Camera areas span -1000..1000 of the sensor, before any display rotation.
+                Rect sensor = RegionDetector.toSensorRect(region, mRotation, 2000, 2000);
+                if (sensor.isEmpty()) {
+                    return false;
+                }
+                sensor.offset(-1000, -1000);
+                areas = new ArrayList<>();
+                areas.add(new Camera.Area(sensor, 1000));
+            }
+            parameters.setFocusAreas(areas);
+            if (parameters.getMaxNumMeteringAreas() > 0) {
+                parameters.setMeteringAreas(areas);
+            }
+            mCamera.setParameters(parameters);
+            return true;
+        }
+    }
+
+    /**
+     * Watches over frame processing.  Once a frame has been in the detector for longer than the
+     * deadline, the listener builds a new detector; the buffers held by the stuck frame and the
+     * pending one go back to the camera, a fresh one standing in for the stuck frame's, and
+     * processing starts over on a new thread.  The stuck thread is interrupted and left to finish
+     * or hang on its own.  Stopping the camera or switching its preview size likewise waits for
+     * a frame in the detector no longer than the deadline.
+     *
+     * @param deadlineMillis the longest a frame may take, or 0 to stop watching
+     */
+    public void setProcessingWatchdog(long deadlineMillis, @Nullable StallListener listener) {
+        synchronized (mCameraLock) {
+            if (mWatchdog != null) {
+                mWatchdog.stop();
+                mWatchdog = null;
+            }
+            mStallListener = listener;
+            if (deadlineMillis <= 0 || listener == null) {
+                return;
+            }
+            mWatchdog = new ProcessingWatchdog(deadlineMillis, new ProcessingWatchdog.Listener() {
+                @Override
+                public void onStall(int frameId, long stalledMillis, long lastFrameMillis) {
+                    recoverFromStall(frameId, stalledMillis, lastFrameMillis);
+                }
+            });
+            if (mCamera != null) {
+                mWatchdog.start();
+            }
+        }
+    }
+
+    /**
+     * Skips detection on frames taken while the monitor reports that the device is moving.  The
+     * monitor is only read; starting and stopping it is up to the caller.
+     *
+     * @param monitor the monitor to consult, or null to process every frame
+     */
+    public void setMotionMonitor(@Nullable MotionMonitor monitor) {
+        mMotionMonitor = monitor;
+    }
+
+    /**
+     * Gives up on the frame processing thread, which is stuck in the detector, and starts over
+     * with the detector the stall listener builds.  Runs on the watchdog's thread, or within
+     * {@link #joinProcessingThread}, where processing was paused and so isn't started again.
+     */
+    private void recoverFromStall(int frameId, long stalledMillis, long lastFrameMillis) {
+        Log.w(TAG, "Frame " + frameId + " stuck in the detector for " + stalledMillis + " ms.");
+        StallListener listener = mStallListener;
+        Detector<?> detector = listener != null
+                ? listener.onProcessingStalled(frameId, stalledMillis, lastFrameMillis) : null;
+        if (detector == null) {
+            return;
+        }
+
+        synchronized (mCameraLock) {
+            FrameProcessingRunnable stuck = mFrameProcessor;
+            if (mCamera == null || mProcessingThread == null || !stuck.isProcessing(frameId)) {
+                // Stopped, or the frame was given up on by the thread waiting for it while this
+                // one waited for the lock.
+                detector.release();
+                return;
+            }
+
+            boolean active = stuck.isActive();
+            FrameProcessingRunnable next = new FrameProcessingRunnable(detector);
+            next.mStartTimeMillis = stuck.mStartTimeMillis;
+            next.mPendingFrameId = stuck.mPendingFrameId;
+            mFrameProcessor = next;
+
+            ByteBuffer processing = stuck.abandon(mCamera);
+            if (processing != null) {
+                // Still in use by the stuck thread, so the camera gets a new buffer in its place.
+                synchronized (next.mLock) {
+                    mBytesToByteBuffer.remove(processing.array());
+                }
+                mCamera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
+            }
+            mProcessingThread.interrupt();
+            if (mWatchdog != null) {
+                mWatchdog.reset();
+            }
+
+            if (!active) {
+                // Stopping or switching preview size, which starts the new runnable if it goes on.
+                next.setActive(false);
+                mProcessingThread = null;
+                return;
+            }
+            mProcessingThread = new Thread(mFrameProcessor);
+            mFrameProcessor.setActive(true);
+            mProcessingThread.start();
+        }
+    }
+
+    /**
+     * Waits for the frame processing thread to exit after its runnable was made inactive, and
+     * forgets it.  With a watchdog, a frame still in the detector after the deadline is given up
+     * on as stalled, rather than blocking the caller, often the UI thread, for as long as the
+     * detector hangs.  Call it with the camera lock held.
+     */
+    private void joinProcessingThread() {
+        Thread thread = mProcessingThread;
+        if (thread == null) {
+            return;
+        }
+        try {
+            ProcessingWatchdog watchdog = mWatchdog;
+            if (watchdog != null) {
+                thread.join(watchdog.getDeadlineMillis());
+                if (thread.isAlive()) {
+                    // Replaces the runnable and clears mProcessingThread if the listener has a
+                    // new detector.
+                    watchdog.expire(SystemClock.elapsedRealtime());
+                }
+            }
+            if (mProcessingThread == thread) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Frame processing thread interrupted while waiting for it.");
+        }
+        mProcessingThread = null;
+    }
+
+    /**
+     * Returns the open camera, or null while stopped.
+     */
+    @VisibleForTesting
+    Camera getCamera() {
+        synchronized (mCameraLock) {
+            return mCamera;
+        }
+    }
+
+    /**
+     * Returns whether the buffer is one of those circulating between the camera and the detector.
+     */
+    @VisibleForTesting
+    boolean isPreviewBuffer(byte[] data) {
+        synchronized (mFrameProcessor.mLock) {
+            return mBytesToByteBuffer.containsKey(data);
+        }
+    }
+
+    /**
+     * Returns the watchdog set up by {@link #setProcessingWatchdog}, or null if there is none.
+     */
+    @VisibleForTesting
+    ProcessingWatchdog getProcessingWatchdog() {
+        return mWatchdog;
+    }
+
     //==============================================================================================
     // Private
     //==============================================================================================
@@ -696,14 +1129,19 @@ public class CameraSource {
 
         @Override
         public void onPictureTaken(byte[] data, Camera camera) {
-            if (mDelegate != null) {
-                mDelegate.onPictureTaken(data);
-            }
+            // Restart the preview on the open camera before handing the picture on, so that
+            // frames keep flowing while the picture is processed.  The camera and its preview
+            // buffers are kept; only the callback is set again, since some devices drop it when
+            // a picture is taken.
             synchronized (mCameraLock) {
                 if (mCamera != null) {
+                    mCamera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
                     mCamera.startPreview();
                 }
             }
+            if (mDelegate != null) {
+                mDelegate.onPictureTaken(data);
+            }
         }
     }
 
@@ -756,7 +1194,7 @@ public class CameraSource {
         Size pictureSize = sizePair.pictureSize();
         mPreviewSize = sizePair.previewSize();
 
-        int[] previewFpsRange = selectPreviewFpsRange(camera, mRequestedFps);
+        int[] previewFpsRange = selectPreviewFpsRange(camera, mStandby ? STANDBY_FPS : mRequestedFps);
         if (previewFpsRange == null) {
             throw new RuntimeException("Could not find suitable preview frames per second range.");
         }
@@ -803,20 +1241,49 @@ public class CameraSource {
 
         camera.setParameters(parameters);
 
+        if (mAutoFocusMoveCallback != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            camera.setAutoFocusMoveCallback(mAutoFocusMoveCallback);
+        }
+
         // Four frame buffers are needed for working with the camera:
         //
         //   one for the frame that is currently being executed upon in doing detection
         //   one for the next pending frame to process immediately upon completing detection
         //   two for the frames that the camera uses to populate future preview images
         camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
+        for (int i = 0; i < PREVIEW_BUFFER_COUNT; ++i) {
+            camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
+        }
+        mMaxPreviewBuffers = PREVIEW_BUFFER_COUNT;
 
         return camera;
     }
 
+    /**
+     * Returns the preview sizes that the camera facing the given way supports along with a picture
+     * size of the same aspect ratio, see {@link #generateValidPreviewSizeList}.  The camera is
+     * opened briefly to read them, so this fails while it is in use.
+     *
+     * @param facing {@link #CAMERA_FACING_BACK} or {@link #CAMERA_FACING_FRONT}
+     * @throws RuntimeException if there is no such camera or it could not be opened
+     */
+    public static List<Size> getValidPreviewSizes(int facing) {
+        int cameraId = getIdForRequestedCamera(facing);
+        if (cameraId == -1) {
+            throw new RuntimeException("Could not find requested camera.");
+        }
+        Camera camera = Camera.open(cameraId);
+        try {
+            List<Size> sizes = new ArrayList<>();
+            for (SizePair sizePair : generateValidPreviewSizeList(camera)) {
+                sizes.add(sizePair.previewSize());
+            }
+            return sizes;
+        } finally {
+            camera.release();
+        }
+    }
+
     /**
      * Gets the id for the camera specified by the direction it is facing.  Returns -1 if no such
      * camera was found.
@@ -1024,6 +1491,32 @@ public class CameraSource {
         parameters.setRotation(angle);
     }
 
+    /**
+     * Returns as many preview buffers for the given size as are allowed to circulate (see
+     * {@link #shrinkPreviewBuffers}).  Current buffers are kept if they are large enough, since a
+     * camera accepts buffers larger than a frame, and only the missing ones are allocated.
+     */
+    private List<byte[]> getPreviewBuffers(Size previewSize) {
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
+        long sizeInBits = previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
+        int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
+        int count = mMaxPreviewBuffers;
+
+        List<byte[]> buffers = new ArrayList<>(count);
+        for (Iterator<byte[]> it = mBytesToByteBuffer.keySet().iterator(); it.hasNext(); ) {
+            byte[] buffer = it.next();
+            if (buffer.length >= bufferSize && buffers.size() < count) {
+                buffers.add(buffer);
+            } else {
+                it.remove();
+            }
+        }
+        while (buffers.size() < count) {
+            buffers.add(createPreviewBuffer(previewSize));
+        }
+        return buffers;
+    }
+
     /**
      * Creates one buffer for the camera preview callback.  The size of the buffer is based off of
      * the camera preview size and the format of the camera image.
@@ -1085,6 +1578,12 @@ public class CameraSource {
         private final Object mLock = new Object();
         private boolean mActive = true;
 
+        // Buffer and id of the frame in the detector, and whether the watchdog gave up on this
+        // runnable.
+        private ByteBuffer mProcessingData;
+        private int mProcessingFrameId;
+        private boolean mAbandoned;
+
         // These pending variables hold the state associated with the new frame awaiting processing.
         private long mPendingTimeMillis;
         private int mPendingFrameId = 0;
@@ -1115,6 +1614,45 @@ public class CameraSource {
             }
         }
 
+        boolean isActive() {
+            synchronized (mLock) {
+                return mActive;
+            }
+        }
+
+        boolean isProcessing(int frameId) {
+            synchronized (mLock) {
+                return mProcessingData != null && mProcessingFrameId == frameId;
+            }
+        }
+
+        /**
+         * Stops this runnable for good while its thread is stuck in the detector.  The pending
+         * frame's buffer goes back to the camera, and the detector is released if the thread ever
+         * comes back.  Returns the buffer of the frame in the detector, or null if there is none.
+         */
+        ByteBuffer abandon(Camera camera) {
+            synchronized (mLock) {
+                mActive = false;
+                mAbandoned = true;
+                mLock.notifyAll();
+                if (mPendingFrameData != null) {
+                    camera.addCallbackBuffer(mPendingFrameData.array());
+                    mPendingFrameData = null;
+                }
+                return mProcessingData;
+            }
+        }
+
+        /**
+         * Forgets the pending frame, once the camera has stopped and holds no buffers anymore.
+         */
+        void clearPendingFrame() {
+            synchronized (mLock) {
+                mPendingFrameData = null;
+            }
+        }
+
         /**
          * Sets the frame data received from the camera.  This adds the previous unused frame buffer
          * (if present) back to the camera, and keeps a pending reference to the frame data for
@@ -1122,8 +1660,13 @@ public class CameraSource {
          */
         void setNextFrame(byte[] data, Camera camera) {
             synchronized (mLock) {
+                if (mAbandoned) {
+                    // Delivered while the watchdog replaced this runnable; the next one gets it.
+                    camera.addCallbackBuffer(data);
+                    return;
+                }
                 if (mPendingFrameData != null) {
-                    camera.addCallbackBuffer(mPendingFrameData.array());
+                    returnBuffer(camera, mPendingFrameData);
                     mPendingFrameData = null;
                 }
 
@@ -1161,6 +1704,17 @@ public class CameraSource {
          */
         @Override
         public void run() {
+            processFrames();
+            synchronized (mLock) {
+                if (!mAbandoned) {
+                    return;
+                }
+            }
+            // The stuck frame came back after all; its detector has been replaced.
+            mDetector.release();
+        }
+
+        private void processFrames() {
             Frame outputFrame;
             ByteBuffer data;
 
@@ -1185,6 +1739,15 @@ public class CameraSource {
                         return;
                     }
 
+                    MotionMonitor motionMonitor = mMotionMonitor;
+                    if (mStandby || (motionMonitor != null && !motionMonitor.isStill())) {
+                        // Nobody sees the frame, or it would be too blurred to read; hand its
+                        // buffer straight back.
+                        returnBuffer(mCamera, mPendingFrameData);
+                        mPendingFrameData = null;
+                        continue;
+                    }
+
                     outputFrame = new Frame.Builder()
                             .setImageData(mPendingFrameData, mPreviewSize.getWidth(),
                                     mPreviewSize.getHeight(), ImageFormat.NV21)
@@ -1198,20 +1761,50 @@ public class CameraSource {
                     // recycled back to the camera before we are done using that data.
                     data = mPendingFrameData;
                     mPendingFrameData = null;
+                    mProcessingData = data;
+                    mProcessingFrameId = outputFrame.getMetadata().getId();
                 }
 
                 // The code below needs to run outside of synchronization, because this will allow
                 // the camera to add pending frame(s) while we are running detection on the current
                 // frame.
 
+                ProcessingWatchdog watchdog = mWatchdog;
+                if (watchdog != null) {
+                    watchdog.onFrameStarted(outputFrame.getMetadata().getId(),
+                            SystemClock.elapsedRealtime());
+                }
                 try {
                     mDetector.receiveFrame(outputFrame);
                 } catch (Throwable t) {
                     Log.e(TAG, "Exception thrown from receiver.", t);
-                } finally {
-                    mCamera.addCallbackBuffer(data.array());
+                }
+                synchronized (mLock) {
+                    mProcessingData = null;
+                    if (mAbandoned) {
+                        // The buffer has been replaced, and this thread with it.
+                        return;
+                    }
+                }
+                if (watchdog != null) {
+                    watchdog.onFrameFinished(SystemClock.elapsedRealtime());
+                }
+                returnBuffer(mCamera, data);
+            }
+        }
+
+        /**
+         * Hands a buffer back to the camera, or drops it while more buffers circulate than
+         * allowed.
+         */
+        private void returnBuffer(Camera camera, ByteBuffer buffer) {
+            synchronized (mLock) {
+                if (mBytesToByteBuffer.size() > mMaxPreviewBuffers) {
+                    mBytesToByteBuffer.remove(buffer.array());
+                    return;
                 }
             }
+            camera.addCallbackBuffer(buffer.array());
         }
     }
 }
@@ -40,6 +40,7 @@ public class CameraSourcePreview extends ViewGroup {
     private boolean mStartRequested;
     private boolean mSurfaceAvailable;
     private CameraSource mCameraSource;
+    private int mFillMode = FILL_MODE_COVER;
 
     private GraphicOverlay mOverlay;
 
@@ -74,6 +75,17 @@ public class CameraSourcePreview extends ViewGroup {
         start(cameraSource);
     }
 
+    /**
+     * Sets how the preview is scaled into this view: {@link #FILL_MODE_COVER} fills the view and
+     * crops what sticks out, {@link #FILL_MODE_FIT} shows the whole preview with borders.
+     */
+    public void setFillMode(int fillMode) {
+        if (fillMode != mFillMode) {
+            mFillMode = fillMode;
+            requestLayout();
+        }
+    }
+
     public void stop() {
         if (mCameraSource != null) {
             mCameraSource.stop();
@@ -92,22 +104,40 @@ public class CameraSourcePreview extends ViewGroup {
         if (mStartRequested && mSurfaceAvailable) {
             mCameraSource.start(mSurfaceView.getHolder());
             if (mOverlay != null) {
-                Size size = mCameraSource.getPreviewSize();
-                int min = Math.min(size.getWidth(), size.getHeight());
-                int max = Math.max(size.getWidth(), size.getHeight());
-                if (isPortraitMode()) {
-                    // Swap width and height sizes when in portrait, since it will be rotated by
-                    // 90 degrees
-                    mOverlay.setCameraInfo(min, max, mCameraSource.getCameraFacing());
-                } else {
-                    mOverlay.setCameraInfo(max, min, mCameraSource.getCameraFacing());
-                }
+                updateOverlayInfo();
                 mOverlay.clear();
             }
             mStartRequested = false;
         }
     }
 
+    /**
+     * Switches the running camera to another preview size, see
+     * {@link CameraSource#setPreviewSize(int, int)}, and lays the preview and overlay out again.
+     */
+    public void setPreviewSize(int width, int height) {
+        if (mCameraSource == null || !mCameraSource.setPreviewSize(width, height)) {
+            return;
+        }
+        if (mOverlay != null) {
+            updateOverlayInfo();
+        }
+        requestLayout();
+    }
+
+    private void updateOverlayInfo() {
+        Size size = mCameraSource.getPreviewSize();
+        int min = Math.min(size.getWidth(), size.getHeight());
+        int max = Math.max(size.getWidth(), size.getHeight());
+        if (isPortraitMode()) {
+            // Swap width and height sizes when in portrait, since it will be rotated by
+            // 90 degrees
+            mOverlay.setCameraInfo(min, max, mCameraSource.getCameraFacing());
+        } else {
+            mOverlay.setCameraInfo(max, min, mCameraSource.getCameraFacing());
+        }
+    }
+
     private class SurfaceCallback implements SurfaceHolder.Callback {
         @Override
         public void surfaceCreated(SurfaceHolder surface) {
@@ -163,8 +193,9 @@ public class CameraSourcePreview extends ViewGroup {
         // To fill the view with the camera preview, while also preserving the correct aspect ratio,
         // it is usually necessary to slightly oversize the child and to crop off portions along one
         // of the dimensions.  We scale up based on the dimension requiring the most correction, and
-        // compute a crop offset for the other dimension.
-        if (widthRatio > heightRatio) {
+        // compute a crop offset for the other dimension.  To fit the preview in the view instead,
+        // we scale based on the other dimension and the offset centers the child.
+        if ((widthRatio > heightRatio) == (mFillMode == FILL_MODE_COVER)) {
             childWidth = viewWidth;
             childHeight = (int) ((float) previewHeight * widthRatio);
             childYOffset = (childHeight - viewHeight) / 2;
@@ -175,8 +206,8 @@ public class CameraSourcePreview extends ViewGroup {
         }
 
         for (int i = 0; i < getChildCount(); ++i) {
-            // One dimension will be cropped.  We shift child over or up by this offset and adjust
-            // the size to maintain the proper aspect ratio.
+            // One dimension will be cropped, or bordered when fitting.  We shift child over or up
+            // by this offset and adjust the size to maintain the proper aspect ratio.
             getChildAt(i).layout(
                     -1 * childXOffset, -1 * childYOffset,
                     childWidth - childXOffset, childHeight - childYOffset);
@@ -0,0 +1,248 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.text.TextBlock;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Text detector that recognizes each frame in two passes: a quick one over a half-size copy of the
+ * frame to find where the text blocks are, and a full-resolution one over only the areas around
+ * them.<p>
+ *
+ * Most of a camera frame is usually background, so the second pass spends the recognizer's time
+ * where the text is while keeping the resolution small print needs.  Each area is cropped from
+ * the original NV21 buffer into a buffer reused from frame to frame and recognized on its own, so
+ * the blocks it yields are relative to that area; use {@link #getItemOffsetX(int)} and
+ * {@link #getItemOffsetY(int)} from the processor to place them in the frame.  When the areas
+ * would cover most of the frame anyway, the frame is recognized whole instead.  Frames that are
+ * too small to downscale, or come as bitmaps, are passed through untouched.
+ */
+public class CoarseToFineDetector extends Detector<TextBlock> implements ItemOffsets {
+    // Frames whose shorter side is below this are recognized whole.
+    private static final int MIN_COARSE_SIDE = 480;
+
+    // Share of the frame above which the areas are not worth cropping.
+    private static final float MAX_CROPPED_SHARE = 0.6f;
+
+    private final Detector<TextBlock> mDelegate;
+
+    // Written on the UI thread, read on the detector thread.
+    private volatile boolean mEnabled;
+    private volatile boolean mTrimRequested;
+
+    // Only touched on the detector thread.
+    private byte[] mCoarseBuffer;
+    private byte[] mCropBuffer;
+    private final SparseArray<Point> mItemOffsets = new SparseArray<>();
+
+    public CoarseToFineDetector(Detector<TextBlock> delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * Turns the two passes on or off.  While off, frames are passed through untouched.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Asks for the downsampling and crop buffers to be dropped before the next frame; they are
+     * allocated again as frames need them.  May be called from any thread.
+     *
+     * @return about how many bytes are freed
+     */
+    public long trimMemory() {
+        mTrimRequested = true;
+        // Read racily, which is fine for an estimate.
+        byte[] coarse = mCoarseBuffer;
+        byte[] crop = mCropBuffer;
+        return (coarse != null ? coarse.length : 0) + (crop != null ? crop.length : 0);
+    }
+
+    @Override
+    public int getItemOffsetX(int key) {
+        Point offset = mItemOffsets.get(key);
+        return offset != null ? offset.x : 0;
+    }
+
+    @Override
+    public int getItemOffsetY(int key) {
+        Point offset = mItemOffsets.get(key);
+        return offset != null ? offset.y : 0;
+    }
+
+    @Override
+    public SparseArray<TextBlock> detect(Frame frame) {
+        mItemOffsets.clear();
+        if (mTrimRequested) {
+            mTrimRequested = false;
+            mCoarseBuffer = null;
+            mCropBuffer = null;
+        }
+
+        Frame.Metadata metadata = frame.getMetadata();
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        ByteBuffer data = frame.getGrayscaleImageData();
+        if (!mEnabled || frame.getBitmap() != null || data == null || !data.hasArray()
+                || Math.min(width, height) < MIN_COARSE_SIDE) {
+            return mDelegate.detect(frame);
+        }
+
+        int rotation = metadata.getRotation();
+        int coarseWidth = (width / 2) & ~1;
+        int coarseHeight = (height / 2) & ~1;
+        SparseArray<TextBlock> coarse = mDelegate.detect(new Frame.Builder()
+                .setImageData(downsample(data, width, height, coarseWidth, coarseHeight),
+                        coarseWidth, coarseHeight, ImageFormat.NV21)
+                .setId(metadata.getId())
+                .setTimestampMillis(metadata.getTimestampMillis())
+                .setRotation(rotation)
+                .build());
+        if (coarse.size() == 0) {
+            return coarse;
+        }
+
+        boolean sideways = rotation == Frame.ROTATION_90 || rotation == Frame.ROTATION_270;
+        List<RectF> areas = findAreas(coarse, 1.0f / (sideways ? coarseHeight : coarseWidth),
+                1.0f / (sideways ? coarseWidth : coarseHeight));
+        float share = 0;
+        for (RectF area : areas) {
+            share += area.width() * area.height();
+        }
+        if (share > MAX_CROPPED_SHARE) {
+            return mDelegate.detect(frame);
+        }
+
+        SparseArray<TextBlock> items = new SparseArray<>();
+        for (RectF area : areas) {
+            Rect sensor = RegionDetector.toSensorRect(area, rotation, width, height);
+            if (sensor.isEmpty()) {
+                continue;
+            }
+            int size = sensor.width() * sensor.height() * 3 / 2;
+            if (mCropBuffer == null || mCropBuffer.length < size) {
+                mCropBuffer = new byte[size];
+            }
+            SparseArray<TextBlock> found = mDelegate.detect(new Frame.Builder()
+                    .setImageData(RegionDetector.cropNv21(data, width, height, sensor, mCropBuffer),
+                            sensor.width(), sensor.height(), ImageFormat.NV21)
+                    .setId(metadata.getId())
+                    .setTimestampMillis(metadata.getTimestampMillis())
+                    .setRotation(rotation)
+                    .build());
+
+            Point offset = RegionDetector.toUprightOffset(sensor, rotation, width, height);
+            for (int i = 0; i < found.size(); ++i) {
+                // Keys are only unique within one recognition, so the blocks are renumbered.
+                int key = items.size();
+                items.put(key, found.valueAt(i));
+                mItemOffsets.put(key, offset);
+            }
+        }
+        return items;
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mDelegate.isOperational();
+    }
+
+    @Override
+    public boolean setFocus(int id) {
+        return mDelegate.setFocus(id);
+    }
+
+    @Override
+    public void release() {
+        mDelegate.release();
+        super.release();
+    }
+
+    /**
+     * Returns the areas to recognize at full resolution, as fractions of the upright frame: each
+     * block of the coarse pass grown by its height on every side, with overlapping areas joined.
+     *
+     * @param scaleX reciprocal of the coarse frame's upright width
+     * @param scaleY reciprocal of the coarse frame's upright height
+     */
+    private static List<RectF> findAreas(SparseArray<TextBlock> coarse, float scaleX, float scaleY) {
+        List<RectF> areas = new ArrayList<>(coarse.size());
+        for (int i = 0; i < coarse.size(); ++i) {
+            TextBlock block = coarse.valueAt(i);
+            if (block == null) {
+                continue;
+            }
+            Rect box = block.getBoundingBox();
+            float marginX = box.height() * scaleX;
+            float marginY = box.height() * scaleY;
+            RectF grown = new RectF(
+                    Math.max(0, box.left * scaleX - marginX), Math.max(0, box.top * scaleY - marginY),
+                    Math.min(1, box.right * scaleX + marginX), Math.min(1, box.bottom * scaleY + marginY));
+
+            boolean joined = true;
+            while (joined) {
+                joined = false;
+                for (int j = 0; j < areas.size(); ++j) {
+                    if (RectF.intersects(grown, areas.get(j))) {
+                        grown.union(areas.remove(j));
+                        joined = true;
+                        break;
+                    }
+                }
+            }
+            areas.add(grown);
+        }
+        return areas;
+    }
+
+    /**
+     * Halves the NV21 frame into the reused coarse buffer, averaging luma over 2x2 pixels and
+     * keeping every other chroma sample.
+     */
+    private ByteBuffer downsample(ByteBuffer source, int width, int height,
+                                  int coarseWidth, int coarseHeight) {
+        int size = coarseWidth * coarseHeight * 3 / 2;
+        if (mCoarseBuffer == null || mCoarseBuffer.length < size) {
+            mCoarseBuffer = new byte[size];
+        }
+
+        byte[] data = source.array();
+        int offset = source.arrayOffset();
+        for (int y = 0; y < coarseHeight; ++y) {
+            int top = offset + 2 * y * width;
+            int bottom = top + width;
+            int out = y * coarseWidth;
+            for (int x = 0; x < coarseWidth; ++x) {
+                int i = 2 * x;
+                int sum = (data[top + i] & 0xff) + (data[top + i + 1] & 0xff)
+                        + (data[bottom + i] & 0xff) + (data[bottom + i + 1] & 0xff);
+                mCoarseBuffer[out + x] = (byte) (sum >> 2);
+            }
+        }
+
+        // Chroma rows hold width / 2 interleaved V and U pairs, for two luma rows each.
+        int chroma = offset + width * height;
+        int coarseChroma = coarseWidth * coarseHeight;
+        for (int y = 0; y < coarseHeight / 2; ++y) {
+            int line = chroma + 2 * y * width;
+            int out = coarseChroma + y * coarseWidth;
+            for (int x = 0; x < coarseWidth; x += 2) {
+                mCoarseBuffer[out + x] = data[line + 2 * x];
+                mCoarseBuffer[out + x + 1] = data[line + 2 * x + 1];
+            }
+        }
+        return ByteBuffer.wrap(mCoarseBuffer, 0, size);
+    }
+}
@@ -0,0 +1,195 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detector that holds frames back from an underlying detector while the lens is focusing, and
+ * asks for a refocus when frames stay blurry.<p>
+ *
+ * Register it with {@link CameraSource#setAutoFocusMoveCallback} so continuous focus modes report
+ * lens movement; for an autofocus started explicitly, call {@link #onAutoFocusMoving} around it.
+ * Frames taken while the lens moves are answered with no detections.<p>
+ *
+ * Sharpness is measured on the luma plane inside the current region (the center of the frame by
+ * default) as the ratio of the energy of one-pixel differences to that of two-pixel differences,
+ * scaled so that a blurred edge scores about 1 and a crisp one 2 or more, whatever the contrast.
+ * Regions without enough contrast to tell are not scored.  A frame is blurry when it scores low
+ * outright, or well below the best recent score, since fine print keeps some high-frequency
+ * energy even out of focus.  After a few blurry frames in a row the listener is told to refocus,
+ * at most once per interval.
+ */
+public class FocusGateDetector<T> extends Detector<T> implements CameraSource.AutoFocusMoveCallback {
+    // Consecutive blurry frames after which a refocus is requested.
+    private static final int BLURRY_FRAMES_BEFORE_REFOCUS = 3;
+
+    // Sharpness below which a frame counts as blurry.
+    private static final float MIN_SHARPNESS = 1.5f;
+
+    // Share of the best recent sharpness below which a frame counts as blurry, and how much of
+    // that best score is kept from one frame to the next.
+    private static final float MIN_SHARPNESS_OF_PEAK = 0.7f;
+    private static final float PEAK_DECAY = 0.95f;
+
+    // Mean squared two-pixel difference below which a region is too flat to score.
+    private static final float MIN_CONTRAST = 50.0f;
+
+    // Frame time between two refocus requests.
+    private static final long REFOCUS_INTERVAL_MILLIS = 2000;
+
+    // Frame time after which frames pass again even if the lens never reported stopping.
+    private static final long MAX_GATE_MILLIS = 1500;
+
+    private static final RectF CENTER = new RectF(0.2f, 0.2f, 0.8f, 0.8f);
+
+    /**
+     * Told on the detector thread when frames stay blurry.
+     */
+    public interface Listener {
+        void onRefocusNeeded();
+    }
+
+    private final Detector<T> mDelegate;
+    private final Listener mListener;
+
+    // Written on the UI or camera thread, read on the detector thread.
+    private volatile boolean mEnabled = true;
+    private volatile boolean mLensMoving;
+    private volatile RectF mRegion;
+
+    // Only touched on the detector thread.
+    private int mBlurryFrames;
+    private long mLastRefocusMillis = -REFOCUS_INTERVAL_MILLIS;
+    private long mGateStartMillis = -1;
+    private float mPeakSharpness;
+
+    // Written on the detector thread, read anywhere.
+    private volatile float mSharpness;
+
+    public FocusGateDetector(Detector<T> delegate, Listener listener) {
+        mDelegate = delegate;
+        mListener = listener;
+    }
+
+    /**
+     * Turns gating and refocus requests on or off.  While off, every frame goes to the underlying
+     * detector.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Sets where sharpness is measured, as fractions (0..1) of the upright frame, or null for the
+     * center of the frame.
+     */
+    public void setRegion(RectF region) {
+        mRegion = region != null ? new RectF(region) : null;
+    }
+
+    /**
+     * Sharpness of the last scored frame, see the class description.
+     */
+    public float getSharpness() {
+        return mSharpness;
+    }
+
+    @Override
+    public void onAutoFocusMoving(boolean start) {
+        mLensMoving = start;
+    }
+
+    @Override
+    public SparseArray<T> detect(Frame frame) {
+        if (!mEnabled) {
+            return mDelegate.detect(frame);
+        }
+
+        long now = frame.getMetadata().getTimestampMillis();
+        if (mLensMoving) {
+            if (mGateStartMillis < 0) {
+                mGateStartMillis = now;
+            }
+            if (now - mGateStartMillis < MAX_GATE_MILLIS) {
+                return new SparseArray<>();
+            }
+        } else {
+            mGateStartMillis = -1;
+        }
+
+        ByteBuffer data = frame.getGrayscaleImageData();
+        if (data != null && data.hasArray()) {
+            checkSharpness(data, frame.getMetadata(), now);
+        }
+        return mDelegate.detect(frame);
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mDelegate.isOperational();
+    }
+
+    @Override
+    public boolean setFocus(int id) {
+        return mDelegate.setFocus(id);
+    }
+
+    @Override
+    public void release() {
+        mDelegate.release();
+        super.release();
+    }
+
+    private void checkSharpness(ByteBuffer data, Frame.Metadata metadata, long now) {
+        RectF region = mRegion;
+        Rect sensor = RegionDetector.toSensorRect(region != null ? region : CENTER,
+                metadata.getRotation(), metadata.getWidth(), metadata.getHeight());
+        float sharpness = measureSharpness(data.array(), data.arrayOffset(), metadata.getWidth(), sensor);
+        if (sharpness < 0) {
+            return;
+        }
+        mSharpness = sharpness;
+        mPeakSharpness = Math.max(sharpness, mPeakSharpness * PEAK_DECAY);
+
+        if (sharpness >= MIN_SHARPNESS && sharpness >= MIN_SHARPNESS_OF_PEAK * mPeakSharpness) {
+            mBlurryFrames = 0;
+        } else if (++mBlurryFrames >= BLURRY_FRAMES_BEFORE_REFOCUS
+                && now - mLastRefocusMillis >= REFOCUS_INTERVAL_MILLIS) {
+            mBlurryFrames = 0;
+            mLastRefocusMillis = now;
+            mListener.onRefocusNeeded();
+        }
+    }
+
+    /**
+     * Returns 4 * sum(d1^2) / sum(d2^2) over every fourth row of the rectangle, where d1 and d2
+     * are horizontal luma differences over one and two pixels, or -1 if the rectangle is too flat
+     * to tell.
+     */
+    static float measureSharpness(byte[] luma, int offset, int width, Rect rect) {
+        long near = 0;
+        long far = 0;
+        int samples = 0;
+        for (int y = rect.top; y < rect.bottom; y += 4) {
+            int line = offset + y * width;
+            for (int x = rect.left; x + 2 < rect.right; x += 2) {
+                int value = luma[line + x] & 0xff;
+                int d1 = (luma[line + x + 1] & 0xff) - value;
+                int d2 = (luma[line + x + 2] & 0xff) - value;
+                near += d1 * d1;
+                far += d2 * d2;
+                samples++;
+            }
+        }
+        if (samples == 0 || far < MIN_CONTRAST * samples) {
+            return -1;
+        }
+        return 4.0f * near / far;
+    }
+}
@@ -17,12 +17,25 @@ package com.google.android.gms.samples.vision.ocrreader.camera;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.AttributeSet;
-import android.view.View;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
 
 import com.google.android.gms.vision.CameraSource;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -42,16 +55,52 @@ import java.util.Set;
  * <li>{@link Graphic#translateX(float)} and {@link Graphic#translateY(float)} adjust the coordinate
  * from the preview's coordinate system to the view coordinate system.</li>
  * </ol>
+ *
+ * Hit-testing is answered from a {@link SpatialIndex} over the graphics' preview-space bounds.  The
+ * index is an immutable snapshot built when a set of graphics is committed, so lookups never wait
+ * on a draw in progress.  It holds the bounds as detected, not the predicted ones the graphics are
+ * drawn at (see below), which only differ while the preview moves, by up to the motion since the
+ * last detection.<p>
+ *
+ * Drawing happens on a dedicated render thread into this view's own surface, paced by
+ * {@link Choreographer} at display rate rather than invalidated on the UI thread.  Committed
+ * graphics are followed by a {@link BoxTracker}, and each frame every graphic is drawn moved to its
+ * predicted position, so boxes keep up with the preview between (much less frequent) detections.
+ * Frames stop being scheduled once nothing moves.
  */
-public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
+public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends SurfaceView {
     private final Object mLock = new Object();
     private int mPreviewWidth;
-    private float mWidthScaleFactor = 1.0f;
     private int mPreviewHeight;
-    private float mHeightScaleFactor = 1.0f;
-    private int mFacing = CameraSource.CAMERA_FACING_BACK;
+    // Written on the render thread and under mLock, read anywhere for coordinate conversions.
+    private volatile float mWidthScaleFactor = 1.0f;
+    private volatile float mHeightScaleFactor = 1.0f;
+    private volatile int mFacing = CameraSource.CAMERA_FACING_BACK;
     private Set<T> mGraphics = new HashSet<>();
 
+    // Rebuilt lazily after add/remove, eagerly by setGraphics.  Null means stale.
+    private volatile SpatialIndex<T> mIndex;
+
+    // Guarded by mLock, like the graphics above.
+    private final BoxTracker<T> mTracker = new BoxTracker<>();
+    private boolean mFrameScheduled;
+
+    // Held while a frame is drawn into the surface, so the surface can't go away meanwhile; the
+    // graphics are copied out under mLock first, so committing new ones never waits on a draw.
+    private final Object mSurfaceLock = new Object();
+    private boolean mSurfaceReady;
+
+    // Only touched on the render thread: the graphics of the frame being drawn, and their
+    // predicted boxes, empty where there is no prediction.
+    private final List<T> mDrawGraphics = new ArrayList<>();
+    private final List<RectF> mDrawPredicted = new ArrayList<>();
+    private final RectF mMeasured = new RectF();
+    private final Matrix mMotion = new Matrix();
+
+    // Render thread, alive while the surface exists.
+    private HandlerThread mRenderThread;
+    private Handler mRenderHandler;
+
     /**
      * Base class for a custom graphics object to be rendered within the graphic overlay.  Subclass
      * this and implement the {@link Graphic#draw(Canvas)} method to define the
@@ -83,6 +132,12 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
          */
         public abstract boolean contains(float x, float y);
 
+        /**
+         * Returns the bounds of this graphic in the preview's coordinate system, which is what the
+         * overlay indexes for hit-testing.
+         */
+        public abstract RectF getBoundingBox();
+
         /**
          * Adjusts a horizontal value of the supplied value from the preview scale to the view
          * scale.
@@ -118,13 +173,21 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
             return scaleY(y);
         }
 
+        /**
+         * Requests that the overlay draws a new frame.
+         */
         public void postInvalidate() {
-            mOverlay.postInvalidate();
+            mOverlay.requestRender();
         }
     }
 
     public GraphicOverlay(Context context, AttributeSet attrs) {
         super(context, attrs);
+
+        // Draw above the camera preview's surface, with everything but the graphics see-through.
+        setZOrderMediaOverlay(true);
+        getHolder().setFormat(PixelFormat.TRANSPARENT);
+        getHolder().addCallback(new SurfaceCallback());
     }
 
     /**
@@ -133,8 +196,10 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     public void clear() {
         synchronized (mLock) {
             mGraphics.clear();
+            mIndex = null;
+            mTracker.clear();
         }
-        postInvalidate();
+        requestRender();
     }
 
     /**
@@ -143,8 +208,9 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     public void add(T graphic) {
         synchronized (mLock) {
             mGraphics.add(graphic);
+            mIndex = null;
         }
-        postInvalidate();
+        requestRender();
     }
 
     /**
@@ -153,27 +219,109 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     public void remove(T graphic) {
         synchronized (mLock) {
             mGraphics.remove(graphic);
+            mIndex = null;
         }
-        postInvalidate();
+        requestRender();
+    }
+
+    /**
+     * Replaces all graphics on the overlay with the supplied ones and builds their hit-testing
+     * index, so that a whole detection result is committed with a single invalidation.  The new
+     * graphics continue the motion tracks of the previous ones they overlap.
+     */
+    public void setGraphics(Collection<T> graphics) {
+        List<T> items = new ArrayList<>(graphics.size());
+        List<RectF> bounds = new ArrayList<>(graphics.size());
+        collectBounds(graphics, items, bounds);
+        SpatialIndex<T> index = new SpatialIndex<>(items, bounds);
+        synchronized (mLock) {
+            mGraphics.clear();
+            mGraphics.addAll(graphics);
+            mIndex = index;
+            mTracker.update(items, bounds, SystemClock.uptimeMillis());
+        }
+        requestRender();
     }
 
     /**
      * Returns the first graphic, if any, that exists at the provided absolute screen coordinates.
-     * These coordinates will be offset by the relative screen position of this view.
+     * These coordinates will be offset by the relative screen position of this view.  Graphics are
+     * found where they were detected, rather than where they are drawn moving.
      * @return First graphic containing the point, or null if no text is detected.
      */
     public T getGraphicAtLocation(float rawX, float rawY) {
-        synchronized (mLock) {
-            // Get the position of this View so the raw location can be offset relative to the view.
-            int[] location = new int[2];
-            this.getLocationOnScreen(location);
-            for (T graphic : mGraphics) {
-                if (graphic.contains(rawX - location[0], rawY - location[1])) {
-                    return graphic;
+        // Get the position of this View so the raw location can be offset relative to the view.
+        int[] location = new int[2];
+        this.getLocationOnScreen(location);
+        return getIndex().findAt(
+                toPreviewX(rawX - location[0]), toPreviewY(rawY - location[1]));
+    }
+
+    /**
+     * Returns all graphics intersecting the provided region, given in absolute screen coordinates.
+     * These coordinates will be offset by the relative screen position of this view.  As with
+     * {@link #getGraphicAtLocation}, graphics are found where they were detected.
+     */
+    public List<T> getGraphicsInRegion(float rawLeft, float rawTop, float rawRight, float rawBottom) {
+        int[] location = new int[2];
+        this.getLocationOnScreen(location);
+        float x1 = toPreviewX(rawLeft - location[0]);
+        float x2 = toPreviewX(rawRight - location[0]);
+        return getIndex().findIn(Math.min(x1, x2), toPreviewY(rawTop - location[1]),
+                Math.max(x1, x2), toPreviewY(rawBottom - location[1]));
+    }
+
+    /**
+     * Returns the current index, rebuilding it if graphics were added or removed since the last
+     * query.
+     */
+    private SpatialIndex<T> getIndex() {
+        SpatialIndex<T> index = mIndex;
+        if (index == null) {
+            synchronized (mLock) {
+                if (mIndex == null) {
+                    mIndex = buildIndex(mGraphics);
                 }
+                index = mIndex;
             }
-            return null;
         }
+        return index;
+    }
+
+    private SpatialIndex<T> buildIndex(Collection<T> graphics) {
+        List<T> items = new ArrayList<>(graphics.size());
+        List<RectF> bounds = new ArrayList<>(graphics.size());
+        collectBounds(graphics, items, bounds);
+        return new SpatialIndex<>(items, bounds);
+    }
+
+    private static <T extends Graphic> void collectBounds(Collection<T> graphics, List<T> items,
+                                                          List<RectF> bounds) {
+        for (T graphic : graphics) {
+            RectF box = graphic.getBoundingBox();
+            if (box != null) {
+                items.add(graphic);
+                bounds.add(box);
+            }
+        }
+    }
+
+    /**
+     * Inverse of {@link Graphic#translateX(float)}: maps a view x coordinate back to the preview's
+     * coordinate system.
+     */
+    private float toPreviewX(float x) {
+        if (mFacing == CameraSource.CAMERA_FACING_FRONT) {
+            x = getWidth() - x;
+        }
+        return x / mWidthScaleFactor;
+    }
+
+    /**
+     * Inverse of {@link Graphic#translateY(float)}.
+     */
+    private float toPreviewY(float y) {
+        return y / mHeightScaleFactor;
     }
 
     /**
@@ -186,24 +334,175 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
             mPreviewHeight = previewHeight;
             mFacing = facing;
         }
-        postInvalidate();
+        requestRender();
     }
 
     /**
-     * Draws the overlay with its associated graphic objects.
+     * Schedules a frame on the render thread, unless one is already pending or there is no surface
+     * to draw into yet.
      */
-    @Override
-    protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
+    void requestRender() {
+        synchronized (mLock) {
+            if (mRenderHandler == null || mFrameScheduled) {
+                return;
+            }
+            mFrameScheduled = true;
+            mRenderHandler.post(mScheduleFrame);
+        }
+    }
+
+    // Choreographer instances are per looper, so frame callbacks are posted from the render thread.
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            synchronized (mLock) {
+                mFrameScheduled = false;
+            }
+            if (drawFrame(SystemClock.uptimeMillis())) {
+                requestRender();
+            }
+        }
+    };
 
+    /**
+     * Draws the overlay with its associated graphic objects, each moved to its predicted position.
+     *
+     * @return true if graphics are still moving and another frame should follow
+     */
+    private boolean drawFrame(long nowMillis) {
+        int previewWidth;
+        int previewHeight;
+        boolean moving;
         synchronized (mLock) {
-            if ((mPreviewWidth != 0) && (mPreviewHeight != 0)) {
-                mWidthScaleFactor = (float) canvas.getWidth() / (float) mPreviewWidth;
-                mHeightScaleFactor = (float) canvas.getHeight() / (float) mPreviewHeight;
+            previewWidth = mPreviewWidth;
+            previewHeight = mPreviewHeight;
+            mDrawGraphics.clear();
+            mDrawGraphics.addAll(mGraphics);
+            for (int i = 0; i < mDrawGraphics.size(); ++i) {
+                if (i == mDrawPredicted.size()) {
+                    mDrawPredicted.add(new RectF());
+                }
+                RectF predicted = mDrawPredicted.get(i);
+                T graphic = mDrawGraphics.get(i);
+                if (graphic.getBoundingBox() == null
+                        || !mTracker.predict(graphic, nowMillis, predicted)) {
+                    predicted.setEmpty();
+                }
             }
+            moving = mTracker.isMoving(nowMillis);
+        }
+
+        synchronized (mSurfaceLock) {
+            if (!mSurfaceReady) {
+                return false;
+            }
+            Canvas canvas = getHolder().lockCanvas();
+            if (canvas == null) {
+                return false;
+            }
+
+            try {
+                canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+
+                if ((previewWidth != 0) && (previewHeight != 0)) {
+                    mWidthScaleFactor = (float) canvas.getWidth() / (float) previewWidth;
+                    mHeightScaleFactor = (float) canvas.getHeight() / (float) previewHeight;
+                }
 
-            for (Graphic graphic : mGraphics) {
-                graphic.draw(canvas);
+                for (int i = 0; i < mDrawGraphics.size(); ++i) {
+                    T graphic = mDrawGraphics.get(i);
+                    RectF predicted = mDrawPredicted.get(i);
+                    RectF box = graphic.getBoundingBox();
+                    if (box == null || predicted.isEmpty()) {
+                        graphic.draw(canvas);
+                        continue;
+                    }
+
+                    // The graphic draws itself where it was detected; map that box onto the
+                    // predicted one.
+                    toViewRect(box, mMeasured);
+                    toViewRect(predicted, predicted);
+                    if (mMeasured.width() <= 0 || mMeasured.height() <= 0) {
+                        graphic.draw(canvas);
+                        continue;
+                    }
+                    mMotion.setRectToRect(mMeasured, predicted, Matrix.ScaleToFit.FILL);
+                    canvas.save();
+                    canvas.concat(mMotion);
+                    graphic.draw(canvas);
+                    canvas.restore();
+                }
+            } finally {
+                getHolder().unlockCanvasAndPost(canvas);
+            }
+        }
+        // Don't keep the graphics of the last frame alive.
+        mDrawGraphics.clear();
+        return moving;
+    }
+
+    /**
+     * Converts a preview-space box to view space, keeping left below right when mirrored.
+     */
+    public void toViewRect(RectF preview, RectF out) {
+        float widthScale = mWidthScaleFactor;
+        float heightScale = mHeightScaleFactor;
+        float x1 = preview.left * widthScale;
+        float x2 = preview.right * widthScale;
+        if (mFacing == CameraSource.CAMERA_FACING_FRONT) {
+            x1 = getWidth() - x1;
+            x2 = getWidth() - x2;
+        }
+        out.set(Math.min(x1, x2), preview.top * heightScale,
+                Math.max(x1, x2), preview.bottom * heightScale);
+    }
+
+    /**
+     * Starts the render thread with the surface and stops it, waiting for any frame in progress,
+     * before the surface goes away.
+     */
+    private class SurfaceCallback implements SurfaceHolder.Callback {
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+            HandlerThread thread = new HandlerThread("GraphicOverlayRender");
+            thread.start();
+            synchronized (mSurfaceLock) {
+                mSurfaceReady = true;
+            }
+            synchronized (mLock) {
+                mRenderThread = thread;
+                mRenderHandler = new Handler(thread.getLooper());
+                mFrameScheduled = false;
+            }
+            requestRender();
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            requestRender();
+        }
+
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            HandlerThread thread;
+            synchronized (mSurfaceLock) {
+                // Waits for a frame being drawn.
+                mSurfaceReady = false;
+            }
+            synchronized (mLock) {
+                mRenderHandler = null;
+                thread = mRenderThread;
+                mRenderThread = null;
+            }
+            if (thread != null) {
+                thread.quit();
             }
         }
     }
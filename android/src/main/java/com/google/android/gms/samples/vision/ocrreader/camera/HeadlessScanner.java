@@ -0,0 +1,155 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.Manifest;
+import android.content.Context;
+import android.hardware.Camera;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresPermission;
+import android.util.SparseArray;
+
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.text.TextBlock;
+import com.google.android.gms.vision.text.TextRecognizer;
+
+import java.io.IOException;
+
+/**
+ * Recognizes text from the camera without a view: the preview goes to a dummy texture that is
+ * never composed, nothing is drawn, and results go straight from the detector thread to the
+ * listener.  For fixed-mount devices that scan unattended, where all headroom should go to
+ * recognition.<p>
+ *
+ * Frames without anything text-like are skipped before recognition, and a result is only passed
+ * on when its text differs from the last one passed on, so a document lying still under the
+ * camera is reported once, until it is taken away.
+ */
+public class HeadlessScanner implements Detector.Processor<TextBlock> {
+    /**
+     * Told about new text, on the detector thread.
+     */
+    public interface Listener {
+        /**
+         * @param blocks the recognized blocks, with bounds in pixels of the upright frame
+         */
+        void onText(SparseArray<TextBlock> blocks, int frameId, int frameWidth, int frameHeight);
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+    private CameraSource mCameraSource;
+
+    // Only touched on the detector thread.
+    private String mLastText;
+
+    public HeadlessScanner(Context context, Listener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+    }
+
+    /**
+     * Opens the camera and starts recognizing.  Call it on a thread of its own with a looper,
+     * such as a {@link android.os.HandlerThread}: the camera delivers frames on the looper of the
+     * thread it was opened on, which would otherwise be the main one, and opening it takes a
+     * while.  Stop the scanner on the same thread.  Fails if the camera is in use, such as by a
+     * mounted reader view.
+     *
+     * @param facing one of {@link CameraSource#CAMERA_FACING_BACK} or
+     *               {@link CameraSource#CAMERA_FACING_FRONT}
+     * @throws IllegalStateException if already started, called on a thread without a looper,
+     *                               or the recognizer isn't operational yet
+     * @throws IOException           if the camera could not be started
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public synchronized void start(int facing, int previewWidth, int previewHeight, float fps)
+            throws IOException {
+        if (mCameraSource != null) {
+            throw new IllegalStateException("The headless scanner is already running.");
+        }
+        if (Looper.myLooper() == null || Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("The headless scanner needs a looper thread of its own.");
+        }
+        TextRecognizer textRecognizer = new TextRecognizer.Builder(mContext).build();
+        if (!textRecognizer.isOperational()) {
+            textRecognizer.release();
+            throw new IllegalStateException("The text recognizer is not operational yet.");
+        }
+        TextPresenceDetector<TextBlock> detector = new TextPresenceDetector<>(textRecognizer);
+        detector.setEnabled(true);
+        detector.setProcessor(this);
+
+        CameraSource cameraSource = new CameraSource.Builder(mContext, detector)
+                .setFacing(facing)
+                .setRequestedPreviewSize(previewWidth, previewHeight)
+                .setRequestedFps(fps)
+                .setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)
+                .build();
+        mLastText = null;
+        try {
+            cameraSource.start();
+        } catch (IOException | RuntimeException e) {
+            cameraSource.release();
+            throw e;
+        }
+        mCameraSource = cameraSource;
+    }
+
+    /**
+     * Closes the camera and releases the recognizer, on the thread the scanner was started on.
+     * Returns whether the scanner was running.
+     */
+    public synchronized boolean stop() {
+        if (mCameraSource == null) {
+            return false;
+        }
+        mCameraSource.release();
+        mCameraSource = null;
+        return true;
+    }
+
+    public synchronized boolean isRunning() {
+        return mCameraSource != null;
+    }
+
+    /**
+     * Returns the preview size the camera picked, or null while stopped.
+     */
+    @Nullable
+    public synchronized Size getPreviewSize() {
+        return mCameraSource != null ? mCameraSource.getPreviewSize() : null;
+    }
+
+    @Override
+    public void receiveDetections(Detector.Detections<TextBlock> detections) {
+        SparseArray<TextBlock> items = detections.getDetectedItems();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < items.size(); ++i) {
+            TextBlock block = items.valueAt(i);
+            if (block != null && block.getValue() != null) {
+                text.append(block.getValue()).append('\n');
+            }
+        }
+        if (text.length() == 0) {
+            // Whatever was in view is gone; the same text showing up again is news.
+            mLastText = null;
+            return;
+        }
+        if (text.toString().equals(mLastText)) {
+            return;
+        }
+        mLastText = text.toString();
+
+        Frame.Metadata metadata = detections.getFrameMetadata();
+        boolean sideways = metadata.getRotation() == Frame.ROTATION_90
+                || metadata.getRotation() == Frame.ROTATION_270;
+        mListener.onText(items, metadata.getId(),
+                sideways ? metadata.getHeight() : metadata.getWidth(),
+                sideways ? metadata.getWidth() : metadata.getHeight());
+    }
+
+    @Override
+    public void release() {
+    }
+}
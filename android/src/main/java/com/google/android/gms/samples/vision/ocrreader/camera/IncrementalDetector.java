@@ -0,0 +1,363 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.text.TextBlock;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Text detector that only recognizes the parts of a frame that changed since they were last
+ * recognized, and reuses the blocks found before everywhere else.<p>
+ *
+ * The luma plane is sampled every few pixels and compared, tile by tile, with the samples taken
+ * when each tile was last recognized, so slow drift adds up until it counts as a change.  Changed
+ * tiles are grown by one tile on every side, and by any cached block they touch so that no block
+ * is read cut in half, then cropped into a reused buffer and recognized; the cached blocks of those
+ * areas are replaced by the fresh ones.  A receipt slid slowly under the camera thus costs
+ * recognition only where it moved, and a still scene costs none.  When most of the frame changed,
+ * or its size or rotation did, the whole frame is recognized again.<p>
+ *
+ * Blocks are relative to the area they were found in, see {@link ItemOffsets}.  Offsets reported
+ * by the underlying detector are added in.
+ */
+public class IncrementalDetector extends Detector<TextBlock> implements ItemOffsets {
+    // Distance, in pixels, between luma samples.
+    private static final int SAMPLE_STEP = 8;
+
+    // Side, in pixels of the unrotated frame, of the tiles changes are tracked in.
+    private static final int TILE_SIZE = 128;
+
+    // Mean luma difference of a tile's samples above which it counts as changed.
+    private static final int CHANGE_THRESHOLD = 12;
+
+    // Share of changed tiles above which the whole frame is recognized again.
+    private static final float MAX_CHANGED_SHARE = 0.5f;
+
+    private final Detector<TextBlock> mDelegate;
+
+    // Written on the UI thread, read on the detector thread.
+    private volatile boolean mEnabled;
+    private volatile boolean mTrimRequested;
+
+    // Only touched on the detector thread.
+    private final SparseArray<Point> mItemOffsets = new SparseArray<>();
+    private final List<CachedBlock> mCache = new ArrayList<>();
+    private byte[] mSamples;
+    private byte[] mReference;
+    private byte[] mCropBuffer;
+    private int mWidth;
+    private int mHeight;
+    private int mRotation;
+
+    /**
+     * A block from an earlier frame, with where it was found.
+     */
+    private static class CachedBlock {
+        final TextBlock mBlock;
+        final Point mOffset;
+
+        // Bounds in pixels of the unrotated frame, to compare with tiles.
+        final Rect mSensorBox;
+
+        CachedBlock(TextBlock block, Point offset, Rect sensorBox) {
+            mBlock = block;
+            mOffset = offset;
+            mSensorBox = sensorBox;
+        }
+    }
+
+    public IncrementalDetector(Detector<TextBlock> delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * Turns incremental recognition on or off.  While off, every frame is recognized whole and
+     * nothing is cached.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Asks for the cached blocks, the reference frame and the crop buffer to be dropped before
+     * the next frame, which is then recognized whole.  May be called from any thread.
+     *
+     * @return about how many bytes are freed
+     */
+    public long trimMemory() {
+        mTrimRequested = true;
+        // Read racily, which is fine for an estimate; the cached blocks are not counted.
+        byte[] samples = mSamples;
+        byte[] reference = mReference;
+        byte[] crop = mCropBuffer;
+        return (samples != null ? samples.length : 0) + (reference != null ? reference.length : 0)
+                + (crop != null ? crop.length : 0);
+    }
+
+    @Override
+    public int getItemOffsetX(int key) {
+        Point offset = mItemOffsets.get(key);
+        return offset != null ? offset.x : 0;
+    }
+
+    @Override
+    public int getItemOffsetY(int key) {
+        Point offset = mItemOffsets.get(key);
+        return offset != null ? offset.y : 0;
+    }
+
+    @Override
+    public SparseArray<TextBlock> detect(Frame frame) {
+        mItemOffsets.clear();
+        if (mTrimRequested) {
+            mTrimRequested = false;
+            mCache.clear();
+            mSamples = null;
+            mReference = null;
+            mCropBuffer = null;
+        }
+
+        Frame.Metadata metadata = frame.getMetadata();
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        int rotation = metadata.getRotation();
+        ByteBuffer data = frame.getGrayscaleImageData();
+        if (!mEnabled || frame.getBitmap() != null || data == null || !data.hasArray()) {
+            mReference = null;
+            mCache.clear();
+            List<CachedBlock> blocks = new ArrayList<>();
+            recognize(frame, new Point(), width, height, rotation, blocks);
+            return publish(blocks);
+        }
+
+        sample(data, width, height);
+        if (mReference == null || width != mWidth || height != mHeight || rotation != mRotation) {
+            return recognizeWhole(frame, width, height, rotation);
+        }
+
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        boolean[] changed = findChangedTiles(width, height, columns, rows);
+        int count = 0;
+        for (boolean tile : changed) {
+            count += tile ? 1 : 0;
+        }
+        if (count == 0) {
+            return publish(mCache);
+        }
+        if (count > MAX_CHANGED_SHARE * columns * rows) {
+            return recognizeWhole(frame, width, height, rotation);
+        }
+
+        List<Rect> areas = findAreas(changed, columns, rows, width, height);
+        for (Iterator<CachedBlock> it = mCache.iterator(); it.hasNext(); ) {
+            Rect box = it.next().mSensorBox;
+            for (Rect area : areas) {
+                if (Rect.intersects(area, box)) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
+
+        for (Rect area : areas) {
+            int size = area.width() * area.height() * 3 / 2;
+            if (mCropBuffer == null || mCropBuffer.length < size) {
+                mCropBuffer = new byte[size];
+            }
+            Frame crop = new Frame.Builder()
+                    .setImageData(RegionDetector.cropNv21(data, width, height, area, mCropBuffer),
+                            area.width(), area.height(), ImageFormat.NV21)
+                    .setId(metadata.getId())
+                    .setTimestampMillis(metadata.getTimestampMillis())
+                    .setRotation(rotation)
+                    .build();
+            recognize(crop, RegionDetector.toUprightOffset(area, rotation, width, height),
+                    width, height, rotation, mCache);
+            updateReference(area, width, height);
+        }
+        return publish(mCache);
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mDelegate.isOperational();
+    }
+
+    @Override
+    public boolean setFocus(int id) {
+        return mDelegate.setFocus(id);
+    }
+
+    @Override
+    public void release() {
+        mDelegate.release();
+        super.release();
+    }
+
+    private SparseArray<TextBlock> recognizeWhole(Frame frame, int width, int height, int rotation) {
+        mCache.clear();
+        recognize(frame, new Point(), width, height, rotation, mCache);
+
+        if (mReference == null || mReference.length != mSamples.length) {
+            mReference = new byte[mSamples.length];
+        }
+        System.arraycopy(mSamples, 0, mReference, 0, mSamples.length);
+        mWidth = width;
+        mHeight = height;
+        mRotation = rotation;
+        return publish(mCache);
+    }
+
+    /**
+     * Runs the underlying detector on a frame cut from the full frame at the given upright offset,
+     * and adds the blocks found to {@code into}.
+     */
+    private void recognize(Frame frame, Point offset, int width, int height, int rotation,
+                           List<CachedBlock> into) {
+        SparseArray<TextBlock> found = mDelegate.detect(frame);
+        ItemOffsets inner = mDelegate instanceof ItemOffsets ? (ItemOffsets) mDelegate : null;
+
+        boolean sideways = rotation == Frame.ROTATION_90 || rotation == Frame.ROTATION_270;
+        float uprightWidth = sideways ? height : width;
+        float uprightHeight = sideways ? width : height;
+        for (int i = 0; i < found.size(); ++i) {
+            TextBlock block = found.valueAt(i);
+            if (block == null) {
+                continue;
+            }
+            Point at = new Point(offset);
+            if (inner != null) {
+                at.offset(inner.getItemOffsetX(found.keyAt(i)), inner.getItemOffsetY(found.keyAt(i)));
+            }
+            Rect box = block.getBoundingBox();
+            RectF upright = new RectF((box.left + at.x) / uprightWidth, (box.top + at.y) / uprightHeight,
+                    (box.right + at.x) / uprightWidth, (box.bottom + at.y) / uprightHeight);
+            into.add(new CachedBlock(block, at,
+                    RegionDetector.toSensorRect(upright, rotation, width, height)));
+        }
+    }
+
+    private SparseArray<TextBlock> publish(List<CachedBlock> blocks) {
+        // Keys are only unique within one recognition, so the blocks are renumbered.
+        SparseArray<TextBlock> items = new SparseArray<>(blocks.size());
+        for (int key = 0; key < blocks.size(); ++key) {
+            items.append(key, blocks.get(key).mBlock);
+            mItemOffsets.append(key, blocks.get(key).mOffset);
+        }
+        return items;
+    }
+
+    /**
+     * Takes every SAMPLE_STEP-th luma pixel of every SAMPLE_STEP-th row.
+     */
+    private void sample(ByteBuffer data, int width, int height) {
+        int columns = width / SAMPLE_STEP;
+        int rows = height / SAMPLE_STEP;
+        if (mSamples == null || mSamples.length != columns * rows) {
+            mSamples = new byte[columns * rows];
+        }
+
+        byte[] luma = data.array();
+        int offset = data.arrayOffset();
+        for (int y = 0; y < rows; ++y) {
+            int line = offset + y * SAMPLE_STEP * width;
+            for (int x = 0; x < columns; ++x) {
+                mSamples[y * columns + x] = luma[line + x * SAMPLE_STEP];
+            }
+        }
+    }
+
+    private boolean[] findChangedTiles(int width, int height, int columns, int rows) {
+        int sampleColumns = width / SAMPLE_STEP;
+        int sampleRows = height / SAMPLE_STEP;
+        int[] sums = new int[columns * rows];
+        int[] counts = new int[columns * rows];
+        for (int y = 0; y < sampleRows; ++y) {
+            int tileRow = y * SAMPLE_STEP / TILE_SIZE * columns;
+            for (int x = 0; x < sampleColumns; ++x) {
+                int i = y * sampleColumns + x;
+                int tile = tileRow + x * SAMPLE_STEP / TILE_SIZE;
+                sums[tile] += Math.abs((mSamples[i] & 0xff) - (mReference[i] & 0xff));
+                counts[tile]++;
+            }
+        }
+
+        boolean[] changed = new boolean[columns * rows];
+        for (int tile = 0; tile < changed.length; ++tile) {
+            changed[tile] = counts[tile] > 0 && sums[tile] > CHANGE_THRESHOLD * counts[tile];
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the areas to recognize again, in pixels of the unrotated frame: the changed tiles
+     * and their neighbours, grown to whole cached blocks, with touching areas joined.
+     */
+    private List<Rect> findAreas(boolean[] changed, int columns, int rows, int width, int height) {
+        List<Rect> areas = new ArrayList<>();
+        for (int row = 0; row < rows; ++row) {
+            for (int column = 0; column < columns; ++column) {
+                if (changed[row * columns + column]) {
+                    areas.add(new Rect(
+                            Math.max(0, (column - 1) * TILE_SIZE), Math.max(0, (row - 1) * TILE_SIZE),
+                            Math.min(width, (column + 2) * TILE_SIZE),
+                            Math.min(height, (row + 2) * TILE_SIZE)));
+                }
+            }
+        }
+
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (Rect area : areas) {
+                for (CachedBlock cached : mCache) {
+                    if (Rect.intersects(area, cached.mSensorBox) && !area.contains(cached.mSensorBox)) {
+                        area.union(cached.mSensorBox);
+                        grown = true;
+                    }
+                }
+            }
+            for (int i = 0; i < areas.size() && !grown; ++i) {
+                for (int j = i + 1; j < areas.size(); ++j) {
+                    if (touches(areas.get(i), areas.get(j))) {
+                        areas.get(i).union(areas.remove(j));
+                        grown = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return areas;
+    }
+
+    /**
+     * Copies the current samples inside the area to the reference, now that it was recognized.
+     */
+    private void updateReference(Rect area, int width, int height) {
+        int columns = width / SAMPLE_STEP;
+        int rows = height / SAMPLE_STEP;
+        int left = (area.left + SAMPLE_STEP - 1) / SAMPLE_STEP;
+        int right = Math.min(columns, (area.right + SAMPLE_STEP - 1) / SAMPLE_STEP);
+        int top = (area.top + SAMPLE_STEP - 1) / SAMPLE_STEP;
+        int bottom = Math.min(rows, (area.bottom + SAMPLE_STEP - 1) / SAMPLE_STEP);
+        for (int y = top; y < bottom; ++y) {
+            System.arraycopy(mSamples, y * columns + left, mReference, y * columns + left,
+                    Math.max(0, right - left));
+        }
+    }
+
+    private static boolean touches(Rect a, Rect b) {
+        return a.left <= b.right && b.left <= a.right && a.top <= b.bottom && b.top <= a.bottom;
+    }
+}
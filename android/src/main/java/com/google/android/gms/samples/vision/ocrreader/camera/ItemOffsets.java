@@ -0,0 +1,20 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+/**
+ * Implemented by detectors whose items may each have been found in a different part of the frame
+ * they were given, such as crops around text.  Item bounds are relative to that part; the offsets
+ * place them in the frame.  Offsets refer to the items of the last detection, by key.
+ */
+public interface ItemOffsets {
+    /**
+     * Horizontal position, in upright frame pixels, of the part the item with the given key was
+     * found in.
+     */
+    int getItemOffsetX(int key);
+
+    /**
+     * Vertical position, in upright frame pixels, of the part the item with the given key was
+     * found in.
+     */
+    int getItemOffsetY(int key);
+}
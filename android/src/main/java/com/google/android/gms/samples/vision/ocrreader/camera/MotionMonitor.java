@@ -0,0 +1,153 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.util.Log;
+
+/**
+ * Tells whether the device is held still enough for a frame to be readable, from the gyroscope,
+ * or from the change in direction of gravity on devices without one.<p>
+ *
+ * The device counts as moving as soon as its angular velocity goes over the threshold, and as
+ * still again once it has stayed under it for a short while, so frames taken while a movement
+ * comes to rest are skipped too.  {@link #isStill()} only reads a volatile flag and can be called
+ * for every frame.  Sensor events go through {@link #onSample}, which recorded traces can also be
+ * fed to without any sensor.
+ */
+public class MotionMonitor implements SensorEventListener {
+    private static final String TAG = "MotionMonitor";
+
+    // Angular velocity, in radians per second, above which the device is moving.  At a typical
+    // exposure and field of view this blurs the preview by several pixels.
+    private static final float MAX_ANGULAR_VELOCITY = 0.35f;
+
+    // How long the angular velocity must stay under the threshold before the device is still.
+    private static final long SETTLE_NANOS = 150000000L;
+
+    // Sampling period asked for, in microseconds; about 15 samples per second is enough.
+    private static final int SAMPLING_PERIOD_MICROS = 66000;
+
+    private final SensorManager mSensorManager;
+    private final Sensor mSensor;
+
+    // Written on the thread sensor events arrive on, read on the frame processing thread.
+    private volatile boolean mStill = true;
+
+    // Only touched on the thread samples arrive on.
+    private long mLastMovingNanos = -1;
+    private long mLastSampleNanos = -1;
+    private final float[] mLastGravity = new float[3];
+
+    public MotionMonitor(Context context) {
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        Sensor sensor = mSensorManager != null ? mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE) : null;
+        if (sensor == null && mSensorManager != null) {
+            sensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        }
+        mSensor = sensor;
+    }
+
+    /**
+     * Starts listening to the sensor.  Returns false if the device has neither sensor, in which
+     * case the device always counts as still.
+     */
+    public boolean start() {
+        if (mSensor == null) {
+            Log.w(TAG, "No gyroscope or accelerometer, motion is not monitored.");
+            return false;
+        }
+        reset();
+        return mSensorManager.registerListener(this, mSensor, SAMPLING_PERIOD_MICROS);
+    }
+
+    /**
+     * Stops listening.  The device counts as still until started again.
+     */
+    public void stop() {
+        if (mSensor != null) {
+            mSensorManager.unregisterListener(this);
+        }
+        reset();
+    }
+
+    /**
+     * True unless the device is moving, or has just stopped moving.
+     */
+    public boolean isStill() {
+        return mStill;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        onSample(event.sensor.getType(), event.timestamp, event.values[0], event.values[1], event.values[2]);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    /**
+     * Takes one sample: the angular velocity around each axis for {@link Sensor#TYPE_GYROSCOPE},
+     * or the acceleration along each axis for {@link Sensor#TYPE_ACCELEROMETER}.  Samples must
+     * come in timestamp order from one thread; other sensor types are ignored.
+     *
+     * @param timestampNanos time of the sample, as in {@link SensorEvent#timestamp}
+     */
+    public void onSample(int sensorType, long timestampNanos, float x, float y, float z) {
+        float angularVelocity;
+        if (sensorType == Sensor.TYPE_GYROSCOPE) {
+            angularVelocity = (float) Math.sqrt(x * x + y * y + z * z);
+        } else if (sensorType == Sensor.TYPE_ACCELEROMETER) {
+            angularVelocity = gravityTurnRate(timestampNanos, x, y, z);
+            if (angularVelocity < 0) {
+                return;
+            }
+        } else {
+            return;
+        }
+
+        if (angularVelocity > MAX_ANGULAR_VELOCITY) {
+            mLastMovingNanos = timestampNanos;
+            mStill = false;
+        } else if (mLastMovingNanos < 0 || timestampNanos - mLastMovingNanos >= SETTLE_NANOS) {
+            mStill = true;
+        }
+    }
+
+    /**
+     * Returns the rate at which the direction of the acceleration turned since the last sample, in
+     * radians per second, or -1 for the first sample.  Held by hand, the acceleration is mostly
+     * gravity, so this approximates how fast the device rotates other than around the vertical;
+     * shaking shows up as well.
+     */
+    private float gravityTurnRate(long timestampNanos, float x, float y, float z) {
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        if (length == 0) {
+            return -1;
+        }
+        x /= length;
+        y /= length;
+        z /= length;
+
+        float rate = -1;
+        if (mLastSampleNanos >= 0 && timestampNanos > mLastSampleNanos) {
+            float dot = x * mLastGravity[0] + y * mLastGravity[1] + z * mLastGravity[2];
+            float angle = (float) Math.acos(Math.max(-1, Math.min(1, dot)));
+            rate = angle * 1e9f / (timestampNanos - mLastSampleNanos);
+        }
+        mLastGravity[0] = x;
+        mLastGravity[1] = y;
+        mLastGravity[2] = z;
+        mLastSampleNanos = timestampNanos;
+        return rate;
+    }
+
+    private void reset() {
+        mLastMovingNanos = -1;
+        mLastSampleNanos = -1;
+        mStill = true;
+    }
+}
@@ -0,0 +1,103 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Picks a preview resolution tier from the size of the text in recent frames: the lowest tier at
+ * which the text stays comfortably readable, since recognition time grows with the pixel count.<p>
+ *
+ * The median line height over the last frames with text is compared against two bounds.  Below
+ * the lower one the next tier up is needed; when a lower tier would still keep lines well above
+ * the upper one, the selector steps down.  The gap between the bounds, the window of frames and a
+ * pause after each switch keep it from flipping back and forth.  The window starts over after a
+ * switch, as heights measured at the old resolution no longer apply.<p>
+ *
+ * Not thread safe; use it from the detector thread only.
+ */
+public class PreviewSizeSelector {
+    /**
+     * Requested preview sizes of the tiers, lowest first.  The camera picks the closest size it
+     * supports; the last tier asks for more than any camera has, so it gets the largest.
+     */
+    public static final int[][] TIERS = {{640, 480}, {1280, 960}, {4096, 3072}};
+
+    // Median line height, in frame pixels, below which text is too small to read reliably.
+    private static final float MIN_LINE_HEIGHT = 18;
+
+    // Line height a lower tier must still give for the selector to step down.
+    private static final float COMFORTABLE_LINE_HEIGHT = 36;
+
+    // Frames with text to take the median over.
+    private static final int WINDOW = 8;
+
+    // Frame time after a switch during which the tier is left alone.
+    private static final long SWITCH_INTERVAL_MILLIS = 3000;
+
+    private int mTier;
+    private final float[] mHeights = new float[WINDOW];
+    private int mCount;
+    private long mLastSwitchMillis = -SWITCH_INTERVAL_MILLIS;
+
+    public PreviewSizeSelector(int tier) {
+        mTier = tier;
+    }
+
+    public int getTier() {
+        return mTier;
+    }
+
+    /**
+     * Takes the heights of the lines recognized in one frame, in that frame's pixels, and returns
+     * the tier to switch to, or -1 to stay at the current one.
+     *
+     * @param frameWidth the frame's longer side, to tell how the tiers compare to it
+     */
+    public int offerFrame(List<Float> lineHeights, int frameWidth, long timestampMillis) {
+        if (lineHeights.isEmpty()) {
+            return -1;
+        }
+        mHeights[mCount % WINDOW] = median(lineHeights);
+        mCount++;
+        if (mCount < WINDOW || timestampMillis - mLastSwitchMillis < SWITCH_INTERVAL_MILLIS) {
+            return -1;
+        }
+
+        float height = median(mHeights);
+        int tier = mTier;
+        if (height < MIN_LINE_HEIGHT) {
+            // The tier that brings lines halfway up the readable range, or the highest.
+            tier = mTier + 1;
+            while (tier < TIERS.length - 1
+                    && height * TIERS[tier][0] / frameWidth < (MIN_LINE_HEIGHT + COMFORTABLE_LINE_HEIGHT) / 2) {
+                ++tier;
+            }
+            tier = Math.min(tier, TIERS.length - 1);
+        } else {
+            while (tier > 0 && height * TIERS[tier - 1][0] / frameWidth >= COMFORTABLE_LINE_HEIGHT) {
+                --tier;
+            }
+        }
+        if (tier == mTier) {
+            return -1;
+        }
+        mTier = tier;
+        mCount = 0;
+        mLastSwitchMillis = timestampMillis;
+        return tier;
+    }
+
+    private static float median(List<Float> values) {
+        float[] sorted = new float[values.size()];
+        for (int i = 0; i < sorted.length; ++i) {
+            sorted[i] = values.get(i);
+        }
+        return median(sorted);
+    }
+
+    private static float median(float[] values) {
+        float[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,150 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+/**
+ * Notices when a frame has been in the detector for longer than a deadline, which means the
+ * detector hangs: the processing thread never comes back for the next frame, and the camera runs
+ * out of buffers.<p>
+ *
+ * The processing thread reports the start and end of every frame, which only writes volatile
+ * fields.  A thread of its own checks a few times per deadline whether the frame in progress has
+ * overrun it, and then tells the listener once for that frame.  {@link #check} does the same for
+ * a given time, so a stall can also be provoked without waiting on the clock.
+ */
+public class ProcessingWatchdog {
+    /**
+     * Told about a stalled frame, on the watchdog's thread, or on the one calling {@link #check}
+     * or {@link #expire}.
+     */
+    public interface Listener {
+        /**
+         * @param frameId         id of the frame stuck in the detector
+         * @param stalledMillis   how long it has been there
+         * @param lastFrameMillis how long the last frame that came back took, or -1 if none did
+         */
+        void onStall(int frameId, long stalledMillis, long lastFrameMillis);
+    }
+
+    // Checks per deadline, so a stall is noticed at most a quarter of the deadline late.
+    private static final int CHECKS_PER_DEADLINE = 4;
+
+    private final long mDeadlineMillis;
+    private final Listener mListener;
+
+    // Written on the frame processing thread, read on the watchdog thread.
+    private volatile long mFrameStartMillis = -1;
+    private volatile int mFrameId;
+    private volatile long mLastFrameMillis = -1;
+
+    // Only touched on the watchdog thread.
+    private int mReportedFrameId = -1;
+
+    private HandlerThread mThread;
+    private volatile Handler mHandler;
+
+    private final Runnable mCheck = new Runnable() {
+        @Override
+        public void run() {
+            check(SystemClock.elapsedRealtime());
+            Handler handler = mHandler;
+            if (handler != null) {
+                handler.postDelayed(this, Math.max(1, mDeadlineMillis / CHECKS_PER_DEADLINE));
+            }
+        }
+    };
+
+    public ProcessingWatchdog(long deadlineMillis, Listener listener) {
+        mDeadlineMillis = deadlineMillis;
+        mListener = listener;
+    }
+
+    public long getDeadlineMillis() {
+        return mDeadlineMillis;
+    }
+
+    /**
+     * Starts checking on a thread of its own.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread("ProcessingWatchdog");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.postDelayed(mCheck, Math.max(1, mDeadlineMillis / CHECKS_PER_DEADLINE));
+    }
+
+    /**
+     * Stops checking.  Frames reported meanwhile are still tracked.
+     */
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mHandler.removeCallbacks(mCheck);
+        mThread.quit();
+        mThread = null;
+        mHandler = null;
+    }
+
+    /**
+     * Called on the frame processing thread right before a frame goes into the detector.
+     */
+    public void onFrameStarted(int frameId, long nowMillis) {
+        mFrameId = frameId;
+        mFrameStartMillis = nowMillis;
+    }
+
+    /**
+     * Called on the frame processing thread once the detector is done with the frame.
+     */
+    public void onFrameFinished(long nowMillis) {
+        long start = mFrameStartMillis;
+        if (start >= 0) {
+            mLastFrameMillis = nowMillis - start;
+        }
+        mFrameStartMillis = -1;
+    }
+
+    /**
+     * Forgets the frame in progress, after its thread has been given up on.  Call it from the
+     * listener, or while not started.
+     */
+    public void reset() {
+        mFrameStartMillis = -1;
+        mReportedFrameId = -1;
+    }
+
+    /**
+     * Tells the listener if the frame in progress has been in the detector past the deadline at
+     * the given time, and hasn't been reported yet.  Returns whether it did.  Call it from one
+     * thread at a time; the watchdog's own thread does so while started.
+     */
+    public boolean check(long nowMillis) {
+        return report(nowMillis, mDeadlineMillis);
+    }
+
+    /**
+     * Tells the listener about the frame in progress whatever its time in the detector, unless
+     * it has been reported already, for when its thread is being waited on and taking too long.
+     * Returns whether it did.  Call it while not started.
+     */
+    public boolean expire(long nowMillis) {
+        return report(nowMillis, -1);
+    }
+
+    private boolean report(long nowMillis, long deadlineMillis) {
+        long start = mFrameStartMillis;
+        int frameId = mFrameId;
+        if (start < 0 || nowMillis - start <= deadlineMillis || frameId == mReportedFrameId) {
+            return false;
+        }
+        mReportedFrameId = frameId;
+        mListener.onStall(frameId, nowMillis - start, mLastFrameMillis);
+        return true;
+    }
+}
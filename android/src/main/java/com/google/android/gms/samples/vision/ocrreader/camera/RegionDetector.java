@@ -0,0 +1,235 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detector that runs an underlying detector on a region of interest of each frame instead of the
+ * whole frame.<p>
+ *
+ * The region is given as fractions of the upright image (i.e. after the frame's rotation is
+ * applied), which is the coordinate system detections are reported in.  It is mapped back to the
+ * sensor orientation of the frame, and the NV21 data inside it is copied into a buffer that is
+ * reused from frame to frame.  Detections are reported relative to the cropped region; use
+ * {@link #getRegionOffsetX()} and {@link #getRegionOffsetY()} from the processor to place them in
+ * the full frame.  Without a region, frames are passed through untouched.
+ */
+public class RegionDetector<T> extends Detector<T> {
+    private final Detector<T> mDelegate;
+
+    // Written on the UI thread, read on the detector thread.
+    private volatile RectF mRegion;
+    private volatile boolean mTrimRequested;
+
+    // Only touched on the detector thread.
+    private byte[] mCropBuffer;
+    private int mRegionOffsetX;
+    private int mRegionOffsetY;
+
+    public RegionDetector(Detector<T> delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * Sets the region of interest as fractions (0..1) of the upright frame, or null to process
+     * whole frames.
+     */
+    public void setRegion(RectF region) {
+        mRegion = region != null ? new RectF(region) : null;
+    }
+
+    public RectF getRegion() {
+        return mRegion;
+    }
+
+    /**
+     * Horizontal position, in upright frame pixels, of the region the last frame was cropped to.
+     */
+    public int getRegionOffsetX() {
+        return mRegionOffsetX;
+    }
+
+    /**
+     * Vertical position, in upright frame pixels, of the region the last frame was cropped to.
+     */
+    public int getRegionOffsetY() {
+        return mRegionOffsetY;
+    }
+
+    /**
+     * Asks for the crop buffer to be dropped before the next frame; it is allocated again when a
+     * frame is cropped.  May be called from any thread.
+     *
+     * @return about how many bytes are freed
+     */
+    public long trimMemory() {
+        mTrimRequested = true;
+        // Read racily, which is fine for an estimate.
+        byte[] crop = mCropBuffer;
+        return crop != null ? crop.length : 0;
+    }
+
+    @Override
+    public SparseArray<T> detect(Frame frame) {
+        if (mTrimRequested) {
+            mTrimRequested = false;
+            mCropBuffer = null;
+        }
+        RectF region = mRegion;
+        mRegionOffsetX = 0;
+        mRegionOffsetY = 0;
+        if (region == null) {
+            return mDelegate.detect(frame);
+        }
+        return mDelegate.detect(crop(frame, region));
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mDelegate.isOperational();
+    }
+
+    @Override
+    public boolean setFocus(int id) {
+        return mDelegate.setFocus(id);
+    }
+
+    @Override
+    public void release() {
+        mDelegate.release();
+        super.release();
+    }
+
+    /**
+     * Returns a frame holding only the given upright region of the supplied frame, and records
+     * the region's upright offset.
+     */
+    private Frame crop(Frame frame, RectF region) {
+        Frame.Metadata metadata = frame.getMetadata();
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        int rotation = metadata.getRotation();
+
+        Rect sensor = toSensorRect(region, rotation, width, height);
+        if (sensor.isEmpty()) {
+            return frame;
+        }
+        Point offset = toUprightOffset(sensor, rotation, width, height);
+        mRegionOffsetX = offset.x;
+        mRegionOffsetY = offset.y;
+
+        Bitmap bitmap = frame.getBitmap();
+        if (bitmap != null) {
+            return new Frame.Builder()
+                    .setBitmap(Bitmap.createBitmap(bitmap, sensor.left, sensor.top,
+                            sensor.width(), sensor.height()))
+                    .setId(metadata.getId())
+                    .setTimestampMillis(metadata.getTimestampMillis())
+                    .setRotation(rotation)
+                    .build();
+        }
+
+        ByteBuffer data = frame.getGrayscaleImageData();
+        if (data == null || !data.hasArray()) {
+            mRegionOffsetX = 0;
+            mRegionOffsetY = 0;
+            return frame;
+        }
+        int size = sensor.width() * sensor.height() * 3 / 2;
+        if (mCropBuffer == null || mCropBuffer.length < size) {
+            mCropBuffer = new byte[size];
+        }
+        ByteBuffer cropped = cropNv21(data, width, height, sensor, mCropBuffer);
+        return new Frame.Builder()
+                .setImageData(cropped, sensor.width(), sensor.height(), ImageFormat.NV21)
+                .setId(metadata.getId())
+                .setTimestampMillis(metadata.getTimestampMillis())
+                .setRotation(rotation)
+                .build();
+    }
+
+    /**
+     * Maps a fractional upright region to pixels of the unrotated frame, aligned to even
+     * coordinates so that chroma samples are not split.  Rotation is clockwise, in quarter turns.
+     */
+    static Rect toSensorRect(RectF region, int rotation, int width, int height) {
+        float left = clamp(region.left);
+        float top = clamp(region.top);
+        float right = clamp(region.right);
+        float bottom = clamp(region.bottom);
+
+        float l, t, r, b;
+        switch (rotation) {
+            case Frame.ROTATION_90:
+                l = top; t = 1 - right; r = bottom; b = 1 - left;
+                break;
+            case Frame.ROTATION_180:
+                l = 1 - right; t = 1 - bottom; r = 1 - left; b = 1 - top;
+                break;
+            case Frame.ROTATION_270:
+                l = 1 - bottom; t = left; r = 1 - top; b = right;
+                break;
+            default:
+                l = left; t = top; r = right; b = bottom;
+                break;
+        }
+
+        return new Rect(
+                ((int) (l * width)) & ~1, ((int) (t * height)) & ~1,
+                Math.min(width, ((int) Math.ceil(r * width) + 1) & ~1),
+                Math.min(height, ((int) Math.ceil(b * height) + 1) & ~1));
+    }
+
+    /**
+     * Inverse of {@link #toSensorRect}: returns where the sensor rectangle's upright top-left
+     * corner lies in the upright frame.
+     */
+    static Point toUprightOffset(Rect sensor, int rotation, int width, int height) {
+        switch (rotation) {
+            case Frame.ROTATION_90:
+                return new Point(height - sensor.bottom, sensor.left);
+            case Frame.ROTATION_180:
+                return new Point(width - sensor.right, height - sensor.bottom);
+            case Frame.ROTATION_270:
+                return new Point(sensor.top, width - sensor.right);
+            default:
+                return new Point(sensor.left, sensor.top);
+        }
+    }
+
+    /**
+     * Copies the luma rows and interleaved chroma rows of the rectangle into {@code target}, which
+     * must hold at least width * height * 3 / 2 bytes of the rectangle.
+     */
+    static ByteBuffer cropNv21(ByteBuffer source, int width, int height, Rect rect, byte[] target) {
+        int cropWidth = rect.width();
+        int cropHeight = rect.height();
+
+        byte[] data = source.array();
+        int offset = source.arrayOffset();
+        for (int row = 0; row < cropHeight; ++row) {
+            System.arraycopy(data, offset + (rect.top + row) * width + rect.left,
+                    target, row * cropWidth, cropWidth);
+        }
+        int chroma = width * height;
+        int cropChroma = cropWidth * cropHeight;
+        for (int row = 0; row < cropHeight / 2; ++row) {
+            System.arraycopy(data, offset + chroma + (rect.top / 2 + row) * width + rect.left,
+                    target, cropChroma + row * cropWidth, cropWidth);
+        }
+        return ByteBuffer.wrap(target, 0, cropChroma * 3 / 2);
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0.0f, Math.min(1.0f, value));
+    }
+}
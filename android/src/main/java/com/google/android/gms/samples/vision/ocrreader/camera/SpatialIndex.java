@@ -0,0 +1,162 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable uniform grid over a snapshot of axis-aligned boxes, used to answer point and region
+ * queries without scanning every item.<p>
+ *
+ * The grid is sized from the union of the supplied boxes so that, on average, each cell holds a
+ * single item.  Cell membership is stored in two flat arrays (a start offset per cell followed by
+ * the item indices of all cells back to back), so building the index allocates a fixed amount of
+ * memory and a query touches only the cells that overlap it.
+ */
+public final class SpatialIndex<T> {
+    // Upper bound on cells per axis; more cells than this only costs memory for the few dozen
+    // blocks a frame usually holds.
+    private static final int MAX_CELLS_PER_AXIS = 32;
+
+    private final List<T> mItems;
+    private final float[] mBounds;
+    private final float mLeft;
+    private final float mTop;
+    private final float mCellWidth;
+    private final float mCellHeight;
+    private final int mColumns;
+    private final int mRows;
+    private final int[] mCellStart;
+    private final int[] mCellItems;
+
+    /**
+     * Builds an index over the supplied items.  {@code bounds} must be the same length as
+     * {@code items}; the boxes are copied, so callers may reuse them afterwards.
+     */
+    public SpatialIndex(List<T> items, List<RectF> bounds) {
+        if (items.size() != bounds.size()) {
+            throw new IllegalArgumentException("Items and bounds differ in size.");
+        }
+
+        int count = items.size();
+        mItems = new ArrayList<>(items);
+        mBounds = new float[count * 4];
+
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < count; ++i) {
+            RectF box = bounds.get(i);
+            mBounds[i * 4] = box.left;
+            mBounds[i * 4 + 1] = box.top;
+            mBounds[i * 4 + 2] = box.right;
+            mBounds[i * 4 + 3] = box.bottom;
+            left = Math.min(left, box.left);
+            top = Math.min(top, box.top);
+            right = Math.max(right, box.right);
+            bottom = Math.max(bottom, box.bottom);
+        }
+
+        if (count == 0) {
+            left = top = right = bottom = 0;
+        }
+
+        int cellsPerAxis = Math.max(1, Math.min(MAX_CELLS_PER_AXIS, (int) Math.ceil(Math.sqrt(count))));
+        mLeft = left;
+        mTop = top;
+        mColumns = cellsPerAxis;
+        mRows = cellsPerAxis;
+        mCellWidth = Math.max(1.0f, (right - left) / mColumns);
+        mCellHeight = Math.max(1.0f, (bottom - top) / mRows);
+
+        // First pass counts the items per cell, second pass fills them in.
+        mCellStart = new int[mColumns * mRows + 1];
+        for (int i = 0; i < count; ++i) {
+            for (int row = rowOf(mBounds[i * 4 + 1]); row <= rowOf(mBounds[i * 4 + 3]); ++row) {
+                for (int col = columnOf(mBounds[i * 4]); col <= columnOf(mBounds[i * 4 + 2]); ++col) {
+                    mCellStart[row * mColumns + col + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < mColumns * mRows; ++cell) {
+            mCellStart[cell + 1] += mCellStart[cell];
+        }
+
+        mCellItems = new int[mCellStart[mColumns * mRows]];
+        int[] fill = new int[mColumns * mRows];
+        for (int i = 0; i < count; ++i) {
+            for (int row = rowOf(mBounds[i * 4 + 1]); row <= rowOf(mBounds[i * 4 + 3]); ++row) {
+                for (int col = columnOf(mBounds[i * 4]); col <= columnOf(mBounds[i * 4 + 2]); ++col) {
+                    int cell = row * mColumns + col;
+                    mCellItems[mCellStart[cell] + fill[cell]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of indexed items.
+     */
+    public int size() {
+        return mItems.size();
+    }
+
+    /**
+     * Returns the first indexed item whose box strictly contains the point, or null.
+     */
+    public T findAt(float x, float y) {
+        if (mItems.isEmpty()) {
+            return null;
+        }
+        int cell = rowOf(y) * mColumns + columnOf(x);
+        for (int k = mCellStart[cell]; k < mCellStart[cell + 1]; ++k) {
+            int i = mCellItems[k];
+            if (mBounds[i * 4] < x && mBounds[i * 4 + 2] > x
+                    && mBounds[i * 4 + 1] < y && mBounds[i * 4 + 3] > y) {
+                return mItems.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns every indexed item whose box intersects the supplied region, in index order.
+     */
+    public List<T> findIn(float left, float top, float right, float bottom) {
+        List<T> result = new ArrayList<>();
+        if (mItems.isEmpty() || left >= right || top >= bottom) {
+            return result;
+        }
+
+        // An item spanning several cells is reported once, by remembering which ones were seen.
+        boolean[] seen = new boolean[mItems.size()];
+        for (int row = rowOf(top); row <= rowOf(bottom); ++row) {
+            for (int col = columnOf(left); col <= columnOf(right); ++col) {
+                int cell = row * mColumns + col;
+                for (int k = mCellStart[cell]; k < mCellStart[cell + 1]; ++k) {
+                    int i = mCellItems[k];
+                    if (!seen[i] && mBounds[i * 4] < right && mBounds[i * 4 + 2] > left
+                            && mBounds[i * 4 + 1] < bottom && mBounds[i * 4 + 3] > top) {
+                        seen[i] = true;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < seen.length; ++i) {
+            if (seen[i]) {
+                result.add(mItems.get(i));
+            }
+        }
+        return result;
+    }
+
+    private int columnOf(float x) {
+        return Math.max(0, Math.min(mColumns - 1, (int) ((x - mLeft) / mCellWidth)));
+    }
+
+    private int rowOf(float y) {
+        return Math.max(0, Math.min(mRows - 1, (int) ((y - mTop) / mCellHeight)));
+    }
+}
@@ -0,0 +1,88 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import java.util.Arrays;
+
+/**
+ * Decides cheaply whether a luma image might contain text, and where.<p>
+ *
+ * The image is divided into a coarse grid and sampled every few pixels.  At each sample the
+ * horizontal and vertical luma differences to the next sample are compared against a threshold,
+ * giving per-cell counts of strong vertical and horizontal edges.  Printed text shows up as a
+ * moderate density of both (strokes run in every direction), whereas empty floors and walls have
+ * few edges, motion blur wipes them out, noise and dense texture produce too many, and shelving
+ * or planks produce edges in one orientation only.  This is a filter for frames not worth a full
+ * recognition pass, so it errs on the side of keeping frames.<p>
+ *
+ * Not thread safe; an analyzer is meant to be used from the frame processing thread only.
+ */
+class TextPresenceAnalyzer {
+    static final int COLUMNS = 16;
+    static final int ROWS = 12;
+
+    // Distance, in pixels, between samples and between the pixels a difference is taken over.
+    private static final int STEP = 4;
+
+    // Luma difference that counts as an edge.
+    private static final int EDGE_THRESHOLD = 40;
+
+    // Share of a cell's samples that must be edges for it to look like text, and above which it
+    // looks like texture or noise instead.
+    private static final float MIN_EDGE_DENSITY = 0.06f;
+    private static final float MAX_EDGE_DENSITY = 0.55f;
+
+    // The rarer edge orientation must make up at least this share of the commoner one.
+    private static final float MIN_ORIENTATION_BALANCE = 0.2f;
+
+    private final int[] mHorizontalEdges = new int[COLUMNS * ROWS];
+    private final int[] mVerticalEdges = new int[COLUMNS * ROWS];
+    private final int[] mSamples = new int[COLUMNS * ROWS];
+
+    /**
+     * Analyzes a luma plane (such as the start of an NV21 buffer) and returns which grid cells look
+     * like text, row by row, or null if none do.
+     */
+    boolean[] analyze(byte[] luma, int offset, int width, int height) {
+        Arrays.fill(mHorizontalEdges, 0);
+        Arrays.fill(mVerticalEdges, 0);
+        Arrays.fill(mSamples, 0);
+
+        for (int y = 0; y + STEP < height; y += STEP) {
+            int row = y * ROWS / height;
+            int line = offset + y * width;
+            int nextLine = line + STEP * width;
+            for (int x = 0; x + STEP < width; x += STEP) {
+                int cell = row * COLUMNS + x * COLUMNS / width;
+                int value = luma[line + x] & 0xff;
+                if (Math.abs((luma[line + x + STEP] & 0xff) - value) > EDGE_THRESHOLD) {
+                    mVerticalEdges[cell]++;
+                }
+                if (Math.abs((luma[nextLine + x] & 0xff) - value) > EDGE_THRESHOLD) {
+                    mHorizontalEdges[cell]++;
+                }
+                mSamples[cell]++;
+            }
+        }
+
+        boolean[] cells = null;
+        for (int cell = 0; cell < COLUMNS * ROWS; ++cell) {
+            if (isTextLike(mHorizontalEdges[cell], mVerticalEdges[cell], mSamples[cell])) {
+                if (cells == null) {
+                    cells = new boolean[COLUMNS * ROWS];
+                }
+                cells[cell] = true;
+            }
+        }
+        return cells;
+    }
+
+    private static boolean isTextLike(int horizontal, int vertical, int samples) {
+        if (samples == 0) {
+            return false;
+        }
+        float density = (float) (horizontal + vertical) / samples;
+        if (density < MIN_EDGE_DENSITY || density > MAX_EDGE_DENSITY) {
+            return false;
+        }
+        return Math.min(horizontal, vertical) >= MIN_ORIENTATION_BALANCE * Math.max(horizontal, vertical);
+    }
+}
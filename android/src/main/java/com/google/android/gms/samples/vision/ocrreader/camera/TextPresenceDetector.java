@@ -0,0 +1,127 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.graphics.RectF;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Detector that only passes frames on to an underlying detector when their luma plane shows
+ * text-like structure, see {@link TextPresenceAnalyzer}.<p>
+ *
+ * Frames without any text-like grid cell are answered with no detections at once, so processors
+ * still hear about them (and clear what they show) without a full recognition pass.  The cells
+ * that did look like text in the last frame are available from {@link #getTextCells()}, as
+ * fractions of the upright frame, for later stages that want to crop to them.
+ */
+public class TextPresenceDetector<T> extends Detector<T> {
+    private final Detector<T> mDelegate;
+    private final TextPresenceAnalyzer mAnalyzer = new TextPresenceAnalyzer();
+
+    // Written on the UI thread, read on the detector thread.
+    private volatile boolean mEnabled = true;
+
+    // Written on the detector thread, read anywhere.
+    private volatile List<RectF> mTextCells = Collections.emptyList();
+
+    public TextPresenceDetector(Detector<T> delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * Turns skipping on or off.  While off, every frame goes to the underlying detector and no
+     * cells are reported.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            mTextCells = Collections.emptyList();
+        }
+    }
+
+    /**
+     * Grid cells of the last analyzed frame that looked like text, as fractions (0..1) of the
+     * upright frame.
+     */
+    public List<RectF> getTextCells() {
+        return mTextCells;
+    }
+
+    @Override
+    public SparseArray<T> detect(Frame frame) {
+        if (!mEnabled) {
+            return mDelegate.detect(frame);
+        }
+
+        Frame.Metadata metadata = frame.getMetadata();
+        ByteBuffer data = frame.getGrayscaleImageData();
+        if (data == null || !data.hasArray()) {
+            return mDelegate.detect(frame);
+        }
+
+        boolean[] cells = mAnalyzer.analyze(data.array(), data.arrayOffset(),
+                metadata.getWidth(), metadata.getHeight());
+        if (cells == null) {
+            mTextCells = Collections.emptyList();
+            return new SparseArray<>();
+        }
+        mTextCells = toUprightCells(cells, metadata.getRotation());
+        return mDelegate.detect(frame);
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mDelegate.isOperational();
+    }
+
+    @Override
+    public boolean setFocus(int id) {
+        return mDelegate.setFocus(id);
+    }
+
+    @Override
+    public void release() {
+        mDelegate.release();
+        super.release();
+    }
+
+    private static List<RectF> toUprightCells(boolean[] cells, int rotation) {
+        List<RectF> upright = new ArrayList<>();
+        for (int row = 0; row < TextPresenceAnalyzer.ROWS; ++row) {
+            for (int column = 0; column < TextPresenceAnalyzer.COLUMNS; ++column) {
+                if (cells[row * TextPresenceAnalyzer.COLUMNS + column]) {
+                    upright.add(toUpright(
+                            (float) column / TextPresenceAnalyzer.COLUMNS,
+                            (float) row / TextPresenceAnalyzer.ROWS,
+                            (float) (column + 1) / TextPresenceAnalyzer.COLUMNS,
+                            (float) (row + 1) / TextPresenceAnalyzer.ROWS,
+                            rotation));
+                }
+            }
+        }
+        return upright;
+    }
+
+    /**
+     * Inverse of {@link RegionDetector#toSensorRect}, on fractions: maps a rectangle of the
+     * unrotated frame to the upright frame.
+     */
+    static RectF toUpright(float l, float t, float r, float b, int rotation) {
+        switch (rotation) {
+            case Frame.ROTATION_90:
+                return new RectF(1 - b, l, 1 - t, r);
+            case Frame.ROTATION_180:
+                return new RectF(1 - r, 1 - b, 1 - l, 1 - t);
+            case Frame.ROTATION_270:
+                return new RectF(t, 1 - r, b, 1 - l);
+            default:
+                return new RectF(l, t, r, b);
+        }
+    }
+}
@@ -0,0 +1,903 @@
+package com.google.android.gms.samples.vision.ocrreader.image;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.text.TextBlock;
+import com.google.android.gms.vision.text.TextRecognizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recognizes text in still images (files and content URIs) without a camera.<p>
+ *
+ * Images are never decoded at full size just to be scaled down: the header is read first, and
+ * the image (or only the requested region of it) is decoded with the largest power-of-two
+ * sample size that still keeps the longest side at or above the recognizer's useful resolution.
+ * The EXIF orientation is passed on to the recognizer as the frame rotation instead of rotating
+ * pixels.  Recognizers come from a {@link RecognizerPool}, and {@link #recognize(Uri, Options,
+ * Callback)} runs on a background executor.<p>
+ *
+ * The executor and the pool are bounded by the same parallelism, so at most that many images are
+ * decoded at once however many are queued; see {@link #getDefaultParallelism()}.  On API 19 and
+ * up, each worker thread keeps its last bitmap and decodes the next image into it when it fits,
+ * so a batch of hundreds of pages allocates a handful of bitmaps rather than one per page.<p>
+ *
+ * Large images can instead be recognized in overlapping tiles at full resolution (see
+ * {@link Options#setTileSize}), so small text stays readable without decoding the whole image.
+ * Tiles are decoded one at a time from a shared {@link BitmapRegionDecoder} and recognized in
+ * parallel: the calling thread works through the tiles itself, helped by whichever executor
+ * threads are free, so tiled images inside a batch can't starve each other of workers.  Blocks
+ * read twice in an overlap are merged by {@link TileMerger}.<p>
+ *
+ * Block bounds in a {@link Result} are in pixels of the full, upright image, whatever sample size,
+ * region or tiles were used to decode it.
+ */
+public class ImageRecognizer {
+    private static final String TAG = "ImageRecognizer";
+
+    /**
+     * Longest side, in pixels, images are decoded to by default.  Body text on a full page photo
+     * is still around 20 px high at this size, which the recognizer reads reliably, while a
+     * 4:3 photo decoded to it takes about 6 MB.
+     */
+    public static final int DEFAULT_MAX_DIMENSION = 2048;
+
+    /**
+     * Default tile size, about the preview resolution live scanning recognizes well.  A tile
+     * decodes to just over 3 MB.
+     */
+    public static final int DEFAULT_TILE_SIZE = 1280;
+
+    /**
+     * Default overlap between tiles, a few lines of body text at the resolutions tiling is used
+     * for.
+     */
+    public static final int DEFAULT_TILE_OVERLAP = 160;
+
+    /**
+     * How an image is decoded for recognition.
+     */
+    public static class Options {
+        private int mMaxDimension = DEFAULT_MAX_DIMENSION;
+        private Rect mRegion;
+        private int mTileSize;
+        private int mTileOverlap = DEFAULT_TILE_OVERLAP;
+
+        /**
+         * Sets the longest side the decoded image is reduced towards.  Images are only ever
+         * subsampled by powers of two, and never below this size.
+         */
+        public Options setMaxDimension(int maxDimension) {
+            if (maxDimension <= 0) {
+                throw new IllegalArgumentException("Invalid max dimension: " + maxDimension);
+            }
+            mMaxDimension = maxDimension;
+            return this;
+        }
+
+        /**
+         * Restricts recognition to a region, in pixels of the upright image.  Only that region is
+         * decoded.
+         */
+        public Options setRegion(Rect region) {
+            mRegion = region != null ? new Rect(region) : null;
+            return this;
+        }
+
+        /**
+         * Recognizes the image in square tiles of this size, in full resolution pixels, instead of
+         * subsampling it; 0 (the default) turns tiling off.  The max dimension is ignored while
+         * tiling.
+         */
+        public Options setTileSize(int tileSize) {
+            if (tileSize < 0) {
+                throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+            }
+            mTileSize = tileSize;
+            return this;
+        }
+
+        /**
+         * Sets how far neighbouring tiles overlap, in pixels.  It should exceed the height of a
+         * line of text, so that every line lies whole in at least one tile.
+         */
+        public Options setTileOverlap(int tileOverlap) {
+            if (tileOverlap < 0) {
+                throw new IllegalArgumentException("Invalid tile overlap: " + tileOverlap);
+            }
+            mTileOverlap = tileOverlap;
+            return this;
+        }
+    }
+
+    /**
+     * Text recognized in an image.
+     */
+    public static class Result {
+        private final List<TextBlock> mBlocks;
+        private final List<RectF> mBounds;
+        private final int mWidth;
+        private final int mHeight;
+
+        Result(List<TextBlock> blocks, List<RectF> bounds, int width, int height) {
+            mBlocks = blocks;
+            mBounds = bounds;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        public int getBlockCount() {
+            return mBlocks.size();
+        }
+
+        public TextBlock getBlock(int index) {
+            return mBlocks.get(index);
+        }
+
+        /**
+         * Bounds of a block in pixels of the full, upright image.
+         */
+        public RectF getBounds(int index) {
+            return mBounds.get(index);
+        }
+
+        /** Width of the full, upright image. */
+        public int getWidth() {
+            return mWidth;
+        }
+
+        /** Height of the full, upright image. */
+        public int getHeight() {
+            return mHeight;
+        }
+    }
+
+    /**
+     * Receives the outcome of an asynchronous recognition, on the executor's thread.
+     */
+    public interface Callback {
+        void onRecognized(Result result);
+
+        void onError(Exception e);
+    }
+
+    /**
+     * Receives the items of a batch as they finish, on the executor's threads.  Calls are
+     * serialized, and {@link #onComplete} comes after the last item.
+     */
+    public interface BatchCallback {
+        /**
+         * @param index     position of the image in the batch
+         * @param result    the recognized text, or null if the image failed
+         * @param error     why the image failed, or null
+         * @param completed number of items finished so far, including this one
+         */
+        void onItem(int index, Result result, Exception error, int completed);
+
+        void onComplete(int succeeded, int failed, boolean cancelled);
+    }
+
+    /**
+     * A running batch.
+     */
+    public static class Batch {
+        private final int mTotal;
+        private final AtomicInteger mCompleted = new AtomicInteger();
+        private final AtomicInteger mSucceeded = new AtomicInteger();
+        private final AtomicInteger mFailed = new AtomicInteger();
+        private volatile boolean mCancelled;
+
+        Batch(int total) {
+            mTotal = total;
+        }
+
+        public int getTotal() {
+            return mTotal;
+        }
+
+        /**
+         * Stops starting new items.  Items already being recognized are still reported, the rest
+         * are skipped, and the batch then completes as cancelled.
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    // Bytes per pixel of the RGB_565 bitmaps images are decoded to.
+    private static final int BYTES_PER_PIXEL = 2;
+
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+    private final Context mContext;
+    private final RecognizerPool mPool;
+    private final ThreadPoolExecutor mExecutor;
+
+    // Bitmap last decoded on each worker thread, kept to be decoded into again.
+    private final ThreadLocal<Bitmap> mReusableBitmap = new ThreadLocal<>();
+
+    public ImageRecognizer(Context context) {
+        this(context, getDefaultParallelism());
+    }
+
+    /**
+     * @param parallelism the maximum number of images decoded and recognized at once
+     */
+    public ImageRecognizer(Context context, int parallelism) {
+        parallelism = Math.max(1, parallelism);
+        mContext = context.getApplicationContext();
+        mPool = new RecognizerPool(mContext, parallelism);
+        mExecutor = new ThreadPoolExecutor(parallelism, parallelism,
+                IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        // Idle workers exit, and take their reusable bitmaps with them.
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * One worker per core, but no more than a quarter of the heap can hold in worst-case decoded
+     * images at the default resolution (the sample size keeps each side below twice the maximum
+     * dimension).
+     */
+    public static int getDefaultParallelism() {
+        long perImage = 4L * DEFAULT_MAX_DIMENSION * DEFAULT_MAX_DIMENSION * BYTES_PER_PIXEL;
+        long byMemory = Runtime.getRuntime().maxMemory() / 4 / perImage;
+        int cores = Runtime.getRuntime().availableProcessors();
+        return (int) Math.max(1, Math.min(cores, byMemory));
+    }
+
+    /**
+     * Recognizes the image on the background executor and reports the outcome to the callback.
+     */
+    public void recognize(final Uri uri, final Options options, final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Result result;
+                try {
+                    result = recognize(uri, options);
+                } catch (Exception e) {
+                    callback.onError(e);
+                    return;
+                }
+                callback.onRecognized(result);
+            }
+        });
+    }
+
+    /**
+     * Recognizes the images on the background executor, reporting each one as it finishes.  Only
+     * the URIs are queued; each image is decoded when a worker picks it up and dropped once it
+     * has been reported, so memory doesn't grow with the size of the batch.
+     */
+    public Batch recognizeBatch(List<Uri> uris, final Options options, final BatchCallback callback) {
+        final Batch batch = new Batch(uris.size());
+        if (uris.isEmpty()) {
+            callback.onComplete(0, 0, false);
+            return batch;
+        }
+
+        for (int i = 0; i < uris.size(); ++i) {
+            final int index = i;
+            final Uri uri = uris.get(i);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (batch.isCancelled()) {
+                        // Skipped items are counted towards completion but not reported.
+                        finishItem(batch, index, null, null, callback);
+                        return;
+                    }
+                    Result result = null;
+                    Exception error = null;
+                    try {
+                        result = recognize(uri, options);
+                    } catch (Exception e) {
+                        error = e;
+                    }
+                    finishItem(batch, index, result, error, callback);
+                }
+            });
+        }
+        return batch;
+    }
+
+    private void finishItem(Batch batch, int index, Result result, Exception error,
+                            BatchCallback callback) {
+        synchronized (batch) {
+            int completed = batch.mCompleted.incrementAndGet();
+            if (result != null) {
+                batch.mSucceeded.incrementAndGet();
+            } else if (error != null) {
+                batch.mFailed.incrementAndGet();
+            }
+            if (result != null || error != null) {
+                callback.onItem(index, result, error, completed);
+            }
+            if (completed == batch.mTotal) {
+                callback.onComplete(batch.mSucceeded.get(), batch.mFailed.get(), batch.isCancelled());
+            }
+        }
+    }
+
+    /**
+     * Recognizes the image on the calling thread.
+     *
+     * @throws IOException if the image can't be read or decoded
+     * @throws IllegalStateException if the recognizer isn't operational yet
+     */
+    public Result recognize(Uri uri, Options options) throws IOException, InterruptedException {
+        return recognizeSource(new UriSource(uri), options, null);
+    }
+
+    /**
+     * Recognizes only the given regions of a JPEG held in memory, such as a picture just taken,
+     * each at up to full resolution, on the background executor.  See
+     * {@link #recognizeRegions(byte[], List, Options)}.
+     */
+    public void recognizeRegions(final byte[] jpeg, final List<RectF> regions, final Options options,
+                                 final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Result result;
+                try {
+                    result = recognizeRegions(jpeg, regions, options);
+                } catch (Exception e) {
+                    callback.onError(e);
+                    return;
+                }
+                callback.onRecognized(result);
+            }
+        });
+    }
+
+    /**
+     * Recognizes only the given regions of a JPEG held in memory on the calling thread.  Regions
+     * are fractions (0..1) of the upright picture; without any, the whole picture is recognized.
+     * Blocks read twice where regions overlap are merged.  The options' region is ignored.
+     */
+    public Result recognizeRegions(byte[] jpeg, List<RectF> regions, Options options)
+            throws IOException, InterruptedException {
+        Source source = new JpegSource(jpeg);
+        if (regions.isEmpty()) {
+            return recognizeSource(source, options, null);
+        }
+
+        List<TextBlock> blocks = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        List<RectF> blockBounds = new ArrayList<>();
+        int width = 0;
+        int height = 0;
+        for (RectF region : regions) {
+            Result result = recognizeSource(source, options, region);
+            for (int i = 0; i < result.getBlockCount(); ++i) {
+                TextBlock block = result.getBlock(i);
+                if (block.getValue() != null) {
+                    blocks.add(block);
+                    texts.add(block.getValue());
+                    blockBounds.add(result.getBounds(i));
+                }
+            }
+            width = result.getWidth();
+            height = result.getHeight();
+        }
+
+        List<TextBlock> merged = new ArrayList<>();
+        List<RectF> mergedBounds = new ArrayList<>();
+        for (int index : TileMerger.merge(texts, blockBounds)) {
+            merged.add(blocks.get(index));
+            mergedBounds.add(blockBounds.get(index));
+        }
+        return new Result(merged, mergedBounds, width, height);
+    }
+
+    /**
+     * @param fraction region to recognize as fractions of the upright image, overriding the
+     *                 options' region, or null
+     */
+    private Result recognizeSource(Source source, Options options, RectF fraction)
+            throws IOException, InterruptedException {
+        if (options == null) {
+            options = new Options();
+        }
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        InputStream in = source.open();
+        try {
+            BitmapFactory.decodeStream(in, null, bounds);
+        } finally {
+            in.close();
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Unable to decode image " + source);
+        }
+
+        int rotation = source.readRotation();
+        boolean sideways = rotation == Frame.ROTATION_90 || rotation == Frame.ROTATION_270;
+        int width = sideways ? bounds.outHeight : bounds.outWidth;
+        int height = sideways ? bounds.outWidth : bounds.outHeight;
+
+        Rect region = new Rect(0, 0, width, height);
+        Rect requested = options.mRegion;
+        if (fraction != null) {
+            requested = new Rect((int) (fraction.left * width), (int) (fraction.top * height),
+                    (int) Math.ceil(fraction.right * width), (int) Math.ceil(fraction.bottom * height));
+        }
+        if (requested != null && !region.intersect(requested)) {
+            throw new IllegalArgumentException("Region lies outside the image.");
+        }
+
+        if (options.mTileSize > 0 && (region.width() > options.mTileSize
+                || region.height() > options.mTileSize)) {
+            return recognizeTiled(source, region, rotation, bounds.outWidth, bounds.outHeight,
+                    options.mTileSize, Math.min(options.mTileOverlap, options.mTileSize / 2),
+                    width, height);
+        }
+
+        int sampleSize = computeSampleSize(Math.max(region.width(), region.height()),
+                options.mMaxDimension);
+        Bitmap bitmap = decode(source, toStoredRect(region, rotation, bounds.outWidth, bounds.outHeight),
+                region.width() == width && region.height() == height, sampleSize);
+        Frame frame = new Frame.Builder()
+                .setBitmap(bitmap)
+                .setRotation(rotation)
+                .build();
+        SparseArray<TextBlock> detected = detect(frame);
+
+        List<TextBlock> blocks = new ArrayList<>(detected.size());
+        List<RectF> blockBounds = new ArrayList<>(detected.size());
+        for (int i = 0; i < detected.size(); ++i) {
+            TextBlock block = detected.valueAt(i);
+            if (block != null) {
+                blocks.add(block);
+                blockBounds.add(toImageRect(block.getBoundingBox(), sampleSize, region.left, region.top));
+            }
+        }
+        return new Result(blocks, blockBounds, width, height);
+    }
+
+    /**
+     * Recognizes the upright region in overlapping full resolution tiles and merges the blocks
+     * found in overlaps.
+     */
+    private Result recognizeTiled(Source source, final Rect region, final int rotation,
+                                  final int storedWidth, final int storedHeight,
+                                  int tileSize, int overlap, int width, int height)
+            throws IOException, InterruptedException {
+        final List<Rect> tiles = new ArrayList<>();
+        for (int top : tileStarts(region.top, region.bottom, tileSize, overlap)) {
+            for (int left : tileStarts(region.left, region.right, tileSize, overlap)) {
+                tiles.add(new Rect(left, top, Math.min(left + tileSize, region.right),
+                        Math.min(top + tileSize, region.bottom)));
+            }
+        }
+
+        final BitmapRegionDecoder decoder;
+        InputStream in = source.open();
+        try {
+            decoder = BitmapRegionDecoder.newInstance(in, false);
+        } finally {
+            in.close();
+        }
+
+        final SparseArray<TextBlock>[] detected = newDetectionsArray(tiles.size());
+        final AtomicInteger next = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int tile;
+                while ((tile = next.getAndIncrement()) < tiles.size()) {
+                    try {
+                        detected[tile] = recognizeTile(decoder, tiles.get(tile), rotation,
+                                storedWidth, storedHeight);
+                    } catch (Exception e) {
+                        // Stop handing out tiles and let the caller rethrow the failure.
+                        next.set(tiles.size());
+                        throw new TileException(e);
+                    }
+                }
+            }
+        };
+
+        List<Future<?>> helpers = new ArrayList<>();
+        try {
+            int helperCount = Math.min(mExecutor.getMaximumPoolSize(), tiles.size()) - 1;
+            for (int i = 0; i < helperCount; ++i) {
+                helpers.add(mExecutor.submit(worker));
+            }
+            worker.run();
+            for (Future<?> helper : helpers) {
+                // Helpers still queued behind busy workers are dropped: there is nothing left
+                // for them to do, and waiting for them could deadlock a saturated pool.
+                if (!helper.cancel(false)) {
+                    helper.get();
+                }
+            }
+        } catch (TileException | ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TileException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Unable to recognize tiles of " + source, cause);
+        } finally {
+            // Helpers still at work on a failed image stop after their current tile, and must
+            // be done with the decoder before it is recycled.
+            next.set(tiles.size());
+            awaitHelpers(helpers);
+            decoder.recycle();
+        }
+
+        List<TextBlock> blocks = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        List<RectF> blockBounds = new ArrayList<>();
+        for (int tile = 0; tile < tiles.size(); ++tile) {
+            Rect bounds = tiles.get(tile);
+            for (int i = 0; i < detected[tile].size(); ++i) {
+                TextBlock block = detected[tile].valueAt(i);
+                if (block == null || block.getValue() == null) {
+                    continue;
+                }
+                blocks.add(block);
+                texts.add(block.getValue());
+                blockBounds.add(toImageRect(block.getBoundingBox(), 1, bounds.left, bounds.top));
+            }
+        }
+
+        List<TextBlock> merged = new ArrayList<>();
+        List<RectF> mergedBounds = new ArrayList<>();
+        for (int index : TileMerger.merge(texts, blockBounds)) {
+            merged.add(blocks.get(index));
+            mergedBounds.add(blockBounds.get(index));
+        }
+        return new Result(merged, mergedBounds, width, height);
+    }
+
+    /**
+     * Drops the helpers still queued and waits for the ones that started, even when interrupted.
+     * Their failures are ignored; the caller has already seen its own, or found none.
+     */
+    private static void awaitHelpers(List<Future<?>> helpers) {
+        boolean interrupted = false;
+        for (Future<?> helper : helpers) {
+            if (helper.cancel(false)) {
+                continue;
+            }
+            while (true) {
+                try {
+                    helper.get();
+                    break;
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private SparseArray<TextBlock> recognizeTile(BitmapRegionDecoder decoder, Rect tile, int rotation,
+                                                 int storedWidth, int storedHeight)
+            throws IOException, InterruptedException {
+        Rect stored = toStoredRect(tile, rotation, storedWidth, storedHeight);
+        BitmapFactory.Options decodeOptions = createDecodeOptions(stored, 1);
+        // Region decoders serialize decoding internally; recognition is what runs in parallel.
+        Bitmap bitmap = decoder.decodeRegion(stored, decodeOptions);
+        keepForReuse(bitmap, decodeOptions);
+        if (bitmap == null) {
+            throw new IOException("Unable to decode tile " + tile);
+        }
+
+        Frame frame = new Frame.Builder()
+                .setBitmap(bitmap)
+                .setRotation(rotation)
+                .build();
+        return detect(frame);
+    }
+
+    /**
+     * Carries a tile's failure out of a worker.
+     */
+    private static class TileException extends RuntimeException {
+        TileException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SparseArray<TextBlock>[] newDetectionsArray(int size) {
+        return (SparseArray<TextBlock>[]) new SparseArray[size];
+    }
+
+    /**
+     * Releases the recognizers not in use right now, under memory pressure.  Recognition keeps
+     * working and creates them again as needed.  Returns how many were released.
+     */
+    public int trimMemory() {
+        return mPool.trim();
+    }
+
+    /**
+     * Stops the executor and releases the pooled recognizers.
+     */
+    public void release() {
+        mExecutor.shutdownNow();
+        mPool.release();
+    }
+
+    private SparseArray<TextBlock> detect(Frame frame) throws InterruptedException {
+        TextRecognizer recognizer = mPool.acquire();
+        try {
+            if (!recognizer.isOperational()) {
+                throw new IllegalStateException("Text recognizer dependencies are not yet available.");
+            }
+            return recognizer.detect(frame);
+        } finally {
+            mPool.recycle(recognizer);
+        }
+    }
+
+    /**
+     * Decodes the stored-orientation rectangle of the image, subsampled.  Whole images go through
+     * {@link BitmapFactory}; regions through {@link BitmapRegionDecoder}, which only decodes the
+     * tiles the region covers.  The bitmap belongs to the calling thread and is overwritten by
+     * its next decode, or recycled by it if it doesn't fit.
+     */
+    private Bitmap decode(Source source, Rect stored, boolean whole, int sampleSize) throws IOException {
+        BitmapFactory.Options decodeOptions = createDecodeOptions(stored, sampleSize);
+        Bitmap bitmap;
+        InputStream in = source.open();
+        try {
+            if (whole) {
+                bitmap = BitmapFactory.decodeStream(in, null, decodeOptions);
+            } else {
+                BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(in, false);
+                try {
+                    bitmap = decoder.decodeRegion(stored, decodeOptions);
+                } finally {
+                    decoder.recycle();
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        keepForReuse(bitmap, decodeOptions);
+        if (bitmap == null) {
+            throw new IOException("Unable to decode image " + source);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decode options for the stored rectangle, set up to decode into this thread's last bitmap
+     * if it is large enough.
+     */
+    private BitmapFactory.Options createDecodeOptions(Rect stored, int sampleSize) {
+        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        decodeOptions.inSampleSize = sampleSize;
+        // The recognizer works on luminance only, so the extra bytes of ARGB_8888 buy nothing.
+        decodeOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+        decodeOptions.inMutable = true;
+
+        Bitmap reusable = mReusableBitmap.get();
+        mReusableBitmap.remove();
+        if (reusable != null) {
+            long needed = (long) ceilDiv(stored.width(), sampleSize)
+                    * ceilDiv(stored.height(), sampleSize) * BYTES_PER_PIXEL;
+            // Decoding into a bitmap of a different size needs API 19.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    && reusable.getAllocationByteCount() >= needed) {
+                decodeOptions.inBitmap = reusable;
+            } else {
+                reusable.recycle();
+            }
+        }
+        return decodeOptions;
+    }
+
+    /**
+     * Keeps a decoded bitmap for this thread's next decode, or recycles the bitmap that was
+     * offered for reuse if decoding failed.
+     */
+    private void keepForReuse(Bitmap bitmap, BitmapFactory.Options decodeOptions) {
+        if (bitmap != null) {
+            mReusableBitmap.set(bitmap);
+        } else if (decodeOptions.inBitmap != null) {
+            decodeOptions.inBitmap.recycle();
+        }
+    }
+
+    /**
+     * Where an image's bytes come from.  Sources are opened several times: for the header, the
+     * orientation and the pixels.
+     */
+    private interface Source {
+        InputStream open() throws IOException;
+
+        /**
+         * Returns the clockwise frame rotation that makes the image upright.
+         */
+        int readRotation();
+    }
+
+    private class UriSource implements Source {
+        private final Uri mUri;
+
+        UriSource(Uri uri) {
+            mUri = uri;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            InputStream in = mContext.getContentResolver().openInputStream(mUri);
+            if (in == null) {
+                throw new IOException("Unable to open " + mUri);
+            }
+            return in;
+        }
+
+        /**
+         * Reads the EXIF orientation.  Content URIs can only be read for EXIF from API 24; older
+         * devices treat them as upright.
+         */
+        @Override
+        public int readRotation() {
+            int orientation = ExifInterface.ORIENTATION_NORMAL;
+            try {
+                if ("file".equals(mUri.getScheme())) {
+                    orientation = new ExifInterface(mUri.getPath()).getAttributeInt(
+                            ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+                } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    orientation = readOrientation();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read orientation of " + mUri, e);
+            }
+
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return Frame.ROTATION_90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return Frame.ROTATION_180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return Frame.ROTATION_270;
+                default:
+                    return Frame.ROTATION_0;
+            }
+        }
+
+        @TargetApi(Build.VERSION_CODES.N)
+        private int readOrientation() throws IOException {
+            InputStream in = open();
+            try {
+                return new ExifInterface(in).getAttributeInt(
+                        ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mUri.toString();
+        }
+    }
+
+    private static class JpegSource implements Source {
+        private final byte[] mJpeg;
+
+        JpegSource(byte[] jpeg) {
+            mJpeg = jpeg;
+        }
+
+        @Override
+        public InputStream open() {
+            return new ByteArrayInputStream(mJpeg);
+        }
+
+        @Override
+        public int readRotation() {
+            return JpegOrientation.read(mJpeg);
+        }
+
+        @Override
+        public String toString() {
+            return "JPEG (" + mJpeg.length + " bytes)";
+        }
+    }
+
+    private static RectF toImageRect(Rect box, int sampleSize, int offsetX, int offsetY) {
+        return new RectF(
+                offsetX + box.left * sampleSize, offsetY + box.top * sampleSize,
+                offsetX + box.right * sampleSize, offsetY + box.bottom * sampleSize);
+    }
+
+    /**
+     * Start positions of tiles covering [start, end), each {@code tileSize} long and overlapping
+     * the previous one by at least {@code overlap}.  The last tile ends exactly at {@code end}.
+     */
+    static List<Integer> tileStarts(int start, int end, int tileSize, int overlap) {
+        List<Integer> starts = new ArrayList<>();
+        int step = Math.max(1, tileSize - overlap);
+        int position = start;
+        while (position + tileSize < end) {
+            starts.add(position);
+            position += step;
+        }
+        starts.add(Math.max(start, end - tileSize));
+        return starts;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Largest power of two that keeps {@code size / sampleSize} at or above {@code maxDimension}.
+     */
+    static int computeSampleSize(int size, int maxDimension) {
+        int sampleSize = 1;
+        while (size / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Maps a rectangle of the upright image to the stored image, which has to be rotated
+     * clockwise by {@code rotation} to be upright.
+     */
+    static Rect toStoredRect(Rect upright, int rotation, int storedWidth, int storedHeight) {
+        switch (rotation) {
+            case Frame.ROTATION_90:
+                return new Rect(upright.top, storedHeight - upright.right,
+                        upright.bottom, storedHeight - upright.left);
+            case Frame.ROTATION_180:
+                return new Rect(storedWidth - upright.right, storedHeight - upright.bottom,
+                        storedWidth - upright.left, storedHeight - upright.top);
+            case Frame.ROTATION_270:
+                return new Rect(storedWidth - upright.bottom, upright.left,
+                        storedWidth - upright.top, upright.right);
+            default:
+                return new Rect(upright);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.google.android.gms.samples.vision.ocrreader.image;
+
+import com.google.android.gms.vision.Frame;
+
+/**
+ * Reads the EXIF orientation of a JPEG held in memory.<p>
+ *
+ * {@link android.media.ExifInterface} can only read streams from API 24, and camera JPEGs are
+ * already in memory, so this walks the few segments up to the EXIF block itself.  Cameras differ
+ * in whether they rotate the pixels or only tag the JPEG, so the tag is the only reliable way to
+ * know how a captured picture is oriented.
+ */
+class JpegOrientation {
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    private JpegOrientation() {
+    }
+
+    /**
+     * Returns the clockwise frame rotation that makes the JPEG upright; {@link Frame#ROTATION_0}
+     * if it carries no orientation or can't be parsed.
+     */
+    static int read(byte[] jpeg) {
+        switch (readOrientationTag(jpeg)) {
+            case 6:
+                return Frame.ROTATION_90;
+            case 3:
+                return Frame.ROTATION_180;
+            case 8:
+                return Frame.ROTATION_270;
+            default:
+                return Frame.ROTATION_0;
+        }
+    }
+
+    private static int readOrientationTag(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xff) != 0xff || (jpeg[1] & 0xff) != 0xd8) {
+            return 0;
+        }
+
+        int offset = 2;
+        while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xff) == 0xff) {
+            int marker = jpeg[offset + 1] & 0xff;
+            int length = readShort(jpeg, offset + 2, false);
+            if (marker == 0xda || length < 2) {
+                // Start of scan: no EXIF before the image data.
+                return 0;
+            }
+            if (marker == 0xe1 && length >= 8 && isExifHeader(jpeg, offset + 4)) {
+                return readTiffOrientation(jpeg, offset + 10, offset + 2 + length);
+            }
+            offset += 2 + length;
+        }
+        return 0;
+    }
+
+    private static boolean isExifHeader(byte[] jpeg, int offset) {
+        return offset + 6 <= jpeg.length && jpeg[offset] == 'E' && jpeg[offset + 1] == 'x'
+                && jpeg[offset + 2] == 'i' && jpeg[offset + 3] == 'f'
+                && jpeg[offset + 4] == 0 && jpeg[offset + 5] == 0;
+    }
+
+    /**
+     * Looks the orientation tag up in the first IFD of the TIFF structure at {@code tiff}.
+     */
+    private static int readTiffOrientation(byte[] jpeg, int tiff, int end) {
+        end = Math.min(end, jpeg.length);
+        if (tiff + 8 > end) {
+            return 0;
+        }
+        boolean littleEndian;
+        if (jpeg[tiff] == 'I' && jpeg[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (jpeg[tiff] == 'M' && jpeg[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return 0;
+        }
+
+        int ifd = tiff + readInt(jpeg, tiff + 4, littleEndian);
+        if (ifd < tiff || ifd + 2 > end) {
+            return 0;
+        }
+        int entries = readShort(jpeg, ifd, littleEndian);
+        for (int i = 0; i < entries; ++i) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                return 0;
+            }
+            if (readShort(jpeg, entry, littleEndian) == TAG_ORIENTATION) {
+                // A SHORT value is stored in the first two bytes of the value field.
+                return readShort(jpeg, entry + 8, littleEndian);
+            }
+        }
+        return 0;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int a = data[offset] & 0xff;
+        int b = data[offset + 1] & 0xff;
+        return littleEndian ? (b << 8) | a : (a << 8) | b;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean littleEndian) {
+        int high = readShort(data, offset + (littleEndian ? 2 : 0), littleEndian);
+        int low = readShort(data, offset + (littleEndian ? 0 : 2), littleEndian);
+        return (high << 16) | low;
+    }
+}
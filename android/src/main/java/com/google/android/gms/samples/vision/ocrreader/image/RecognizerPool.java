@@ -0,0 +1,94 @@
+package com.google.android.gms.samples.vision.ocrreader.image;
+
+import android.content.Context;
+
+import com.google.android.gms.vision.text.TextRecognizer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded pool of text recognizers for still-image recognition.<p>
+ *
+ * Creating a recognizer loads the native OCR engine, which is far more expensive than recognizing
+ * a single image, so recognizers are created on demand up to the pool size and then handed out
+ * again.  A recognizer is only ever used by one thread at a time.
+ */
+public class RecognizerPool {
+    private final Context mContext;
+    private final int mMaxSize;
+
+    private final ArrayDeque<TextRecognizer> mIdle = new ArrayDeque<>();
+    private final List<TextRecognizer> mAll = new ArrayList<>();
+    private boolean mReleased;
+
+    public RecognizerPool(Context context, int maxSize) {
+        mContext = context.getApplicationContext();
+        mMaxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Returns an idle recognizer, creating one if the pool isn't full yet, or waits for one to be
+     * returned.
+     *
+     * @throws IllegalStateException if the pool has been released
+     */
+    public synchronized TextRecognizer acquire() throws InterruptedException {
+        while (true) {
+            if (mReleased) {
+                throw new IllegalStateException("Recognizer pool has been released.");
+            }
+            if (!mIdle.isEmpty()) {
+                return mIdle.pop();
+            }
+            if (mAll.size() < mMaxSize) {
+                TextRecognizer recognizer = new TextRecognizer.Builder(mContext).build();
+                mAll.add(recognizer);
+                return recognizer;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Returns a recognizer obtained from {@link #acquire()} to the pool.
+     */
+    public synchronized void recycle(TextRecognizer recognizer) {
+        if (mReleased) {
+            recognizer.release();
+            return;
+        }
+        mIdle.push(recognizer);
+        notifyAll();
+    }
+
+    /**
+     * Releases the idle recognizers to give their memory back, leaving the pool usable; new
+     * recognizers are created again on demand.  Returns how many were released.
+     */
+    public synchronized int trim() {
+        int count = mIdle.size();
+        for (TextRecognizer recognizer : mIdle) {
+            recognizer.release();
+            mAll.remove(recognizer);
+        }
+        mIdle.clear();
+        notifyAll();
+        return count;
+    }
+
+    /**
+     * Releases the idle recognizers.  Recognizers still in use are released when they are
+     * recycled.
+     */
+    public synchronized void release() {
+        mReleased = true;
+        for (TextRecognizer recognizer : mIdle) {
+            recognizer.release();
+        }
+        mIdle.clear();
+        mAll.clear();
+        notifyAll();
+    }
+}
@@ -0,0 +1,142 @@
+package com.google.android.gms.samples.vision.ocrreader.image;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Removes the blocks that overlapping tiles recognized twice.<p>
+ *
+ * Text in the overlap between two tiles is read by both, and a block cut by one tile's edge is
+ * usually read whole by its neighbour.  Two blocks are taken to be the same text when most of the
+ * smaller box lies inside the larger one and the shorter text closely matches some part of the
+ * longer one (so a truncated copy still matches the whole).  Of each group of duplicates the
+ * longest text is kept, since the others are the cut-off readings.
+ */
+class TileMerger {
+    // Share of the smaller box that must lie inside the larger one.
+    static final float MIN_OVERLAP = 0.5f;
+
+    // Minimum similarity, 1 - (edits / length of the shorter text).
+    static final float MIN_SIMILARITY = 0.7f;
+
+    private TileMerger() {
+    }
+
+    /**
+     * Returns the indices of the blocks to keep, in reading order (top to bottom, then left to
+     * right).
+     *
+     * @param texts the blocks' texts
+     * @param boxes the blocks' bounds, all in the same (full image) coordinates
+     */
+    static List<Integer> merge(final List<String> texts, final List<RectF> boxes) {
+        Integer[] byLength = new Integer[texts.size()];
+        for (int i = 0; i < byLength.length; ++i) {
+            byLength[i] = i;
+        }
+        Arrays.sort(byLength, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return texts.get(b).length() - texts.get(a).length();
+            }
+        });
+
+        List<Integer> kept = new ArrayList<>();
+        for (Integer candidate : byLength) {
+            boolean duplicate = false;
+            for (Integer other : kept) {
+                if (isDuplicate(texts.get(candidate), boxes.get(candidate),
+                        texts.get(other), boxes.get(other))) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate) {
+                kept.add(candidate);
+            }
+        }
+
+        Collections.sort(kept, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byTop = Float.compare(boxes.get(a).top, boxes.get(b).top);
+                return byTop != 0 ? byTop : Float.compare(boxes.get(a).left, boxes.get(b).left);
+            }
+        });
+        return kept;
+    }
+
+    /**
+     * Whether {@code shorter} (no longer than {@code longer}) is another reading of the same
+     * text.
+     */
+    static boolean isDuplicate(String shorter, RectF shorterBox, String longer, RectF longerBox) {
+        float left = Math.max(shorterBox.left, longerBox.left);
+        float top = Math.max(shorterBox.top, longerBox.top);
+        float right = Math.min(shorterBox.right, longerBox.right);
+        float bottom = Math.min(shorterBox.bottom, longerBox.bottom);
+        if (right <= left || bottom <= top) {
+            return false;
+        }
+        float smallerArea = Math.min(area(shorterBox), area(longerBox));
+        if (smallerArea <= 0 || (right - left) * (bottom - top) < MIN_OVERLAP * smallerArea) {
+            return false;
+        }
+        return similarity(shorter, longer) >= MIN_SIMILARITY;
+    }
+
+    /**
+     * 1 - (edit distance of {@code a} to the closest substring of {@code b}) / length of
+     * {@code a}.  Whitespace and case are ignored, since line breaks differ between a cut and a
+     * whole block.
+     */
+    static float similarity(String a, String b) {
+        char[] query = normalize(a);
+        char[] text = normalize(b);
+        if (query.length == 0) {
+            return text.length == 0 ? 1 : 0;
+        }
+
+        // Semi-global alignment: skipping characters at either end of b is free.
+        int[] previous = new int[query.length + 1];
+        int[] current = new int[query.length + 1];
+        for (int i = 0; i <= query.length; ++i) {
+            previous[i] = i;
+        }
+        int best = previous[query.length];
+        for (char c : text) {
+            current[0] = 0;
+            for (int i = 1; i <= query.length; ++i) {
+                int cost = query[i - 1] == c ? 0 : 1;
+                current[i] = Math.min(Math.min(current[i - 1] + 1, previous[i] + 1),
+                        previous[i - 1] + cost);
+            }
+            best = Math.min(best, current[query.length]);
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return 1 - (float) best / query.length;
+    }
+
+    private static char[] normalize(String text) {
+        char[] out = new char[text.length()];
+        int length = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                out[length++] = Character.toLowerCase(c);
+            }
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    private static float area(RectF box) {
+        return box.width() * box.height();
+    }
+}
@@ -0,0 +1,384 @@
+package com.google.android.gms.samples.vision.ocrreader.text;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fuzzy lookup of recognized text in a large local catalogue, such as product labels.<p>
+ *
+ * The catalogue is a UTF-8 text file with one entry per line, either {@code id<TAB>label} or just
+ * {@code label} (the line number then serves as the id).  The file is memory-mapped rather than
+ * read into strings: ids and labels stay in the mapping and are only decoded for matches that are
+ * reported.  Labels are normalized (upper case, letters and digits only) into one shared char pool
+ * and arranged in a BK-tree stored in flat arrays, so a 200k entry catalogue costs a few megabytes
+ * and no per-entry objects.  A query within edit distance k only visits the subtrees whose edge
+ * distance lies within k of the distance to their parent.<p>
+ *
+ * Indexes are opened once per file and built on a background thread the first time they are
+ * requested; until then {@link #isLoaded()} is false and lookups find nothing, so startup is not
+ * held up by a large catalogue.  An index that fails to build is dropped, and the next request for
+ * its file tries again.
+ */
+public class CatalogueIndex {
+    private static final String TAG = "CatalogueIndex";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Map<String, CatalogueIndex> sIndexes = new HashMap<>();
+    private static final ExecutorService sLoader = Executors.newSingleThreadExecutor();
+
+    /**
+     * Told when a catalogue can't be indexed, on the loader thread.
+     */
+    public interface FailureListener {
+        void onLoadFailed(CatalogueIndex index, Exception e);
+    }
+
+    /**
+     * A catalogue entry close enough to the queried text.
+     */
+    public static class Match {
+        private final String mId;
+        private final String mLabel;
+        private final int mDistance;
+
+        Match(String id, String label, int distance) {
+            mId = id;
+            mLabel = label;
+            mDistance = distance;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getLabel() {
+            return mLabel;
+        }
+
+        /** Edit distance between the normalized query and the normalized label. */
+        public int getDistance() {
+            return mDistance;
+        }
+    }
+
+    private final String mPath;
+    private volatile boolean mLoaded;
+
+    // Told if the load fails; guarded by the class, and cleared once the load is over.
+    private final List<FailureListener> mFailureListeners = new ArrayList<>();
+
+    // Written once by the loader before mLoaded is set, read-only afterwards.
+    private ByteBuffer mData;
+    private int mCount;
+    private int[] mIdOffset;
+    private int[] mIdLength;
+    private int[] mLabelOffset;
+    private int[] mLabelLength;
+    private char[] mKeys;
+    private int[] mKeyOffset;
+    private int[] mFirstChild;
+    private int[] mNextSibling;
+    private int[] mEdge;
+
+    private CatalogueIndex(String path) {
+        mPath = path;
+    }
+
+    /**
+     * Returns the index for the given file, starting to build it in the background if this is the
+     * first request for that file.
+     *
+     * @param listener told if the index can't be built, or null
+     */
+    public static synchronized CatalogueIndex open(String path, FailureListener listener) {
+        CatalogueIndex index = sIndexes.get(path);
+        if (index == null) {
+            final CatalogueIndex created = new CatalogueIndex(path);
+            sLoader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    created.load();
+                }
+            });
+            sIndexes.put(path, created);
+            index = created;
+        }
+        if (listener != null && !index.mLoaded) {
+            index.mFailureListeners.add(listener);
+        }
+        return index;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * Returns true once the index has been built and can answer lookups.
+     */
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Returns the number of catalogue entries, or 0 while the index is still loading.
+     */
+    public int size() {
+        return mLoaded ? mCount : 0;
+    }
+
+    /**
+     * Returns the closest entry within {@code maxDistance} edits of the text, or null if there is
+     * none or the index isn't loaded yet.  Ties go to the entry that comes first in the file.
+     */
+    public Match findClosest(String text, int maxDistance) {
+        if (!mLoaded || mCount == 0 || text == null) {
+            return null;
+        }
+        char[] query = normalize(text);
+        if (query.length == 0) {
+            return null;
+        }
+
+        int[] previous = new int[query.length + 1];
+        int[] current = new int[query.length + 1];
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        while (top > 0) {
+            int node = stack[--top];
+            int distance = distance(query, node, previous, current);
+            if (distance <= maxDistance
+                    && (distance < bestDistance || (distance == bestDistance && node < best))) {
+                best = node;
+                bestDistance = distance;
+            }
+
+            for (int child = mFirstChild[node]; child >= 0; child = mNextSibling[child]) {
+                if (Math.abs(mEdge[child] - distance) <= maxDistance) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top++] = child;
+                }
+            }
+        }
+
+        if (best < 0) {
+            return null;
+        }
+        return new Match(decode(mIdOffset[best], mIdLength[best]),
+                decode(mLabelOffset[best], mLabelLength[best]), bestDistance);
+    }
+
+    /**
+     * Builds the index, and on failure drops it from the cache and tells the listeners.
+     */
+    private void load() {
+        Exception failure = null;
+        try {
+            index();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Unable to index catalogue " + mPath, e);
+            failure = e;
+        }
+
+        List<FailureListener> listeners;
+        synchronized (CatalogueIndex.class) {
+            if (failure != null && sIndexes.get(mPath) == this) {
+                sIndexes.remove(mPath);
+            }
+            listeners = new ArrayList<>(mFailureListeners);
+            mFailureListeners.clear();
+        }
+        if (failure != null) {
+            for (FailureListener listener : listeners) {
+                listener.onLoadFailed(this, failure);
+            }
+        }
+    }
+
+    /**
+     * Maps the file, records where each id and label is, and builds the BK-tree.
+     */
+    private void index() throws IOException {
+        long start = System.currentTimeMillis();
+        RandomAccessFile file = new RandomAccessFile(new File(mPath), "r");
+        try {
+            FileChannel channel = file.getChannel();
+            mData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            // The mapping stays valid after the file is closed.
+            file.close();
+        }
+
+        int capacity = 1024;
+        mIdOffset = new int[capacity];
+        mIdLength = new int[capacity];
+        mLabelOffset = new int[capacity];
+        mLabelLength = new int[capacity];
+        mKeyOffset = new int[capacity + 1];
+        mKeys = new char[capacity * 16];
+        int keyLength = 0;
+
+        int limit = mData.limit();
+        int lineStart = 0;
+        int line = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            int tab = -1;
+            while (lineEnd < limit && mData.get(lineEnd) != '\n') {
+                if (tab < 0 && mData.get(lineEnd) == '\t') {
+                    tab = lineEnd;
+                }
+                lineEnd++;
+            }
+            int contentEnd = lineEnd;
+            if (contentEnd > lineStart && mData.get(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+            line++;
+
+            int labelStart = tab >= 0 ? tab + 1 : lineStart;
+            char[] key = normalize(decode(labelStart, contentEnd - labelStart));
+            if (key.length > 0) {
+                if (mCount == capacity) {
+                    capacity *= 2;
+                    mIdOffset = Arrays.copyOf(mIdOffset, capacity);
+                    mIdLength = Arrays.copyOf(mIdLength, capacity);
+                    mLabelOffset = Arrays.copyOf(mLabelOffset, capacity);
+                    mLabelLength = Arrays.copyOf(mLabelLength, capacity);
+                    mKeyOffset = Arrays.copyOf(mKeyOffset, capacity + 1);
+                }
+                if (keyLength + key.length > mKeys.length) {
+                    mKeys = Arrays.copyOf(mKeys, Math.max(mKeys.length * 2, keyLength + key.length));
+                }
+
+                if (tab >= 0) {
+                    mIdOffset[mCount] = lineStart;
+                    mIdLength[mCount] = tab - lineStart;
+                } else {
+                    // No id column: a negative offset stands for the line number.
+                    mIdOffset[mCount] = -line;
+                    mIdLength[mCount] = 0;
+                }
+                mLabelOffset[mCount] = labelStart;
+                mLabelLength[mCount] = contentEnd - labelStart;
+                System.arraycopy(key, 0, mKeys, keyLength, key.length);
+                mKeyOffset[mCount] = keyLength;
+                keyLength += key.length;
+                mKeyOffset[mCount + 1] = keyLength;
+                mCount++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        mKeys = Arrays.copyOf(mKeys, keyLength);
+
+        buildTree();
+        mLoaded = true;
+        Log.d(TAG, "Loaded " + mCount + " catalogue entries in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void buildTree() {
+        mFirstChild = new int[mCount];
+        mNextSibling = new int[mCount];
+        mEdge = new int[mCount];
+        Arrays.fill(mFirstChild, -1);
+        Arrays.fill(mNextSibling, -1);
+
+        int longest = 0;
+        for (int i = 0; i < mCount; ++i) {
+            longest = Math.max(longest, mKeyOffset[i + 1] - mKeyOffset[i]);
+        }
+        int[] previous = new int[longest + 1];
+        int[] current = new int[longest + 1];
+
+        for (int entry = 1; entry < mCount; ++entry) {
+            char[] key = Arrays.copyOfRange(mKeys, mKeyOffset[entry], mKeyOffset[entry + 1]);
+            int node = 0;
+            while (true) {
+                int distance = distance(key, node, previous, current);
+                int child = mFirstChild[node];
+                while (child >= 0 && mEdge[child] != distance) {
+                    child = mNextSibling[child];
+                }
+                if (child < 0) {
+                    mEdge[entry] = distance;
+                    mNextSibling[entry] = mFirstChild[node];
+                    mFirstChild[node] = entry;
+                    break;
+                }
+                node = child;
+            }
+        }
+    }
+
+    /**
+     * Levenshtein distance between {@code query} and the key of {@code node}, using the supplied
+     * rows (at least {@code query.length + 1} long) as scratch space.
+     */
+    private int distance(char[] query, int node, int[] previous, int[] current) {
+        int keyStart = mKeyOffset[node];
+        int keyLength = mKeyOffset[node + 1] - keyStart;
+        for (int i = 0; i <= query.length; ++i) {
+            previous[i] = i;
+        }
+        for (int j = 1; j <= keyLength; ++j) {
+            char c = mKeys[keyStart + j - 1];
+            current[0] = j;
+            for (int i = 1; i <= query.length; ++i) {
+                int cost = query[i - 1] == c ? 0 : 1;
+                current[i] = Math.min(Math.min(current[i - 1] + 1, previous[i] + 1),
+                        previous[i - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[query.length];
+    }
+
+    private String decode(int offset, int length) {
+        if (offset < 0) {
+            return Integer.toString(-offset);
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = mData.get(offset + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Keeps letters and digits only, upper-cased, so spacing and punctuation differences between
+     * a label and its printed form don't count as edits.
+     */
+    static char[] normalize(String text) {
+        char[] out = new char[text.length()];
+        int length = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                out[length++] = Character.toUpperCase(c);
+            }
+        }
+        return Arrays.copyOf(out, length);
+    }
+}
@@ -0,0 +1,314 @@
+package com.google.android.gms.samples.vision.ocrreader.text;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Puts recognized blocks in reading order and pairs labels such as "Total" with their values.<p>
+ *
+ * Reading order comes from two sorted sweeps: blocks sorted by top are swept into bands of
+ * vertically overlapping blocks, and each band's blocks sorted by left into columns of
+ * horizontally overlapping ones.  Bands are read top to bottom, the columns of a band left to
+ * right and each column top to bottom, so a full-width heading is read before the two columns
+ * under it.<p>
+ *
+ * Fields are found on lines.  Lines sorted by their vertical center are swept into rows; a line
+ * starting with one of the configured labels takes its value from the rest of the line
+ * ("Total: 12.50"), otherwise from the next line to its right in the same row, otherwise from
+ * the first line under it in the next row.  Labels are matched case-insensitively and as whole
+ * words, longest first, so "Grand total" wins over "Total".<p>
+ *
+ * Immutable once built; safe to share with the detector thread.
+ */
+public class LayoutAnalyzer {
+    // Characters between a label and its value on the same line, such as leader dots.  A dash
+    // only counts when it stands on its own, so negative amounts keep their sign.
+    private static final String SEPARATORS = ":=.#";
+
+    /**
+     * A recognized line with its position in the full upright frame.
+     */
+    public static class Line {
+        final String mText;
+        final RectF mBox;
+
+        public Line(String text, RectF box) {
+            mText = text;
+            mBox = box;
+        }
+    }
+
+    /**
+     * A label found with its value.
+     */
+    public static class Field {
+        private final String mName;
+        private final String mLabel;
+        private final String mValue;
+        private final RectF mValueBox;
+
+        Field(String name, String label, String value, RectF valueBox) {
+            mName = name;
+            mLabel = label;
+            mValue = value;
+            mValueBox = valueBox;
+        }
+
+        /**
+         * Name of the field, as configured.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * The label as it was read.
+         */
+        public String getLabel() {
+            return mLabel;
+        }
+
+        public String getValue() {
+            return mValue;
+        }
+
+        /**
+         * Bounds of the line the value was read from.
+         */
+        public RectF getValueBox() {
+            return mValueBox;
+        }
+    }
+
+    private static class Label {
+        final String mName;
+        final String mText;
+
+        Label(String name, String text) {
+            mName = name;
+            mText = text;
+        }
+    }
+
+    private final List<Label> mLabels = new ArrayList<>();
+
+    /**
+     * @param labels for every field name, the labels it may be printed with
+     * @throws IllegalArgumentException if a label is empty
+     */
+    public LayoutAnalyzer(Map<String, List<String>> labels) {
+        for (Map.Entry<String, List<String>> entry : labels.entrySet()) {
+            for (String label : entry.getValue()) {
+                String text = collapse(label);
+                if (text.isEmpty()) {
+                    throw new IllegalArgumentException("Empty label for field " + entry.getKey());
+                }
+                mLabels.add(new Label(entry.getKey(), text));
+            }
+        }
+        Collections.sort(mLabels, new Comparator<Label>() {
+            @Override
+            public int compare(Label a, Label b) {
+                return b.mText.length() - a.mText.length();
+            }
+        });
+    }
+
+    /**
+     * Returns the indices of the boxes in reading order.
+     */
+    public static List<Integer> readingOrder(final List<RectF> boxes) {
+        Integer[] byTop = indices(boxes.size());
+        Arrays.sort(byTop, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(boxes.get(a).top, boxes.get(b).top);
+            }
+        });
+
+        List<Integer> order = new ArrayList<>(boxes.size());
+        int start = 0;
+        while (start < byTop.length) {
+            int end = start + 1;
+            float bottom = boxes.get(byTop[start]).bottom;
+            while (end < byTop.length && boxes.get(byTop[end]).top < bottom) {
+                bottom = Math.max(bottom, boxes.get(byTop[end]).bottom);
+                ++end;
+            }
+            addBand(boxes, Arrays.copyOfRange(byTop, start, end), order);
+            start = end;
+        }
+        return order;
+    }
+
+    /**
+     * Returns the fields found on the lines, in reading order of their labels.  A field that
+     * appears more than once is returned every time.
+     */
+    public List<Field> findFields(List<Line> lines) {
+        List<List<Line>> rows = toRows(lines);
+        List<Field> fields = new ArrayList<>();
+        for (int row = 0; row < rows.size(); ++row) {
+            List<Line> current = rows.get(row);
+            for (int i = 0; i < current.size(); ++i) {
+                Line line = current.get(i);
+                String text = collapse(line.mText);
+                Label label = matchLabel(text);
+                if (label == null) {
+                    continue;
+                }
+
+                String labelText = text.substring(0, label.mText.length());
+                String rest = strip(text.substring(label.mText.length()));
+                if (!rest.isEmpty()) {
+                    fields.add(new Field(label.mName, labelText, rest, line.mBox));
+                    continue;
+                }
+
+                Line value = i + 1 < current.size() ? current.get(i + 1) : null;
+                if (value == null || matchLabel(collapse(value.mText)) != null) {
+                    value = row + 1 < rows.size() ? findBelow(line, rows.get(row + 1)) : null;
+                }
+                if (value != null) {
+                    fields.add(new Field(label.mName, labelText, strip(collapse(value.mText)),
+                            value.mBox));
+                }
+            }
+        }
+        return fields;
+    }
+
+    private static void addBand(final List<RectF> boxes, Integer[] band, List<Integer> order) {
+        Arrays.sort(band, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(boxes.get(a).left, boxes.get(b).left);
+            }
+        });
+
+        Comparator<Integer> byTop = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(boxes.get(a).top, boxes.get(b).top);
+            }
+        };
+        int start = 0;
+        while (start < band.length) {
+            int end = start + 1;
+            float right = boxes.get(band[start]).right;
+            while (end < band.length && boxes.get(band[end]).left < right) {
+                right = Math.max(right, boxes.get(band[end]).right);
+                ++end;
+            }
+            Integer[] column = Arrays.copyOfRange(band, start, end);
+            Arrays.sort(column, byTop);
+            order.addAll(Arrays.asList(column));
+            start = end;
+        }
+    }
+
+    /**
+     * Groups lines into rows of lines whose centers lie within the first line's height, each row
+     * sorted left to right.
+     */
+    private static List<List<Line>> toRows(List<Line> lines) {
+        List<Line> sorted = new ArrayList<>(lines);
+        Collections.sort(sorted, new Comparator<Line>() {
+            @Override
+            public int compare(Line a, Line b) {
+                return Float.compare(a.mBox.centerY(), b.mBox.centerY());
+            }
+        });
+        Comparator<Line> byLeft = new Comparator<Line>() {
+            @Override
+            public int compare(Line a, Line b) {
+                return Float.compare(a.mBox.left, b.mBox.left);
+            }
+        };
+
+        List<List<Line>> rows = new ArrayList<>();
+        List<Line> row = null;
+        RectF first = null;
+        for (Line line : sorted) {
+            if (row == null || line.mBox.centerY() - first.centerY() > first.height() / 2) {
+                if (row != null) {
+                    Collections.sort(row, byLeft);
+                }
+                row = new ArrayList<>();
+                rows.add(row);
+                first = line.mBox;
+            }
+            row.add(line);
+        }
+        if (row != null) {
+            Collections.sort(row, byLeft);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the leftmost line of the row that lies under the label, if the row is close enough
+     * to belong to it.
+     */
+    private static Line findBelow(Line label, List<Line> row) {
+        for (Line line : row) {
+            if (line.mBox.top - label.mBox.bottom > 2 * label.mBox.height()) {
+                return null;
+            }
+            if (line.mBox.left < label.mBox.right && label.mBox.left < line.mBox.right) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    private Label matchLabel(String text) {
+        for (Label label : mLabels) {
+            int length = label.mText.length();
+            if (text.regionMatches(true, 0, label.mText, 0, length)
+                    && (text.length() == length || !Character.isLetterOrDigit(text.charAt(length)))) {
+                return label;
+            }
+        }
+        return null;
+    }
+
+    private static Integer[] indices(int count) {
+        Integer[] indices = new Integer[count];
+        for (int i = 0; i < count; ++i) {
+            indices[i] = i;
+        }
+        return indices;
+    }
+
+    /**
+     * Trims and collapses runs of whitespace to single spaces.
+     */
+    private static String collapse(String text) {
+        return text.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Drops the separators a value starts with, and a trailing colon.
+     */
+    private static String strip(String text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && (Character.isWhitespace(text.charAt(start))
+                || SEPARATORS.indexOf(text.charAt(start)) >= 0
+                || (text.charAt(start) == '-'
+                        && (start + 1 == end || Character.isWhitespace(text.charAt(start + 1)))))) {
+            ++start;
+        }
+        while (end > start && (Character.isWhitespace(text.charAt(end - 1)) || text.charAt(end - 1) == ':')) {
+            --end;
+        }
+        return text.substring(start, end);
+    }
+}
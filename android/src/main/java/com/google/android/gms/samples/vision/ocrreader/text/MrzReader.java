@@ -0,0 +1,430 @@
+package com.google.android.gms.samples.vision.ocrreader.text;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads the machine-readable zone (MRZ) of passports and ID cards from successive frames.<p>
+ *
+ * Each frame's recognized lines are searched for a run of lines of the length of one of the ICAO
+ * 9303 formats (TD1: 3 x 30, TD2: 2 x 36, TD3: 2 x 44).  Characters are normalized to the MRZ
+ * alphabet, with look-alike letters and digits swapped according to what each position may hold.
+ * Every frame then votes for the character at each position, and once the per-position winners
+ * pass all of the format's check digits the read is complete.  This usually needs a handful of
+ * frames, as different frames tend to misread different characters.<p>
+ *
+ * The reader also suggests a region of interest: the band around the last MRZ it saw, so later
+ * frames can be cropped to it.  Not thread safe; use it from the detector thread only.
+ */
+public class MrzReader {
+    // Frames without an MRZ after which the region of interest is dropped again.
+    private static final int FRAMES_BEFORE_REGION_RESET = 5;
+
+    // MRZ alphabet: digits, letters and the filler.
+    private static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ<";
+
+    /**
+     * Document layouts.  Per line, a mask tells what each position holds: 'N' for digits, 'A' for
+     * letters or filler, and 'X' for either.
+     */
+    private enum Format {
+        TD1(new String[]{
+                "AAAAAXXXXXXXXXNXXXXXXXXXXXXXXX",
+                "NNNNNNNANNNNNNNAAAXXXXXXXXXXXN",
+                "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"}),
+        TD2(new String[]{
+                "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA",
+                "XXXXXXXXXNAAANNNNNNNANNNNNNNXXXXXXXN"}),
+        TD3(new String[]{
+                "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA",
+                "XXXXXXXXXNAAANNNNNNNANNNNNNNXXXXXXXXXXXXXXNN"});
+
+        final String[] mMasks;
+
+        Format(String[] masks) {
+            mMasks = masks;
+        }
+
+        int lineLength() {
+            return mMasks[0].length();
+        }
+
+        int lineCount() {
+            return mMasks.length;
+        }
+    }
+
+    /**
+     * A recognized line with its position in the full upright frame.
+     */
+    public static class Line {
+        final String mText;
+        final RectF mBox;
+
+        public Line(String text, RectF box) {
+            mText = text;
+            mBox = box;
+        }
+    }
+
+    /**
+     * A complete, check-digit-validated MRZ.
+     */
+    public static class Result {
+        private final String mFormat;
+        private final String[] mLines;
+        private final String mDocumentType;
+        private final String mIssuingCountry;
+        private final String mDocumentNumber;
+        private final String mNationality;
+        private final String mBirthDate;
+        private final String mSex;
+        private final String mExpiryDate;
+        private final String mSurname;
+        private final String mGivenNames;
+        private final String mOptionalData;
+        private final int mFrames;
+
+        Result(Format format, String[] lines, int frames) {
+            mFormat = format.name();
+            mLines = lines;
+            mFrames = frames;
+
+            String names;
+            if (format == Format.TD1) {
+                mDocumentType = trim(lines[0].substring(0, 2));
+                mIssuingCountry = trim(lines[0].substring(2, 5));
+                mDocumentNumber = trim(lines[0].substring(5, 14));
+                mOptionalData = trim(lines[0].substring(15, 30) + lines[1].substring(18, 29));
+                mBirthDate = lines[1].substring(0, 6);
+                mSex = trim(lines[1].substring(7, 8));
+                mExpiryDate = lines[1].substring(8, 14);
+                mNationality = trim(lines[1].substring(15, 18));
+                names = lines[2];
+            } else {
+                int optionalEnd = format == Format.TD3 ? 42 : 35;
+                mDocumentType = trim(lines[0].substring(0, 2));
+                mIssuingCountry = trim(lines[0].substring(2, 5));
+                mDocumentNumber = trim(lines[1].substring(0, 9));
+                mNationality = trim(lines[1].substring(10, 13));
+                mBirthDate = lines[1].substring(13, 19);
+                mSex = trim(lines[1].substring(20, 21));
+                mExpiryDate = lines[1].substring(21, 27);
+                mOptionalData = trim(lines[1].substring(28, optionalEnd));
+                names = lines[0].substring(5);
+            }
+
+            int separator = names.indexOf("<<");
+            if (separator < 0) {
+                mSurname = trim(names);
+                mGivenNames = "";
+            } else {
+                mSurname = trim(names.substring(0, separator));
+                mGivenNames = trim(names.substring(separator + 2));
+            }
+        }
+
+        public String getFormat() { return mFormat; }
+        public String[] getLines() { return mLines; }
+        public String getDocumentType() { return mDocumentType; }
+        public String getIssuingCountry() { return mIssuingCountry; }
+        public String getDocumentNumber() { return mDocumentNumber; }
+        public String getNationality() { return mNationality; }
+        /** Birth date as YYMMDD. */
+        public String getBirthDate() { return mBirthDate; }
+        public String getSex() { return mSex; }
+        /** Expiry date as YYMMDD. */
+        public String getExpiryDate() { return mExpiryDate; }
+        public String getSurname() { return mSurname; }
+        public String getGivenNames() { return mGivenNames; }
+        public String getOptionalData() { return mOptionalData; }
+        /** Number of frames that voted for this read. */
+        public int getFrameCount() { return mFrames; }
+
+        private static String trim(String field) {
+            return field.replace('<', ' ').trim().replaceAll(" +", " ");
+        }
+    }
+
+    private Format mFormat;
+    // Per line, position and alphabet character: how many frames read that character there.
+    private int[][][] mVotes;
+    private int mFrames;
+    private String mLastResult;
+
+    private RectF mRegion;
+    private int mFramesWithoutMrz;
+
+    /**
+     * Adds the lines recognized in one frame.  Returns the result once all check digits of the
+     * voted MRZ pass, or null while more frames are needed.  A result is returned only once, until
+     * a different document is read.
+     *
+     * @param frameWidth  width of the upright frame the line boxes are relative to
+     * @param frameHeight height of the upright frame the line boxes are relative to
+     */
+    public Result addFrame(List<Line> lines, int frameWidth, int frameHeight) {
+        List<Line> mrz = findMrzLines(lines);
+        if (mrz == null) {
+            if (++mFramesWithoutMrz >= FRAMES_BEFORE_REGION_RESET) {
+                mRegion = null;
+                reset();
+                mLastResult = null;
+            }
+            return null;
+        }
+        mFramesWithoutMrz = 0;
+        updateRegion(mrz, frameWidth, frameHeight);
+
+        Format format = formatOf(mrz.get(0).mText.length());
+        if (format != mFormat) {
+            reset();
+            mFormat = format;
+            mVotes = new int[format.lineCount()][format.lineLength()][ALPHABET.length()];
+        }
+
+        for (int i = 0; i < mrz.size(); ++i) {
+            String text = normalize(mrz.get(i).mText, format.mMasks[i]);
+            for (int k = 0; k < text.length(); ++k) {
+                mVotes[i][k][ALPHABET.indexOf(text.charAt(k))]++;
+            }
+        }
+        mFrames++;
+
+        String[] voted = new String[format.lineCount()];
+        for (int i = 0; i < voted.length; ++i) {
+            voted[i] = winners(mVotes[i]);
+        }
+        if (!isValid(format, voted)) {
+            return null;
+        }
+
+        // Done: start over for the next document, but don't report this one again.
+        String key = format.name() + voted[0] + voted[voted.length - 1];
+        Result result = key.equals(mLastResult) ? null : new Result(format, voted, mFrames);
+        mLastResult = key;
+        reset();
+        return result;
+    }
+
+    /**
+     * Returns the suggested region of interest, as fractions of the upright frame, or null to scan
+     * the whole frame.
+     */
+    public RectF getRegionOfInterest() {
+        return mRegion;
+    }
+
+    private void reset() {
+        mFormat = null;
+        mVotes = null;
+        mFrames = 0;
+    }
+
+    /**
+     * Finds consecutive lines, top to bottom, that have the length of an MRZ format.
+     */
+    private static List<Line> findMrzLines(List<Line> lines) {
+        List<Line> candidates = new ArrayList<>();
+        for (Line line : lines) {
+            String text = line.mText.replace(" ", "");
+            if (text.indexOf('<') >= 0 && formatOf(text.length()) != null) {
+                candidates.add(new Line(text, line.mBox));
+            }
+        }
+        Collections.sort(candidates, new Comparator<Line>() {
+            @Override
+            public int compare(Line a, Line b) {
+                return Float.compare(a.mBox.top, b.mBox.top);
+            }
+        });
+
+        for (int first = 0; first < candidates.size(); ++first) {
+            Format format = formatOf(candidates.get(first).mText.length());
+            int last = first + format.lineCount() - 1;
+            if (last >= candidates.size()) {
+                break;
+            }
+            boolean sameFormat = true;
+            for (int i = first + 1; i <= last; ++i) {
+                sameFormat &= formatOf(candidates.get(i).mText.length()) == format;
+            }
+            if (sameFormat) {
+                List<Line> mrz = new ArrayList<>(format.lineCount());
+                for (int i = first; i <= last; ++i) {
+                    Line line = candidates.get(i);
+                    mrz.add(new Line(fit(line.mText, format.lineLength()), line.mBox));
+                }
+                return mrz;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the format whose lines are about {@code length} characters long.  A character or two
+     * is often lost or doubled among the fillers.
+     */
+    private static Format formatOf(int length) {
+        for (Format format : Format.values()) {
+            if (Math.abs(length - format.lineLength()) <= 2) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pads with fillers or cuts off the end, which is where lines are mostly fillers.
+     */
+    private static String fit(String text, int length) {
+        if (text.length() >= length) {
+            return text.substring(0, length);
+        }
+        StringBuilder padded = new StringBuilder(text);
+        while (padded.length() < length) {
+            padded.append('<');
+        }
+        return padded.toString();
+    }
+
+    /**
+     * Maps every character into the MRZ alphabet, resolving look-alikes by position type.
+     */
+    static String normalize(String text, String mask) {
+        StringBuilder out = new StringBuilder(text.length());
+        for (int k = 0; k < text.length(); ++k) {
+            char c = Character.toUpperCase(text.charAt(k));
+            char type = k < mask.length() ? mask.charAt(k) : 'X';
+            if (type == 'N') {
+                c = toDigit(c);
+            } else if (type == 'A') {
+                c = toLetter(c);
+            }
+            if (ALPHABET.indexOf(c) < 0) {
+                // Guillemets, K-like fillers and other noise are usually misread fillers.
+                c = '<';
+            }
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    private static char toDigit(char c) {
+        switch (c) {
+            case 'O': case 'D': case 'Q': return '0';
+            case 'I': case 'L': return '1';
+            case 'Z': return '2';
+            case 'S': return '5';
+            case 'G': return '6';
+            case 'T': return '7';
+            case 'B': return '8';
+            default: return c;
+        }
+    }
+
+    private static char toLetter(char c) {
+        switch (c) {
+            case '0': return 'O';
+            case '1': return 'I';
+            case '2': return 'Z';
+            case '5': return 'S';
+            case '6': return 'G';
+            case '8': return 'B';
+            default: return c;
+        }
+    }
+
+    private static String winners(int[][] votes) {
+        StringBuilder line = new StringBuilder(votes.length);
+        for (int[] position : votes) {
+            int best = ALPHABET.length() - 1;
+            for (int c = 0; c < position.length; ++c) {
+                if (position[c] > position[best]) {
+                    best = c;
+                }
+            }
+            line.append(ALPHABET.charAt(best));
+        }
+        return line.toString();
+    }
+
+    private static boolean isValid(Format format, String[] lines) {
+        if (format == Format.TD1) {
+            String l1 = lines[0];
+            String l2 = lines[1];
+            return checks(l1, 5, 14, l1.charAt(14))
+                    && checks(l2, 0, 6, l2.charAt(6))
+                    && checks(l2, 8, 14, l2.charAt(14))
+                    && checks(l1.substring(5, 30) + l2.substring(0, 7) + l2.substring(8, 15)
+                    + l2.substring(18, 29), l2.charAt(29));
+        }
+
+        String l2 = lines[1];
+        int end = l2.length() - 1;
+        boolean valid = checks(l2, 0, 9, l2.charAt(9))
+                && checks(l2, 13, 19, l2.charAt(19))
+                && checks(l2, 21, 27, l2.charAt(27));
+        if (format == Format.TD3) {
+            // An empty personal number may carry a filler instead of a check digit.
+            char personal = l2.charAt(42);
+            valid &= checks(l2, 28, 42, personal == '<' ? '0' : personal);
+            end = 43;
+        }
+        return valid && checks(l2.substring(0, 10) + l2.substring(13, 20) + l2.substring(21, end),
+                l2.charAt(end));
+    }
+
+    static boolean checks(String text, char checkDigit) {
+        return checks(text, 0, text.length(), checkDigit);
+    }
+
+    /**
+     * ICAO 9303 check digit: weights 7, 3, 1 over the characters, letters counting 10..35 and
+     * fillers 0, modulo 10.
+     */
+    static boolean checks(String text, int start, int end, char checkDigit) {
+        if (checkDigit < '0' || checkDigit > '9') {
+            return false;
+        }
+        final int[] weights = {7, 3, 1};
+        int sum = 0;
+        for (int k = start; k < end; ++k) {
+            char c = text.charAt(k);
+            int value;
+            if (c >= '0' && c <= '9') {
+                value = c - '0';
+            } else if (c >= 'A' && c <= 'Z') {
+                value = c - 'A' + 10;
+            } else {
+                value = 0;
+            }
+            sum += value * weights[(k - start) % 3];
+        }
+        return sum % 10 == checkDigit - '0';
+    }
+
+    /**
+     * Sets the region of interest to the MRZ lines' band, widened by one line height above and
+     * below so the zone stays inside it while the document moves a little.
+     */
+    private void updateRegion(List<Line> mrz, int frameWidth, int frameHeight) {
+        if (frameWidth <= 0 || frameHeight <= 0) {
+            return;
+        }
+        float top = Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        float lineHeight = 0;
+        for (Line line : mrz) {
+            top = Math.min(top, line.mBox.top);
+            bottom = Math.max(bottom, line.mBox.bottom);
+            lineHeight = Math.max(lineHeight, line.mBox.height());
+        }
+        mRegion = new RectF(0.0f, Math.max(0.0f, (top - lineHeight) / frameHeight),
+                1.0f, Math.min(1.0f, (bottom + lineHeight) / frameHeight));
+    }
+}
@@ -0,0 +1,359 @@
+package com.google.android.gms.samples.vision.ocrreader.text;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Pulls structured values (IBANs, card numbers, dates, amounts, ...) out of recognized text.<p>
+ *
+ * All rules are compiled into a single alternation with one group per rule, so every string
+ * is scanned once no matter how many rules are configured.  A candidate is only reported after its
+ * rule's validator accepts it (Luhn for card numbers, ISO 7064 mod-97 for IBANs).  If a validator
+ * rejects the leftmost candidate, the remaining rules are tried at the same position before the
+ * scan moves on, so one rule cannot hide another's match.  Rules with a validator are tried before
+ * plain ones, since a checksum makes them the more specific reading of the same digits.<p>
+ *
+ * Back references in a rule are renumbered to the rule's place in the alternation.  Named groups
+ * can't be, since their names would clash between rules, so patterns with them are rejected.<p>
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public class PatternExtractor {
+    public static final String VALIDATOR_NONE = "none";
+    public static final String VALIDATOR_LUHN = "luhn";
+    public static final String VALIDATOR_MOD97 = "mod97";
+
+    private static final Map<String, Rule> BUILT_IN_RULES = new HashMap<>();
+
+    static {
+        addBuiltIn(new Rule("IBAN",
+                "\\b[A-Z]{2}\\d{2}(?: ?[A-Z0-9]{4}){2,7}(?: ?[A-Z0-9]{1,4})?\\b", VALIDATOR_MOD97));
+        addBuiltIn(new Rule("CARD", "\\b(?:\\d[ -]?){12,18}\\d\\b", VALIDATOR_LUHN));
+        addBuiltIn(new Rule("DATE",
+                "\\b(?:\\d{4}-\\d{2}-\\d{2}|\\d{1,2}[./-]\\d{1,2}[./-](?:\\d{4}|\\d{2}))\\b",
+                VALIDATOR_NONE));
+        addBuiltIn(new Rule("AMOUNT",
+                "(?:[$\\u20AC\\u00A3\\u00A5]|\\b(?:USD|EUR|GBP|IDR|Rp)\\.?) ?\\d[\\d.,]*\\d",
+                VALIDATOR_NONE));
+        addBuiltIn(new Rule("PHONE", "\\+?\\d[\\d ()-]{6,}\\d", VALIDATOR_NONE));
+        addBuiltIn(new Rule("EMAIL", "\\b[\\w.+-]+@[\\w-]+(?:\\.[\\w-]+)+\\b", VALIDATOR_NONE));
+    }
+
+    /**
+     * A named pattern and the validator its candidates must pass.
+     */
+    public static class Rule {
+        private final String mName;
+        private final String mRegex;
+        private final String mValidator;
+
+        public Rule(String name, String regex, String validator) {
+            if (name == null || regex == null) {
+                throw new IllegalArgumentException("A rule needs a name and a pattern.");
+            }
+            if (validator == null) {
+                validator = VALIDATOR_NONE;
+            }
+            if (!validator.equals(VALIDATOR_NONE) && !validator.equals(VALIDATOR_LUHN)
+                    && !validator.equals(VALIDATOR_MOD97)) {
+                throw new IllegalArgumentException("Unknown validator: " + validator);
+            }
+            mName = name;
+            mRegex = regex;
+            mValidator = validator;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
+    /**
+     * A validated value found in a piece of text.
+     */
+    public static class Match {
+        private final String mName;
+        private final String mValue;
+        private final int mStart;
+        private final int mEnd;
+
+        Match(String name, String value, int start, int end) {
+            mName = name;
+            mValue = value;
+            mStart = start;
+            mEnd = end;
+        }
+
+        /** Name of the rule that matched. */
+        public String getName() {
+            return mName;
+        }
+
+        /** The matched text as it was recognized. */
+        public String getValue() {
+            return mValue;
+        }
+
+        public int getStart() {
+            return mStart;
+        }
+
+        public int getEnd() {
+            return mEnd;
+        }
+    }
+
+    private final Rule[] mRules;
+    private final Pattern[] mRulePatterns;
+    private final int[] mRuleGroups;
+    private final Pattern mCombined;
+
+    private PatternExtractor(List<Rule> rules) {
+        List<Rule> ordered = new ArrayList<>(rules.size());
+        for (Rule rule : rules) {
+            if (!rule.mValidator.equals(VALIDATOR_NONE)) {
+                ordered.add(rule);
+            }
+        }
+        for (Rule rule : rules) {
+            if (rule.mValidator.equals(VALIDATOR_NONE)) {
+                ordered.add(rule);
+            }
+        }
+        mRules = ordered.toArray(new Rule[ordered.size()]);
+        mRulePatterns = new Pattern[mRules.length];
+        mRuleGroups = new int[mRules.length];
+
+        // Named groups are only available from API 26, so each rule gets a plain group and we
+        // remember its number, skipping over any groups inside the rules before it.
+        StringBuilder combined = new StringBuilder();
+        int group = 1;
+        for (int i = 0; i < mRules.length; ++i) {
+            // Compiling each rule on its own also reports syntax errors against the right rule.
+            mRulePatterns[i] = Pattern.compile(mRules[i].mRegex);
+            mRuleGroups[i] = group;
+            group += 1 + mRulePatterns[i].matcher("").groupCount();
+            if (i > 0) {
+                combined.append('|');
+            }
+            combined.append('(').append(renumberBackReferences(mRules[i].mRegex, mRuleGroups[i]))
+                    .append(')');
+        }
+        mCombined = Pattern.compile(combined.toString());
+    }
+
+    /**
+     * Returns the regex with each numbered back reference moved up by {@code offset} groups, for
+     * use inside the alternation where group {@code offset} wraps it.  References are read the way
+     * {@link Pattern} reads them: further digits only count while a group with that number has
+     * been opened, and the rest are literal, so every rewritten reference is enclosed in a
+     * non-capturing group to keep them apart.
+     *
+     * @throws PatternSyntaxException if the regex has named groups or named back references
+     */
+    static String renumberBackReferences(String regex, int offset) {
+        StringBuilder out = new StringBuilder(regex.length() + 16);
+        int groups = 0;
+        int classDepth = 0;
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                char next = regex.charAt(i + 1);
+                if (next == 'Q') {
+                    // Quoted up to \E, or to the end.
+                    int end = regex.indexOf("\\E", i + 2);
+                    end = end < 0 ? regex.length() : end + 2;
+                    out.append(regex, i, end);
+                    i = end;
+                } else if (next == 'k' && classDepth == 0) {
+                    throw new PatternSyntaxException(
+                            "Named back references can't be combined with other rules", regex, i);
+                } else if (next >= '1' && next <= '9' && classDepth == 0) {
+                    int reference = next - '0';
+                    int end = i + 2;
+                    while (end < regex.length() && Character.isDigit(regex.charAt(end))
+                            && reference * 10 + regex.charAt(end) - '0' <= groups) {
+                        reference = reference * 10 + regex.charAt(end) - '0';
+                        end++;
+                    }
+                    out.append("(?:\\").append(reference + offset).append(')');
+                    i = end;
+                } else {
+                    out.append(c).append(next);
+                    i += 2;
+                }
+                continue;
+            }
+
+            if (c == '[') {
+                classDepth++;
+            } else if (c == ']' && classDepth > 0) {
+                classDepth--;
+            } else if (c == '(' && classDepth == 0) {
+                if (!regex.startsWith("(?", i)) {
+                    groups++;
+                } else if (regex.startsWith("(?<", i) && i + 3 < regex.length()
+                        && Character.isLetter(regex.charAt(i + 3))) {
+                    throw new PatternSyntaxException(
+                            "Named groups can't be combined with other rules", regex, i);
+                }
+            }
+            out.append(c);
+            i++;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Compiles the supplied rules.
+     *
+     * @throws PatternSyntaxException if a rule's pattern is invalid or has named groups
+     */
+    public static PatternExtractor compile(List<Rule> rules) {
+        if (rules.isEmpty()) {
+            throw new IllegalArgumentException("No rules supplied.");
+        }
+        return new PatternExtractor(rules);
+    }
+
+    /**
+     * Returns the built-in rule with the given name (IBAN, CARD, DATE, AMOUNT, PHONE or EMAIL), or
+     * null if there is none.
+     */
+    public static Rule getBuiltInRule(String name) {
+        return BUILT_IN_RULES.get(name);
+    }
+
+    /**
+     * Returns all validated matches in the text, in order of position.
+     */
+    public List<Match> extract(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return Collections.emptyList();
+        }
+
+        List<Match> matches = new ArrayList<>();
+        Matcher matcher = mCombined.matcher(text);
+        int from = 0;
+        while (from < text.length() && matcher.find(from)) {
+            int start = matcher.start();
+            int rule = matchedRule(matcher);
+            Match match;
+            if (isValid(mRules[rule], matcher.group())) {
+                match = new Match(mRules[rule].mName, matcher.group(), start, matcher.end());
+            } else {
+                match = matchOtherRules(text, start, rule);
+            }
+
+            if (match != null) {
+                matches.add(match);
+                from = Math.max(match.mEnd, start + 1);
+            } else {
+                from = start + 1;
+            }
+        }
+        return matches;
+    }
+
+    private int matchedRule(Matcher matcher) {
+        for (int i = 0; i < mRules.length; ++i) {
+            if (matcher.start(mRuleGroups[i]) >= 0) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Combined pattern matched without a rule group.");
+    }
+
+    /**
+     * Tries every rule after {@code skipped} anchored at {@code start}, returning the first
+     * validated match.
+     */
+    private Match matchOtherRules(CharSequence text, int start, int skipped) {
+        for (int i = skipped + 1; i < mRules.length; ++i) {
+            Matcher matcher = mRulePatterns[i].matcher(text);
+            matcher.region(start, text.length());
+            if (matcher.lookingAt() && isValid(mRules[i], matcher.group())) {
+                return new Match(mRules[i].mName, matcher.group(), start, matcher.end());
+            }
+        }
+        return null;
+    }
+
+    private static boolean isValid(Rule rule, String value) {
+        switch (rule.mValidator) {
+            case VALIDATOR_LUHN:
+                return isLuhnValid(value);
+            case VALIDATOR_MOD97:
+                return isMod97Valid(value);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Luhn checksum over the digits of the value; separators are ignored.
+     */
+    static boolean isLuhnValid(String value) {
+        int sum = 0;
+        int digits = 0;
+        for (int i = value.length() - 1; i >= 0; --i) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                continue;
+            }
+            int d = c - '0';
+            if (digits % 2 == 1) {
+                d *= 2;
+                if (d > 9) {
+                    d -= 9;
+                }
+            }
+            sum += d;
+            digits++;
+        }
+        return digits > 1 && sum % 10 == 0;
+    }
+
+    /**
+     * ISO 7064 mod-97 check used by IBANs: the first four characters are moved to the end,
+     * letters become 10..35, and the resulting number must leave a remainder of 1.  Spaces are
+     * ignored.
+     */
+    static boolean isMod97Valid(String value) {
+        StringBuilder compact = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c != ' ') {
+                compact.append(Character.toUpperCase(c));
+            }
+        }
+        if (compact.length() < 5) {
+            return false;
+        }
+
+        String rearranged = compact.substring(4) + compact.substring(0, 4);
+        int remainder = 0;
+        for (int i = 0; i < rearranged.length(); ++i) {
+            char c = rearranged.charAt(i);
+            if (c >= '0' && c <= '9') {
+                remainder = (remainder * 10 + (c - '0')) % 97;
+            } else if (c >= 'A' && c <= 'Z') {
+                remainder = (remainder * 100 + (c - 'A' + 10)) % 97;
+            } else {
+                return false;
+            }
+        }
+        return remainder == 1;
+    }
+
+    private static void addBuiltIn(Rule rule) {
+        BUILT_IN_RULES.put(rule.mName, rule);
+    }
+}
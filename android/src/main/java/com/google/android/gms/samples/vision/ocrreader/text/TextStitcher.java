@@ -0,0 +1,422 @@
+package com.google.android.gms.samples.vision.ocrreader.text;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stitches the lines of successive frames into one transcript while the camera pans over a
+ * document too long to fit in a frame.<p>
+ *
+ * Lines are placed on a virtual canvas that grows as the document is panned.  For each frame the
+ * translation from frame to canvas is estimated from lines that were already placed: every pair of
+ * a frame line and a canvas line near where it is expected that read the same votes for the
+ * translation that would put one on the other, and the largest group of agreeing votes wins, so a
+ * repeated line such as a "1 x" quantity can't drag the frame somewhere else.  Lines placed on top
+ * of a canvas line with the same text are taken to be that line seen again; a line is only reported
+ * once it has been seen in a couple of frames, so single-frame misreadings don't end up in the
+ * transcript.  Frames with no line in common with the canvas can't be placed and are skipped.<p>
+ *
+ * Only the part of the canvas around the camera is kept: lines more than a couple of frames away
+ * from the last placed frame are dropped, so a long document doesn't grow the canvas without
+ * bound.  Of the reported ones, only the text and the coarse cells of the canvas they covered are
+ * remembered, so panning back that far doesn't report them again.<p>
+ *
+ * Not thread safe; use it from the detector thread only.
+ */
+public class TextStitcher {
+    // Frames a line must be seen in before it is reported.
+    private static final int MIN_SIGHTINGS = 2;
+
+    // Lines shorter than this (without whitespace) are too common to estimate the translation on.
+    private static final int MIN_ANCHOR_LENGTH = 4;
+
+    // Minimum similarity, 1 - (edits / length of the longer text), of two readings of a line.
+    // Edits to digits count double: receipt lines often differ only in their amounts.
+    private static final float MIN_SIMILARITY = 0.8f;
+
+    // Frames' worth of canvas kept on each side of the last placed frame.  Only lines within a
+    // frame of it are matched against.
+    private static final int KEEP_FRAMES = 2;
+
+    // Side, in canvas pixels, of the cells dropped lines that were reported are remembered in.
+    // Coarse, since a line's position drifts between visits with the errors of the translation.
+    private static final float REPORTED_CELL_SIZE = 48;
+
+    /**
+     * A recognized line with its position in the full upright frame.
+     */
+    public static class Line {
+        final String mText;
+        final RectF mBox;
+
+        public Line(String text, RectF box) {
+            mText = text;
+            mBox = box;
+        }
+    }
+
+    /**
+     * A line on the canvas.
+     */
+    private static class Placed {
+        String mText;
+        char[] mKey;
+        final RectF mBox;
+        int mSightings;
+        boolean mReported;
+        // Whether the line is remembered as reported already, so trimming needn't record it.
+        boolean mRemembered;
+
+        Placed(String text, char[] key, RectF box) {
+            mText = text;
+            mKey = key;
+            mBox = box;
+        }
+    }
+
+    private final List<Placed> mCanvas = new ArrayList<>();
+
+    // Keys of the reported lines dropped from the canvas, by the cells they covered: the row of
+    // the line's center, and every column it spanned.
+    private final Map<Long, List<char[]>> mReportedCells = new HashMap<>();
+
+    // Position of the last placed frame's top-left corner on the canvas.
+    private float mOffsetX;
+    private float mOffsetY;
+
+    /**
+     * Adds one frame's lines and returns the lines seen for the first time, in reading order, or an
+     * empty list if there are none or the frame could not be placed.
+     *
+     * @param width  upright frame width
+     * @param height upright frame height
+     */
+    public List<String> addFrame(List<Line> lines, int width, int height) {
+        List<char[]> keys = new ArrayList<>(lines.size());
+        for (Line line : lines) {
+            keys.add(normalize(line.mText));
+        }
+        if (!mCanvas.isEmpty() && !estimateOffset(lines, keys, width, height)) {
+            return Collections.emptyList();
+        }
+
+        List<Placed> seen = new ArrayList<>();
+        for (int i = 0; i < lines.size(); ++i) {
+            char[] key = keys.get(i);
+            if (key.length == 0) {
+                continue;
+            }
+            RectF box = new RectF(lines.get(i).mBox);
+            box.offset(mOffsetX, mOffsetY);
+
+            Placed placed = findSameLine(key, box);
+            if (placed == null) {
+                placed = new Placed(lines.get(i).mText, key, box);
+                if (wasReported(key, box)) {
+                    // Back on a stretch that was panned past earlier.
+                    placed.mReported = true;
+                    placed.mRemembered = true;
+                }
+                mCanvas.add(placed);
+            } else if (!placed.mReported && key.length > placed.mKey.length) {
+                // A longer reading is usually one that wasn't cut off at the frame's edge.
+                placed.mText = lines.get(i).mText;
+                placed.mKey = key;
+                placed.mBox.union(box);
+            }
+            if (!seen.contains(placed)) {
+                placed.mSightings++;
+                seen.add(placed);
+            }
+        }
+
+        List<Placed> fresh = new ArrayList<>();
+        for (Placed placed : seen) {
+            if (!placed.mReported && placed.mSightings >= MIN_SIGHTINGS) {
+                placed.mReported = true;
+                fresh.add(placed);
+            }
+        }
+        trimCanvas(width, height);
+        return toText(fresh);
+    }
+
+    /**
+     * Clears the canvas, to start on a new document.
+     */
+    public void reset() {
+        mCanvas.clear();
+        mReportedCells.clear();
+        mOffsetX = 0;
+        mOffsetY = 0;
+    }
+
+    /**
+     * Drops the lines that lie entirely outside the area kept around the last placed frame.
+     */
+    private void trimCanvas(int width, int height) {
+        float left = mOffsetX - KEEP_FRAMES * width;
+        float top = mOffsetY - KEEP_FRAMES * height;
+        float right = mOffsetX + (KEEP_FRAMES + 1) * width;
+        float bottom = mOffsetY + (KEEP_FRAMES + 1) * height;
+        for (Iterator<Placed> it = mCanvas.iterator(); it.hasNext(); ) {
+            Placed placed = it.next();
+            RectF box = placed.mBox;
+            if (box.right < left || box.left > right || box.bottom < top || box.top > bottom) {
+                if (placed.mReported && !placed.mRemembered) {
+                    remember(placed.mKey, box);
+                }
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Records a reported line that is dropped from the canvas.
+     */
+    private void remember(char[] key, RectF box) {
+        int row = cell(box.centerY());
+        for (int column = cell(box.left); column <= cell(box.right); ++column) {
+            long id = cellId(column, row);
+            List<char[]> keys = mReportedCells.get(id);
+            if (keys == null) {
+                keys = new ArrayList<>(1);
+                mReportedCells.put(id, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Returns whether a line reading the same as the given one was reported and dropped near the
+     * given canvas box: in a cell it spans, or one row off.
+     */
+    private boolean wasReported(char[] key, RectF box) {
+        if (mReportedCells.isEmpty()) {
+            return false;
+        }
+        int row = cell(box.centerY());
+        for (int column = cell(box.left); column <= cell(box.right); ++column) {
+            for (int r = row - 1; r <= row + 1; ++r) {
+                List<char[]> keys = mReportedCells.get(cellId(column, r));
+                if (keys == null) {
+                    continue;
+                }
+                for (char[] reported : keys) {
+                    if (similarity(key, reported) >= MIN_SIMILARITY
+                            || containment(key, reported) >= MIN_SIMILARITY) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int cell(float position) {
+        return (int) Math.floor(position / REPORTED_CELL_SIZE);
+    }
+
+    private static long cellId(int column, int row) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    }
+
+    /**
+     * Moves the frame's position on the canvas to where most of its lines match placed ones.
+     * Returns false if no line matched.
+     */
+    private boolean estimateOffset(List<Line> lines, List<char[]> keys, int width, int height) {
+        List<float[]> votes = new ArrayList<>();
+        for (int i = 0; i < lines.size(); ++i) {
+            if (keys.get(i).length < MIN_ANCHOR_LENGTH) {
+                continue;
+            }
+            RectF box = lines.get(i).mBox;
+            for (Placed placed : mCanvas) {
+                float dx = placed.mBox.centerX() - box.centerX();
+                float dy = placed.mBox.centerY() - box.centerY();
+                // The camera can't have moved by more than a frame since the last placed one.
+                if (Math.abs(dx - mOffsetX) > width || Math.abs(dy - mOffsetY) > height) {
+                    continue;
+                }
+                if (similarity(keys.get(i), placed.mKey) >= MIN_SIMILARITY) {
+                    votes.add(new float[]{dx, dy, Math.max(1, box.height() / 2)});
+                }
+            }
+        }
+        if (votes.isEmpty()) {
+            return false;
+        }
+
+        int bestSupport = 0;
+        float bestX = 0;
+        float bestY = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (float[] vote : votes) {
+            int support = 0;
+            float sumX = 0;
+            float sumY = 0;
+            for (float[] other : votes) {
+                if (Math.abs(other[0] - vote[0]) <= vote[2] && Math.abs(other[1] - vote[1]) <= vote[2]) {
+                    support++;
+                    sumX += other[0];
+                    sumY += other[1];
+                }
+            }
+            float x = sumX / support;
+            float y = sumY / support;
+            float distance = Math.abs(x - mOffsetX) + Math.abs(y - mOffsetY);
+            if (support > bestSupport || (support == bestSupport && distance < bestDistance)) {
+                bestSupport = support;
+                bestX = x;
+                bestY = y;
+                bestDistance = distance;
+            }
+        }
+        mOffsetX = bestX;
+        mOffsetY = bestY;
+        return true;
+    }
+
+    /**
+     * Returns the canvas line that the given canvas box overlaps and that reads the same, or
+     * contains the other's text when one was cut off at the frame's edge, or null.
+     */
+    private Placed findSameLine(char[] key, RectF box) {
+        for (Placed placed : mCanvas) {
+            float overlapX = Math.min(box.right, placed.mBox.right) - Math.max(box.left, placed.mBox.left);
+            float overlapY = Math.min(box.bottom, placed.mBox.bottom) - Math.max(box.top, placed.mBox.top);
+            if (overlapX <= 0 || overlapY < Math.min(box.height(), placed.mBox.height()) / 2) {
+                continue;
+            }
+            if (similarity(key, placed.mKey) >= MIN_SIMILARITY
+                    || containment(key, placed.mKey) >= MIN_SIMILARITY) {
+                return placed;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> toText(List<Placed> placed) {
+        Collections.sort(placed, new Comparator<Placed>() {
+            @Override
+            public int compare(Placed a, Placed b) {
+                // Lines whose centers lie within each other's height are on the same row.
+                if (Math.abs(a.mBox.centerY() - b.mBox.centerY())
+                        < Math.min(a.mBox.height(), b.mBox.height()) / 2) {
+                    return Float.compare(a.mBox.left, b.mBox.left);
+                }
+                return Float.compare(a.mBox.top, b.mBox.top);
+            }
+        });
+        List<String> text = new ArrayList<>(placed.size());
+        for (Placed line : placed) {
+            text.add(line.mText);
+        }
+        return text;
+    }
+
+    /**
+     * 1 - (edit distance of the two texts) / length of the longer one, with edits to digits counting
+     * double.
+     */
+    static float similarity(char[] a, char[] b) {
+        int longer = Math.max(a.length, b.length);
+        if (longer == 0) {
+            return 1;
+        }
+        if (Math.abs(a.length - b.length) > (1 - MIN_SIMILARITY) * longer) {
+            // Too different in length to be similar enough; skip the alignment.
+            return 0;
+        }
+
+        int[] previous = new int[b.length + 1];
+        int[] current = new int[b.length + 1];
+        for (int j = 1; j <= b.length; ++j) {
+            previous[j] = previous[j - 1] + cost(b[j - 1]);
+        }
+        for (int i = 1; i <= a.length; ++i) {
+            current[0] = previous[0] + cost(a[i - 1]);
+            for (int j = 1; j <= b.length; ++j) {
+                current[j] = Math.min(Math.min(current[j - 1] + cost(b[j - 1]),
+                        previous[j] + cost(a[i - 1])), previous[j - 1] + cost(a[i - 1], b[j - 1]));
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return 1 - (float) previous[b.length] / longer;
+    }
+
+    /**
+     * 1 - (edit distance of the shorter text to the closest part of the longer one) / length of
+     * the shorter one, with edits to digits counting double; 0 if the shorter one is too short to
+     * tell.
+     */
+    static float containment(char[] a, char[] b) {
+        char[] query = a.length <= b.length ? a : b;
+        char[] text = a.length <= b.length ? b : a;
+        if (query.length < MIN_ANCHOR_LENGTH) {
+            return 0;
+        }
+
+        // Semi-global alignment: skipping characters at either end of the longer text is free.
+        int[] previous = new int[query.length + 1];
+        int[] current = new int[query.length + 1];
+        for (int i = 1; i <= query.length; ++i) {
+            previous[i] = previous[i - 1] + cost(query[i - 1]);
+        }
+        int best = previous[query.length];
+        for (char c : text) {
+            current[0] = 0;
+            for (int i = 1; i <= query.length; ++i) {
+                current[i] = Math.min(Math.min(current[i - 1] + cost(query[i - 1]),
+                        previous[i] + cost(c)), previous[i - 1] + cost(query[i - 1], c));
+            }
+            best = Math.min(best, current[query.length]);
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return 1 - (float) best / query.length;
+    }
+
+    /**
+     * Cost of inserting or deleting a character.
+     */
+    private static int cost(char c) {
+        return Character.isDigit(c) ? 2 : 1;
+    }
+
+    /**
+     * Cost of substituting one character for another.  Letters and digits that look alike are
+     * often mistaken for each other, so only swapping one digit for another costs double.
+     */
+    private static int cost(char a, char b) {
+        if (a == b) {
+            return 0;
+        }
+        return Character.isDigit(a) && Character.isDigit(b) ? 2 : 1;
+    }
+
+    /**
+     * Drops whitespace and case, which differ between readings of the same line.
+     */
+    private static char[] normalize(String text) {
+        StringBuilder key = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                key.append(Character.toLowerCase(c));
+            }
+        }
+        return key.toString().toCharArray();
+    }
+}
@@ -0,0 +1,67 @@
+package com.google.android.gms.samples.vision.ocrreader.ui;
+
+import android.graphics.RectF;
+import android.support.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * Describes recognized blocks for JS the way live scanning does: the block texts under "data",
+ * and every block as {text, bounds} under "blocks".  Blocks without text are left out.
+ */
+public class BlockSerializer {
+    /**
+     * Turns a block's box, in pixels of the recognized image, into the {x, y, width, height}
+     * reported for it.
+     */
+    public interface BoundsWriter {
+        WritableMap write(RectF box);
+    }
+
+    /**
+     * Reports boxes as they are, in pixels of the recognized image.
+     */
+    public static final BoundsWriter PIXELS = new BoundsWriter() {
+        @Override
+        public WritableMap write(RectF box) {
+            WritableMap bounds = Arguments.createMap();
+            bounds.putDouble("x", box.left);
+            bounds.putDouble("y", box.top);
+            bounds.putDouble("width", box.width());
+            bounds.putDouble("height", box.height());
+            return bounds;
+        }
+    };
+
+    private final BoundsWriter mBoundsWriter;
+    private final WritableArray mData = Arguments.createArray();
+    private final WritableArray mBlocks = Arguments.createArray();
+
+    public BlockSerializer(BoundsWriter boundsWriter) {
+        mBoundsWriter = boundsWriter;
+    }
+
+    public void add(@Nullable String text, RectF box) {
+        if (text == null) {
+            return;
+        }
+        mData.pushString(text);
+
+        WritableMap entry = Arguments.createMap();
+        entry.putString("text", text);
+        entry.putMap("bounds", mBoundsWriter.write(box));
+        mBlocks.pushMap(entry);
+    }
+
+    /**
+     * Returns {data, blocks} with the blocks added so far.  Call it once.
+     */
+    public WritableMap toMap() {
+        WritableMap map = Arguments.createMap();
+        map.putArray("data", mData);
+        map.putArray("blocks", mBlocks);
+        return map;
+    }
+}
@@ -40,10 +40,27 @@ public class OcrGraphic extends GraphicOverlay.Graphic {
     private static Paint sTextPaint;
     private final TextBlock mText;
 
+    // Preview-space bounds, copied once so hit-testing and drawing don't allocate per call.
+    private final RectF mBounds;
+    private final RectF mDrawRect = new RectF();
+
+    // Where the frame the block was recognized in sits in the full preview frame, for blocks
+    // recognized in a cropped region of interest.
+    private final float mOffsetX;
+    private final float mOffsetY;
+
     OcrGraphic(GraphicOverlay overlay, TextBlock text) {
+        this(overlay, text, 0, 0);
+    }
+
+    OcrGraphic(GraphicOverlay overlay, TextBlock text, float offsetX, float offsetY) {
         super(overlay);
 
         mText = text;
+        mOffsetX = offsetX;
+        mOffsetY = offsetY;
+        mBounds = text != null ? new RectF(text.getBoundingBox()) : new RectF();
+        mBounds.offset(offsetX, offsetY);
 
         if (sRectPaint == null) {
             sRectPaint = new Paint();
@@ -84,12 +101,21 @@ public class OcrGraphic extends GraphicOverlay.Graphic {
         if (mText == null) {
             return false;
         }
-        RectF rect = new RectF(mText.getBoundingBox());
-        rect.left = translateX(rect.left);
-        rect.top = translateY(rect.top);
-        rect.right = translateX(rect.right);
-        rect.bottom = translateY(rect.bottom);
-        return (rect.left < x && rect.right > x && rect.top < y && rect.bottom > y);
+        // Translating may mirror the box, so order the edges before comparing.
+        float left = translateX(mBounds.left);
+        float right = translateX(mBounds.right);
+        float top = translateY(mBounds.top);
+        float bottom = translateY(mBounds.bottom);
+        return (Math.min(left, right) < x && Math.max(left, right) > x && top < y && bottom > y);
+    }
+
+    /**
+     * Returns the bounding box of the text block in the preview's coordinate system, or null if
+     * there is no text block.
+     */
+    @Override
+    public RectF getBoundingBox() {
+        return mText != null ? mBounds : null;
     }
 
     /**
@@ -102,18 +128,17 @@ public class OcrGraphic extends GraphicOverlay.Graphic {
         }
 
         // Draws the bounding box around the TextBlock.
-        RectF rect = new RectF(mText.getBoundingBox());
-        rect.left = translateX(rect.left);
-        rect.top = translateY(rect.top);
-        rect.right = translateX(rect.right);
-        rect.bottom = translateY(rect.bottom);
-        canvas.drawRect(rect, sRectPaint);
+        mDrawRect.left = translateX(mBounds.left);
+        mDrawRect.top = translateY(mBounds.top);
+        mDrawRect.right = translateX(mBounds.right);
+        mDrawRect.bottom = translateY(mBounds.bottom);
+        canvas.drawRect(mDrawRect, sRectPaint);
 
         // Break the text into multiple lines and draw each one according to its own bounding box.
         List<? extends Text> textComponents = mText.getComponents();
         for(Text currentText : textComponents) {
-            float left = translateX(currentText.getBoundingBox().left);
-            float bottom = translateY(currentText.getBoundingBox().bottom);
+            float left = translateX(currentText.getBoundingBox().left + mOffsetX);
+            float bottom = translateY(currentText.getBoundingBox().bottom + mOffsetY);
             canvas.drawText(currentText.getValue(), left, bottom, sTextPaint);
         }
     }
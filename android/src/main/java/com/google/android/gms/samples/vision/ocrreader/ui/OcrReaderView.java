@@ -2,12 +2,20 @@ package com.google.android.gms.samples.vision.ocrreader.ui;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.graphics.PointF;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.hardware.Camera;
+import android.os.Build;
+import android.os.SystemClock;
 import android.speech.tts.TextToSpeech;
+import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AlertDialog;
 import android.util.AttributeSet;
@@ -16,32 +24,73 @@ import android.util.SparseArray;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
+import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 
+import com.facebook.react.bridge.JSApplicationIllegalArgumentException;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.ReadableType;
 import com.facebook.react.bridge.WritableArray;
+import com.google.android.gms.samples.vision.ocrreader.camera.AutoZoomController;
+import com.google.android.gms.samples.vision.ocrreader.camera.CameraCalibration;
 import com.google.android.gms.samples.vision.ocrreader.camera.CameraSource;
 import com.google.android.gms.samples.vision.ocrreader.camera.CameraSourcePreview;
+import com.google.android.gms.samples.vision.ocrreader.camera.CoarseToFineDetector;
+import com.google.android.gms.samples.vision.ocrreader.camera.FocusGateDetector;
 import com.google.android.gms.samples.vision.ocrreader.camera.GraphicOverlay;
+import com.google.android.gms.samples.vision.ocrreader.camera.IncrementalDetector;
+import com.google.android.gms.samples.vision.ocrreader.camera.MotionMonitor;
+import com.google.android.gms.samples.vision.ocrreader.camera.PreviewSizeSelector;
+import com.google.android.gms.samples.vision.ocrreader.camera.RegionDetector;
+import com.google.android.gms.samples.vision.ocrreader.camera.TextPresenceDetector;
+import com.google.android.gms.samples.vision.ocrreader.image.ImageRecognizer;
+import com.google.android.gms.samples.vision.ocrreader.text.CatalogueIndex;
+import com.google.android.gms.samples.vision.ocrreader.text.LayoutAnalyzer;
+import com.google.android.gms.samples.vision.ocrreader.text.MrzReader;
+import com.google.android.gms.samples.vision.ocrreader.text.PatternExtractor;
+import com.google.android.gms.samples.vision.ocrreader.text.TextStitcher;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.uimanager.PixelUtil;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.text.Text;
 import com.google.android.gms.vision.text.TextBlock;
 import com.google.android.gms.vision.text.TextRecognizer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.PatternSyntaxException;
 
-public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCallback, Detector.Processor<TextBlock> {
+public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCallback {
 
     private final static String TAG = "OCR_READER_VIEW";
     private final Context mContext;
     private boolean hasAllCapabilities = false; // barcode scanner library and newest play services
 
     private static final String TEXT_READ = "text_read";
+    private static final String TEXT_EXTRACTED = "text_extracted";
+    private static final String CATALOGUE_MATCH = "catalogue_match";
+    private static final String CATALOGUE_ERROR = "catalogue_error";
+    private static final String MRZ_READ = "mrz_read";
+    private static final String TEXT_STITCHED = "text_stitched";
+    private static final String LAYOUT_READ = "layout_read";
+    private static final String CONFIGURATION = "configuration";
+    private static final String PROCESSING_STALLED = "processing_stalled";
+    private static final String STANDBY_CHANGED = "standby_changed";
     private static final String LOW_STORAGE_KEY = "low_storage";
     private static final String NOT_YET_OPERATIONAL = "not_yet_operational";
     private static final String NO_PLAY_SERVICES_KEY = "no_play_services";
@@ -49,16 +98,124 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
     // intent request code to handle updating play services if needed.
     private static final int RC_HANDLE_GMS = 9001;
 
+    // How often a preview size switch checks whether the picture being taken is in.
+    private static final long CAPTURE_RETRY_MILLIS = 100;
+
     // For focusing we prefer two continuous methods first, and then finally the "auto" mode which is fired on tap.
     // A device should support at least one of these for scanning to be possible at all.
     private static final String[] PREFERRED_FOCUS_MODES = {Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE, Camera.Parameters.FOCUS_MODE_AUTO, Camera.Parameters.FOCUS_MODE_FIXED};
 
     private CameraSource mCameraSource;
     private CameraSourcePreview mPreview;
-    private GraphicOverlay mGraphicOverlay;
-    private TextRecognizer textRecognizer;
+    private GraphicOverlay<OcrGraphic> mGraphicOverlay;
+    // Where the overlay sits within this view, which the preview may offset it by to crop the
+    // camera image.  Kept up to date on the UI thread as they are laid out, for the bounds
+    // reported from the detector thread.
+    private volatile int mOverlayLeft;
+    private volatile int mOverlayTop;
+    private final View.OnLayoutChangeListener mOverlayLayoutListener =
+            new View.OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                           int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                    mOverlayLeft = mPreview.getLeft() + mGraphicOverlay.getLeft();
+                    mOverlayTop = mPreview.getTop() + mGraphicOverlay.getTop();
+                }
+            };
+    // The detector chain, replaced from the watchdog's thread when it hangs.  Swapped and
+    // configured under mPipelineLock, so that no stage misses a settings change.
+    private final Object mPipelineLock = new Object();
+    private volatile TextRecognizer textRecognizer;
+    private volatile RegionDetector<TextBlock> mRegionDetector;
+    private volatile CoarseToFineDetector mCoarseToFine;
+    private volatile boolean mCoarseToFineEnabled;
+    private volatile IncrementalDetector mIncremental;
+    private volatile boolean mIncrementalEnabled;
+    private volatile TextPresenceDetector<TextBlock> mTextPresence;
+    private volatile boolean mSkipEmptyFrames;
+    private volatile FocusGateDetector<TextBlock> mFocusGate;
+    private volatile boolean mFocusGating;
+    private volatile boolean mMotionGating;
+    // Longest a frame may take in the detector before it is rebuilt, 0 for no limit.
+    private int mProcessingTimeoutMillis;
+    // Id of the frame the watchdog gave up on; its detections are ignored if they ever come.
+    private volatile int mStalledFrameId = -1;
+    // Processor of every detector chain.  A chain the watchdog replaced is released when its
+    // stuck call returns, which releases its processor too, so this one releases nothing: the
+    // view's pipeline is only torn down by release().
+    private final Detector.Processor<TextBlock> mDetectionProcessor =
+            new Detector.Processor<TextBlock>() {
+                @Override
+                public void receiveDetections(Detector.Detections<TextBlock> detections) {
+                    OcrReaderView.this.receiveDetections(detections);
+                }
+
+                @Override
+                public void release() {
+                }
+            };
+    // Non-null while motion gating is on; listens to sensors only while the camera runs.
+    private MotionMonitor mMotionMonitor;
+
+    // Capture settings, and pipeline stages on top of those turned on by their own props.  Set on
+    // the UI thread.
+    private volatile PerformanceProfile mProfile = PerformanceProfile.NONE;
+    private volatile int mFillMode = CameraSourcePreview.FILL_MODE_COVER;
+
+    // Set whenever the configuration changes; the next frame reports it to JS with the frame's
+    // actual size.
+    private volatile boolean mConfigurationChanged = true;
     private boolean mIsPaused = true;
 
+    // Why the view can't be seen, or null while it can; frame processing is on standby
+    // meanwhile.  Only touched on the UI thread, like the state it is worked out from.
+    private String mHiddenReason = "detached";
+    private long mHiddenReasonMillis = SystemClock.elapsedRealtime();
+    private boolean mAutoStandby = true;
+    private boolean mAttached;
+    private int mWindowVisibility = VISIBLE;
+    // Whether the window has had input focus since it last showed; until then, not having it
+    // doesn't mean anything covers the window.
+    private boolean mHadWindowFocus;
+    private final Rect mVisibleRect = new Rect();
+    private final VisibilityListener mVisibilityListener = new VisibilityListener();
+
+    // Set when the camera source was released to give memory back in the background; resume()
+    // creates it again.
+    private boolean mTrimmed;
+
+    // Set from the UI thread by the extractors prop, read on the detector thread.
+    private volatile PatternExtractor mExtractor;
+
+    // Set from the UI thread by the catalogue prop, read on the detector thread.
+    private volatile CatalogueIndex mCatalogue;
+    private volatile int mCatalogueMaxDistance = 1;
+
+    // Non-null while in MRZ mode.  Set from the UI thread, used on the detector thread.
+    private volatile MrzReader mMrzReader;
+
+    // Set on the UI thread, used on the detector thread.
+    private volatile TextStitcher mStitcher;
+    private volatile LayoutAnalyzer mLayout;
+    private volatile PreviewSizeSelector mPreviewSizeSelector;
+    private volatile AutoZoomController mAutoZoom;
+
+    // The running scan session, if any.  Started and ended on the UI thread, offered frames on
+    // the detector thread.
+    private volatile ScanSession mSession;
+    private Runnable mSessionTimeout;
+
+    // Where text was seen in the last frame, as fractions of the upright frame, and that frame's
+    // size.  Written on the detector thread, read when a picture is captured.
+    private volatile List<RectF> mTextRegions = new ArrayList<>();
+    private volatile int mFrameWidth;
+    private volatile int mFrameHeight;
+
+    // Recognizes captured pictures; created on first capture.  mCapturing holds the promise of
+    // the capture waiting for its picture, which is rejected if the camera stops first.
+    private ImageRecognizer mImageRecognizer;
+    private final AtomicReference<Promise> mCapturing = new AtomicReference<>();
+
     // Helper objects for detecting taps and pinches.
     private ScaleGestureDetector scaleGestureDetector;
     private GestureDetector gestureDetector;
@@ -101,6 +258,8 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
         mPreview.addView(mGraphicOverlay);
 
         addView(mPreview);
+        mPreview.addOnLayoutChangeListener(mOverlayLayoutListener);
+        mGraphicOverlay.addOnLayoutChangeListener(mOverlayLayoutListener);
 
         gestureDetector = new GestureDetector(mContext.getApplicationContext(), new OcrReaderView.CaptureGestureListener());
         scaleGestureDetector = new ScaleGestureDetector(mContext.getApplicationContext(), new OcrReaderView.ScaleListener());
@@ -127,6 +286,11 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
 
+        mAttached = true;
+        getViewTreeObserver().addOnScrollChangedListener(mVisibilityListener);
+        getViewTreeObserver().addOnGlobalLayoutListener(mVisibilityListener);
+        updateVisibility();
+
         if (!hasCameraPermission()) {
             // No camera permission. Alert user.
             AlertDialog.Builder builder = new AlertDialog.Builder(mContext);
@@ -199,18 +363,87 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
     public void resume() {
         // start the camera only if it isn't already running
         if (mIsPaused && hasNecessaryCapabilities()) {
+            if (mTrimmed && mCameraSource == null) {
+                createCameraSource();
+            }
+            mTrimmed = false;
             startCameraSource();
         }
     }
 
+    /**
+     * Gives memory back as the system asks for it, in stages by the level passed to
+     * {@link ComponentCallbacks2#onTrimMemory}: from RUNNING_MODERATE the pipeline stages drop
+     * their caches and buffers, at RUNNING_LOW one preview buffer less circulates, and at
+     * RUNNING_CRITICAL two less.  UI_HIDDEN only drops the caches, so that a quick app switch
+     * neither shrinks the buffers nor reloads the recognizer.  Once the app is in the background
+     * (BACKGROUND and up) while the reader is paused, the camera source is released along with
+     * its recognizer, and {@link #resume()} creates it again.  Returns about how many bytes were
+     * freed, not counting the recognizers.
+     */
+    public long trimMemory(int level) {
+        if (mCameraSource == null || level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND && mIsPaused) {
+            long released = mCameraSource.getPreviewBufferBytes();
+            mPreview.release();
+            mCameraSource = null;
+            mGraphicOverlay.clear();
+            mTextRegions = new ArrayList<>();
+            if (mPreviewSizeSelector != null) {
+                mPreviewSizeSelector = new PreviewSizeSelector(1);
+            }
+            if (mAutoZoom != null) {
+                mAutoZoom.onManualZoom(1);
+            }
+            mTrimmed = true;
+            return released;
+        }
+
+        long released = mCoarseToFine.trimMemory() + mIncremental.trimMemory()
+                + mRegionDetector.trimMemory();
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return released;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            released += mCameraSource.shrinkPreviewBuffers(3);
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            // In the background, the reader still running is about to be killed for memory.
+            released += mCameraSource.shrinkPreviewBuffers(2);
+        }
+        return released;
+    }
+
+    /**
+     * Releases the idle recognizers used for captures; the next capture creates them again.
+     * Returns how many were released.
+     */
+    public synchronized int releaseIdleRecognizers() {
+        return mImageRecognizer != null ? mImageRecognizer.trimMemory() : 0;
+    }
+
+    /**
+     * Whether the camera source is released after {@link #trimMemory}, until the next resume.
+     */
+    public boolean isTrimmed() {
+        return mTrimmed;
+    }
+
     /**
      * Stops the camera.
      */
     public void pause() {
+        abortCapture("The camera stopped before the picture was taken.");
         if (mPreview != null && !mIsPaused && hasNecessaryCapabilities()) {
             mPreview.stop();
             mIsPaused = true;
         }
+        if (mMotionMonitor != null) {
+            mMotionMonitor.stop();
+        }
     }
 
     /**
@@ -218,10 +451,143 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
      * rest of the processing pipeline.
      */
     public void release() {
+        abortCapture("The camera stopped before the picture was taken.");
         if (mPreview != null && hasNecessaryCapabilities()) {
             mPreview.release();
             mIsPaused = true;
         }
+        if (mMotionMonitor != null) {
+            mMotionMonitor.stop();
+        }
+        synchronized (this) {
+            if (mImageRecognizer != null) {
+                mImageRecognizer.release();
+                mImageRecognizer = null;
+            }
+        }
+    }
+
+    /**
+     * Takes a full resolution picture and recognizes the areas where the preview last showed
+     * text, at the picture's resolution, for fine print the preview is too coarse for.  Without
+     * text in the preview the whole picture is recognized, in tiles.  The preview restarts on the
+     * same camera as soon as the picture is taken.  The promise resolves with {data, blocks} like
+     * recognizeImage, with bounds in dp relative to this view, and rejects with code "10" when no
+     * picture can be taken, or the camera stops before it is.
+     */
+    public void capture(final Promise promise) {
+        if (mCameraSource == null || mIsPaused) {
+            promise.reject("10", "Attempted to capture while the camera is not running.");
+            return;
+        }
+        if (!mCapturing.compareAndSet(null, promise)) {
+            promise.reject("10", "A picture is already being captured.");
+            return;
+        }
+
+        final List<RectF> regions = padRegions(mTextRegions);
+        final int frameWidth = mFrameWidth;
+        final int frameHeight = mFrameHeight;
+        CameraSource.PictureCallback callback = new CameraSource.PictureCallback() {
+            @Override
+            public void onPictureTaken(byte[] data) {
+                if (!mCapturing.compareAndSet(promise, null)) {
+                    // Rejected already, when the camera stopped.
+                    return;
+                }
+                ImageRecognizer.Options options = new ImageRecognizer.Options()
+                        .setTileSize(ImageRecognizer.DEFAULT_TILE_SIZE);
+                getImageRecognizer().recognizeRegions(data, regions, options,
+                        new ImageRecognizer.Callback() {
+                            @Override
+                            public void onRecognized(ImageRecognizer.Result result) {
+                                promise.resolve(createCaptureResult(result, frameWidth, frameHeight));
+                            }
+
+                            @Override
+                            public void onError(Exception e) {
+                                promise.reject("10", e.getMessage(), e);
+                            }
+                        });
+            }
+        };
+
+        try {
+            if (!mCameraSource.takePicture(null, callback)) {
+                abortCapture("Attempted to capture while the camera is not running.");
+            }
+        } catch (RuntimeException e) {
+            // Camera.takePicture fails if the preview isn't running yet.
+            if (mCapturing.compareAndSet(promise, null)) {
+                promise.reject("10", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Rejects the capture waiting for its picture, if any, since the camera won't deliver it.
+     */
+    private void abortCapture(String message) {
+        Promise promise = mCapturing.getAndSet(null);
+        if (promise != null) {
+            promise.reject("10", message);
+        }
+    }
+
+    private synchronized ImageRecognizer getImageRecognizer() {
+        if (mImageRecognizer == null) {
+            mImageRecognizer = new ImageRecognizer(mContext);
+        }
+        return mImageRecognizer;
+    }
+
+    /**
+     * Grows each text region by a line height on every side, since the preview may have cut
+     * words off or missed neighbouring fine print, and joins regions that then overlap.
+     */
+    private static List<RectF> padRegions(List<RectF> regions) {
+        List<RectF> padded = new ArrayList<>(regions.size());
+        for (RectF region : regions) {
+            float margin = region.height();
+            RectF grown = new RectF(Math.max(0, region.left - margin), Math.max(0, region.top - margin),
+                    Math.min(1, region.right + margin), Math.min(1, region.bottom + margin));
+
+            boolean joined = true;
+            while (joined) {
+                joined = false;
+                for (int i = 0; i < padded.size(); ++i) {
+                    if (RectF.intersects(grown, padded.get(i))) {
+                        grown.union(padded.remove(i));
+                        joined = true;
+                        break;
+                    }
+                }
+            }
+            padded.add(grown);
+        }
+        return padded;
+    }
+
+    /**
+     * Describes a captured picture's text like live scanning does, with bounds mapped from the
+     * picture to the preview frame it was taken from (both have the same aspect ratio).
+     */
+    private WritableMap createCaptureResult(ImageRecognizer.Result result, int frameWidth,
+                                            int frameHeight) {
+        final float scaleX = frameWidth > 0 ? (float) frameWidth / result.getWidth() : 1;
+        final float scaleY = frameHeight > 0 ? (float) frameHeight / result.getHeight() : 1;
+
+        BlockSerializer blocks = new BlockSerializer(new BlockSerializer.BoundsWriter() {
+            @Override
+            public WritableMap write(RectF box) {
+                return createBoundsMap(new RectF(box.left * scaleX, box.top * scaleY,
+                        box.right * scaleX, box.bottom * scaleY));
+            }
+        });
+        for (int i = 0; i < result.getBlockCount(); ++i) {
+            blocks.add(result.getBlock(i).getValue(), result.getBounds(i));
+        }
+        return blocks.toMap();
     }
 
     /**
@@ -244,9 +610,444 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
      *   1 = camera stream will fit snugly within the view (possibly showing fat borders around)
      */
     public void setCameraFillMode(int fillMode) {
-//        if (mPreview != null) {
-//            mPreview.setFillMode(fillMode);
-//        }
+        mFillMode = fillMode;
+        if (mPreview != null) {
+            mPreview.setFillMode(fillMode);
+        }
+        mConfigurationChanged = true;
+    }
+
+    /**
+     * Set the performance profile, one of LOW_LATENCY, BALANCED or MAX_ACCURACY, or null for the
+     * defaults.  Takes effect on the running camera.  The stages a profile turns on come in
+     * addition to those turned on by their own props.  The effective configuration is sent with
+     * the next frame.
+     *
+     * @throws JSApplicationIllegalArgumentException if there is no such profile
+     */
+    public void setPerformanceProfile(@Nullable String name) {
+        PerformanceProfile profile;
+        try {
+            profile = resolveProfile(name);
+        } catch (IllegalArgumentException e) {
+            throw new JSApplicationIllegalArgumentException(e.getMessage(), e);
+        }
+        if (profile == mProfile) {
+            return;
+        }
+
+        mProfile = profile;
+        updatePipeline();
+        if (mCameraSource != null) {
+            mCameraSource.setPreviewFps(profile.getFps());
+            if (mPreviewSizeSelector == null) {
+                abortCapture("The preview size changed before the picture was taken.");
+                mPreview.setPreviewSize(profile.getPreviewWidth(), profile.getPreviewHeight());
+            }
+        }
+        mConfigurationChanged = true;
+    }
+
+    /**
+     * Set the values to extract natively from recognized text.  Each entry is either the name of a
+     * built-in rule (IBAN, CARD, DATE, AMOUNT, PHONE, EMAIL) or {name, pattern, validator}, where
+     * validator is one of "none", "luhn" or "mod97".  While extractors are set, only validated
+     * matches are sent to JS instead of all recognized text.  Pass null to turn extraction off.
+     */
+    public void setExtractors(@Nullable ReadableArray extractors) {
+        mExtractor = compileExtractors(extractors);
+    }
+
+    /**
+     * Compiles extractor definitions as accepted by {@link #setExtractors}, or returns null if
+     * there are none.
+     *
+     * @throws JSApplicationIllegalArgumentException if an entry or pattern is invalid
+     */
+    private static PatternExtractor compileExtractors(@Nullable ReadableArray extractors) {
+        if (extractors == null || extractors.size() == 0) {
+            return null;
+        }
+
+        List<PatternExtractor.Rule> rules = new ArrayList<>(extractors.size());
+        for (int i = 0; i < extractors.size(); ++i) {
+            PatternExtractor.Rule rule;
+            if (extractors.getType(i) == ReadableType.String) {
+                rule = PatternExtractor.getBuiltInRule(extractors.getString(i));
+                if (rule == null) {
+                    throw new JSApplicationIllegalArgumentException(
+                            "Unknown extractor: " + extractors.getString(i));
+                }
+            } else {
+                ReadableMap entry = extractors.getMap(i);
+                try {
+                    rule = new PatternExtractor.Rule(entry.getString("name"),
+                            entry.getString("pattern"),
+                            entry.hasKey("validator") ? entry.getString("validator") : null);
+                } catch (IllegalArgumentException e) {
+                    throw new JSApplicationIllegalArgumentException(e.getMessage(), e);
+                }
+            }
+            rules.add(rule);
+        }
+
+        try {
+            return PatternExtractor.compile(rules);
+        } catch (PatternSyntaxException e) {
+            throw new JSApplicationIllegalArgumentException("Invalid extractor pattern: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Set the catalogue that recognized lines are looked up in: {path, maxDistance}, where path is
+     * a local file with one "id<TAB>label" entry per line and maxDistance is the number of edits
+     * tolerated (default 1).  The catalogue is indexed in the background; matches are sent once it
+     * is ready, and a catalogue_error event {path, message} if it can't be indexed.  Pass null to
+     * stop looking up lines.
+     */
+    public void setCatalogue(@Nullable ReadableMap catalogue) {
+        if (catalogue == null || !catalogue.hasKey("path") || catalogue.isNull("path")) {
+            mCatalogue = null;
+            return;
+        }
+
+        String path = catalogue.getString("path");
+        if (path.startsWith("file://")) {
+            path = path.substring("file://".length());
+        }
+        mCatalogueMaxDistance = catalogue.hasKey("maxDistance") ? catalogue.getInt("maxDistance") : 1;
+        mCatalogue = CatalogueIndex.open(path, new CatalogueIndex.FailureListener() {
+            @Override
+            public void onLoadFailed(final CatalogueIndex index, final Exception e) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCatalogue != index) {
+                            return;
+                        }
+                        mCatalogue = null;
+                        WritableMap event = Arguments.createMap();
+                        event.putString("path", index.getPath());
+                        event.putString("message", e.getMessage());
+                        sendNativeEvent(CATALOGUE_ERROR, event);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Turn MRZ (passport / ID machine-readable zone) scanning on or off.  In MRZ mode frames are
+     * cropped to the zone once it is found, lines are voted on across frames, and a single
+     * mrz_read event is sent once all check digits pass, instead of text_read events.
+     */
+    public void setMrzMode(boolean enabled) {
+        mMrzReader = enabled ? new MrzReader() : null;
+        synchronized (mPipelineLock) {
+            if (!enabled && mRegionDetector != null) {
+                mRegionDetector.setRegion(null);
+            }
+        }
+    }
+
+    /**
+     * Turn stitching on or off.  While on, the lines of successive frames are placed on one
+     * canvas as the camera pans over a long document, and text_stitched events carry the lines
+     * seen for the first time, in reading order.  Turning it on again starts a new document.
+     */
+    public void setStitching(boolean enabled) {
+        mStitcher = enabled ? new TextStitcher() : null;
+    }
+
+    /**
+     * Sets up layout analysis: {labels: {fieldName: [label, ...]}}, or null to turn it off.
+     * While on, every frame with text sends a layout_read event with its blocks in reading order
+     * and the fields whose labels were found, each with its value.
+     *
+     * @throws JSApplicationIllegalArgumentException if a label list is invalid
+     */
+    public void setLayout(@Nullable ReadableMap layout) {
+        if (layout == null || !layout.hasKey("labels") || layout.isNull("labels")) {
+            mLayout = null;
+            return;
+        }
+
+        ReadableMap labels = layout.getMap("labels");
+        Map<String, List<String>> dictionary = new HashMap<>();
+        ReadableMapKeySetIterator names = labels.keySetIterator();
+        while (names.hasNextKey()) {
+            String name = names.nextKey();
+            if (labels.getType(name) != ReadableType.Array) {
+                throw new JSApplicationIllegalArgumentException("Labels of " + name + " must be an array");
+            }
+            ReadableArray texts = labels.getArray(name);
+            List<String> list = new ArrayList<>(texts.size());
+            for (int i = 0; i < texts.size(); ++i) {
+                list.add(texts.getString(i));
+            }
+            dictionary.put(name, list);
+        }
+        try {
+            mLayout = new LayoutAnalyzer(dictionary);
+        } catch (IllegalArgumentException e) {
+            throw new JSApplicationIllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Zoom in on text too small to read well, as far as it stays in view, and back out when it
+     * gets cut off, large, or lost.  Pinching still works and holds automatic zoom off for a few
+     * seconds.  No zooming happens while stitching, which needs a fixed scale.  Turning it off
+     * zooms back out.
+     */
+    public void setAutoZoom(boolean enabled) {
+        if (enabled == (mAutoZoom != null)) {
+            return;
+        }
+        if (enabled) {
+            AutoZoomController autoZoom = new AutoZoomController();
+            if (mCameraSource != null) {
+                autoZoom.onManualZoom(mCameraSource.getZoomRatio());
+            }
+            mAutoZoom = autoZoom;
+        } else {
+            mAutoZoom = null;
+            if (mCameraSource != null) {
+                mCameraSource.setZoomRatio(1);
+            }
+        }
+    }
+
+    /**
+     * Switch the preview resolution with the size of the text in view: down to 640x480 for large
+     * print, which is several times cheaper to recognize, and up to the largest preview size for
+     * fine print.  Turning it off goes back to the default size.
+     */
+    public void setAdaptiveResolution(boolean enabled) {
+        if (enabled == (mPreviewSizeSelector != null)) {
+            return;
+        }
+        if (enabled) {
+            mPreviewSizeSelector = new PreviewSizeSelector(1);
+        } else {
+            mPreviewSizeSelector = null;
+            if (mPreview != null) {
+                abortCapture("The preview size changed before the picture was taken.");
+                mPreview.setPreviewSize(mProfile.getPreviewWidth(), mProfile.getPreviewHeight());
+            }
+        }
+        mConfigurationChanged = true;
+    }
+
+    /**
+     * Rebuild the recognizer when a frame has been in it for longer than the given time, since
+     * it then hangs and the preview would stall for good.  0 turns the watchdog off.  Each
+     * rebuild is reported with a processing_stalled event.
+     */
+    public void setProcessingTimeout(int millis) {
+        mProcessingTimeoutMillis = Math.max(0, millis);
+        updateWatchdog();
+    }
+
+    /**
+     * Skip recognition on frames taken while the device is moving fast, as told by the gyroscope
+     * (or accelerometer), since they are too blurred to read.
+     */
+    public void setMotionGating(boolean enabled) {
+        mMotionGating = enabled;
+        updatePipeline();
+    }
+
+    /**
+     * Hold frames back from recognition while the lens is focusing, and refocus on the text by
+     * itself when frames stay blurry, with focus and metering aimed at where text was last seen.
+     */
+    public void setFocusGating(boolean enabled) {
+        mFocusGating = enabled;
+        updatePipeline();
+    }
+
+    /**
+     * Skip frames that show nothing text-like (empty walls, floors, motion blur) instead of
+     * running recognition on them.  Skipped frames count as frames without text.
+     */
+    public void setSkipEmptyFrames(boolean enabled) {
+        mSkipEmptyFrames = enabled;
+        updatePipeline();
+    }
+
+    /**
+     * Recognize each frame in two passes: a half-resolution pass to find the text blocks, then a
+     * full-resolution pass over only the areas around them.  Faster on frames that are mostly
+     * background, without losing small print.
+     */
+    public void setCoarseToFine(boolean enabled) {
+        mCoarseToFineEnabled = enabled;
+        updatePipeline();
+    }
+
+    /**
+     * Only recognize the parts of each frame that changed since they were last recognized, and
+     * keep the earlier blocks for the rest.  Saves most of the work while a document is held
+     * still or moved slowly.
+     */
+    public void setIncremental(boolean enabled) {
+        mIncrementalEnabled = enabled;
+        updatePipeline();
+    }
+
+    /**
+     * Returns the profile with the given name.  No name stands for the defaults, with the capture
+     * settings {@link CameraCalibration} found for this device if it has been calibrated.
+     *
+     * @throws IllegalArgumentException if there is no such profile
+     */
+    private PerformanceProfile resolveProfile(@Nullable String name) {
+        PerformanceProfile profile = PerformanceProfile.forName(name);
+        if (profile == PerformanceProfile.NONE) {
+            CameraCalibration.Result calibration = CameraCalibration.load(mContext);
+            if (calibration != null) {
+                profile = profile.withCapture(calibration.getPreviewWidth(),
+                        calibration.getPreviewHeight(), calibration.getFps());
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Turns each pipeline stage on when its own prop or the performance profile asks for it.
+     */
+    private void updatePipeline() {
+        PerformanceProfile profile = mProfile;
+        synchronized (mPipelineLock) {
+            configureStages();
+        }
+
+        boolean motionGating = mMotionGating || profile.gatesMotion();
+        if (motionGating != (mMotionMonitor != null)) {
+            if (motionGating) {
+                mMotionMonitor = new MotionMonitor(mContext);
+                if (!mIsPaused) {
+                    mMotionMonitor.start();
+                }
+            } else {
+                mMotionMonitor.stop();
+                mMotionMonitor = null;
+            }
+            if (mCameraSource != null) {
+                mCameraSource.setMotionMonitor(mMotionMonitor);
+            }
+        }
+        mConfigurationChanged = true;
+    }
+
+    /**
+     * Turns each stage of the current detector chain on or off as its prop and the profile ask.
+     * Call it with mPipelineLock held.
+     */
+    private void configureStages() {
+        PerformanceProfile profile = mProfile;
+        if (mCoarseToFine != null) {
+            mCoarseToFine.setEnabled(mCoarseToFineEnabled || profile.isCoarseToFine());
+        }
+        if (mIncremental != null) {
+            mIncremental.setEnabled(mIncrementalEnabled || profile.isIncremental());
+        }
+        if (mTextPresence != null) {
+            mTextPresence.setEnabled(mSkipEmptyFrames || profile.skipsEmptyFrames());
+        }
+        if (mFocusGate != null) {
+            mFocusGate.setEnabled(mFocusGating || profile.gatesFocus());
+        }
+    }
+
+    /**
+     * Starts scanning until a target is found: {patterns, minStableFrames, timeoutMs}.  patterns
+     * takes the same entries as the extractors prop; without it any recognized text qualifies.
+     * The promise resolves with {name, value, block} once the same value has been read in
+     * minStableFrames consecutive frames (default 1), and the camera is then stopped without
+     * waiting for JS.  It rejects with code "7" after timeoutMs (0, the default, waits forever)
+     * and with "8" when the session is cancelled or replaced by a new one.
+     *
+     * @throws JSApplicationIllegalArgumentException if the options are invalid
+     */
+    public void startSession(@Nullable ReadableMap options, Promise promise) {
+        PatternExtractor extractor = null;
+        int minStableFrames = 1;
+        long timeoutMillis = 0;
+        if (options != null) {
+            if (options.hasKey("patterns") && !options.isNull("patterns")) {
+                extractor = compileExtractors(options.getArray("patterns"));
+            }
+            if (options.hasKey("minStableFrames")) {
+                minStableFrames = options.getInt("minStableFrames");
+            }
+            if (options.hasKey("timeoutMs")) {
+                timeoutMillis = (long) options.getDouble("timeoutMs");
+            }
+        }
+
+        final ScanSession session = new ScanSession(extractor, minStableFrames, timeoutMillis, promise);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                beginSession(session);
+            }
+        });
+    }
+
+    /**
+     * Cancels the running scan session, if any, leaving the camera running.
+     */
+    public void cancelSession() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                ScanSession session = mSession;
+                if (session != null && session.reject("8", "Scan session was cancelled.")) {
+                    endSession(session, false);
+                }
+            }
+        });
+    }
+
+    private void beginSession(final ScanSession session) {
+        ScanSession previous = mSession;
+        if (previous != null && previous.reject("8", "Scan session was replaced by a new one.")) {
+            endSession(previous, false);
+        }
+
+        mSession = session;
+        if (session.getTimeoutMillis() > 0) {
+            mSessionTimeout = new Runnable() {
+                @Override
+                public void run() {
+                    if (session.reject("7", "Scan session timed out.")) {
+                        endSession(session, true);
+                    }
+                }
+            };
+            postDelayed(mSessionTimeout, session.getTimeoutMillis());
+        }
+        resume();
+    }
+
+    /**
+     * Clears a settled session on the UI thread and, if asked, stops the camera.  Stopping joins
+     * the detector thread, so this must not run on it.
+     */
+    private void endSession(ScanSession session, boolean stopCamera) {
+        if (mSession != session) {
+            return;
+        }
+        mSession = null;
+        if (mSessionTimeout != null) {
+            removeCallbacks(mSessionTimeout);
+            mSessionTimeout = null;
+        }
+        if (stopCamera) {
+            pause();
+        }
     }
 
     @Override
@@ -257,6 +1058,111 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
         }
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnScrollChangedListener(mVisibilityListener);
+        getViewTreeObserver().removeOnGlobalLayoutListener(mVisibilityListener);
+        mAttached = false;
+        mHadWindowFocus = false;
+        updateVisibility();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        mWindowVisibility = visibility;
+        if (visibility != VISIBLE) {
+            mHadWindowFocus = false;
+        }
+        updateVisibility();
+    }
+
+    @Override
+    public void onWindowFocusChanged(boolean hasWindowFocus) {
+        super.onWindowFocusChanged(hasWindowFocus);
+        if (hasWindowFocus) {
+            mHadWindowFocus = true;
+        }
+        updateVisibility();
+    }
+
+    /**
+     * Put frame processing on standby while the view can't be seen: detached, in a hidden
+     * window, of zero size, scrolled or clipped out of view, or covered by a dialog or modal
+     * that took the window's focus.  Losing focus only counts once the window has had it, and
+     * not in multi-window or picture-in-picture mode, where another app can have it while this
+     * one is in full view.  The camera stays open at its lowest frame rate, so work picks up with
+     * the next frame once the view shows again.  On by default.
+     */
+    public void setAutoStandby(boolean enabled) {
+        mAutoStandby = enabled;
+        updateVisibility();
+    }
+
+    /**
+     * Returns why the view can't be seen, or null if it can.
+     */
+    @Nullable
+    private String getHiddenReason() {
+        if (!mAttached) {
+            return "detached";
+        }
+        if (mWindowVisibility != VISIBLE) {
+            return "window_hidden";
+        }
+        if (getWidth() == 0 || getHeight() == 0) {
+            return "zero_size";
+        }
+        if (!isShown() || !getGlobalVisibleRect(mVisibleRect)) {
+            return "off_screen";
+        }
+        if (mHadWindowFocus && !hasWindowFocus() && !isSharingScreen()) {
+            return "covered";
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the activity is in multi-window or picture-in-picture mode, where it can
+     * lose focus to another app without being covered.
+     */
+    private boolean isSharingScreen() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N || !(mContext instanceof ReactContext)) {
+            return false;
+        }
+        Activity activity = ((ReactContext) mContext).getCurrentActivity();
+        return activity != null
+                && (activity.isInMultiWindowMode() || activity.isInPictureInPictureMode());
+    }
+
+    /**
+     * Puts frame processing on standby or back to work when the view stops or starts being
+     * seen, and reports the change with how long the previous state lasted.
+     */
+    private void updateVisibility() {
+        String reason = mAutoStandby ? getHiddenReason() : null;
+        if ((reason == null) == (mHiddenReason == null)) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long previousMillis = now - mHiddenReasonMillis;
+        mHiddenReason = reason;
+        mHiddenReasonMillis = now;
+        if (mCameraSource != null) {
+            mCameraSource.setStandby(reason != null);
+        }
+        if (reason != null && mGraphicOverlay != null) {
+            mGraphicOverlay.clear();
+        }
+
+        WritableMap event = Arguments.createMap();
+        event.putBoolean("standby", reason != null);
+        event.putString("reason", reason != null ? reason : "visible");
+        event.putDouble("previousStateMs", previousMillis);
+        sendNativeEvent(STANDBY_CHANGED, event);
+    }
+
     /**
      * Creates and starts the camera.  Note that this uses a higher resolution in comparison
      * to other detection examples to enable the barcode detector to detect small barcodes
@@ -271,29 +1177,132 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
         boolean autoFocus = true;
         boolean useFlash = false;
 
-        Context context = mContext;
-
-        // A text recognizer is created to find text.  An associated multi-processor instance
-        // is set to receive the text recognition results, track the text, and maintain
-        // graphics for each text block on screen.  The factory is used by the multi-processor to
-        // create a separate tracker instance for each text block.
-        textRecognizer = new TextRecognizer.Builder(context).build();
-        textRecognizer.setProcessor(this);
+        createDetector(mContext);
+        updatePipeline();
 
         if (!hasNecessaryCapabilities()) {
             return;
         }
 
-        // Creates and starts the camera.  Note that this uses a higher resolution in comparison
-        // to other detection examples to enable the text recognizer to detect small pieces of text.
+        // Without a profile, pick up a calibration made since the last start.
+        if (mProfile.getName() == null) {
+            mProfile = resolveProfile(null);
+        }
+
+        // Creates and starts the camera.
         mCameraSource =
-                new CameraSource.Builder(mContext.getApplicationContext(), textRecognizer)
+                new CameraSource.Builder(mContext.getApplicationContext(), mFocusGate)
                         .setFacing(CameraSource.CAMERA_FACING_BACK)
-                        .setRequestedPreviewSize(1280, 1024)
-                        .setRequestedFps(2.0f)
+                        .setRequestedPreviewSize(mProfile.getPreviewWidth(), mProfile.getPreviewHeight())
+                        .setRequestedFps(mProfile.getFps())
                         .setFlashMode(useFlash ? Camera.Parameters.FLASH_MODE_TORCH : null)
                         .setFocusMode(autoFocus ? Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE : null)
                         .build();
+        mCameraSource.setAutoFocusMoveCallback(mFocusGate);
+        mCameraSource.setMotionMonitor(mMotionMonitor);
+        mCameraSource.setStandby(mHiddenReason != null);
+        updateWatchdog();
+    }
+
+    /**
+     * Builds the chain of detectors frames go through, ending in the text recognizer, set up
+     * as the props ask, and returns its outermost one.  Called again from the watchdog's thread
+     * when the recognizer hangs; the chain is complete and configured before it is published.
+     */
+    private FocusGateDetector<TextBlock> createDetector(Context context) {
+        // A text recognizer is created to find text.  An associated multi-processor instance
+        // is set to receive the text recognition results, track the text, and maintain
+        // graphics for each text block on screen.  The factory is used by the multi-processor to
+        // create a separate tracker instance for each text block.
+        TextRecognizer recognizer = new TextRecognizer.Builder(context).build();
+        // Frames go through a region detector so that modes like MRZ scanning can crop them to a
+        // region of interest before recognition, and before that through a cheap check that
+        // drops frames without anything text-like in them.  Within the region, the incremental
+        // detector only passes on what changed since the last frame, and the coarse-to-fine
+        // detector decides which parts of that are recognized at full resolution.
+        CoarseToFineDetector coarseToFine = new CoarseToFineDetector(recognizer);
+        IncrementalDetector incremental = new IncrementalDetector(coarseToFine);
+        RegionDetector<TextBlock> regionDetector = new RegionDetector<>(incremental);
+        TextPresenceDetector<TextBlock> textPresence = new TextPresenceDetector<>(regionDetector);
+        // Outermost, frames taken while the lens moves are dropped before any other work.
+        FocusGateDetector<TextBlock> focusGate =
+                new FocusGateDetector<>(textPresence, new FocusGateDetector.Listener() {
+                    @Override
+                    public void onRefocusNeeded() {
+                        // Called on the detector thread, which CameraSource joins under its
+                        // lock when stopping or switching preview size, so the camera is only
+                        // touched from the UI thread.
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                refocus();
+                            }
+                        });
+                    }
+                });
+        focusGate.setProcessor(mDetectionProcessor);
+
+        synchronized (mPipelineLock) {
+            if (mRegionDetector != null) {
+                // Keep cropping to the region the replaced chain was set to.
+                regionDetector.setRegion(mRegionDetector.getRegion());
+            }
+            textRecognizer = recognizer;
+            mCoarseToFine = coarseToFine;
+            mIncremental = incremental;
+            mRegionDetector = regionDetector;
+            mTextPresence = textPresence;
+            mFocusGate = focusGate;
+            configureStages();
+        }
+        return focusGate;
+    }
+
+    /**
+     * Sets up the processing watchdog on the camera source, as the processingTimeout prop asks.
+     */
+    private void updateWatchdog() {
+        if (mCameraSource == null) {
+            return;
+        }
+        if (mProcessingTimeoutMillis <= 0) {
+            mCameraSource.setProcessingWatchdog(0, null);
+            return;
+        }
+        mCameraSource.setProcessingWatchdog(mProcessingTimeoutMillis, new CameraSource.StallListener() {
+            @Override
+            public Detector<?> onProcessingStalled(int frameId, long stalledMillis, long lastFrameMillis) {
+                return rebuildDetector(frameId, stalledMillis, lastFrameMillis);
+            }
+        });
+    }
+
+    /**
+     * Builds a new detector chain in place of the one the watchdog found stuck, and reports the
+     * stall.  Runs on the watchdog's thread.
+     */
+    private Detector<TextBlock> rebuildDetector(int frameId, long stalledMillis, long lastFrameMillis) {
+        mStalledFrameId = frameId;
+        long start = SystemClock.elapsedRealtime();
+        FocusGateDetector<TextBlock> detector = createDetector(mContext);
+        CameraSource cameraSource = mCameraSource;
+        if (cameraSource != null) {
+            cameraSource.setAutoFocusMoveCallback(detector);
+        }
+
+        final WritableMap event = Arguments.createMap();
+        event.putInt("frameId", frameId);
+        event.putDouble("stalledMs", stalledMillis);
+        event.putInt("timeoutMs", mProcessingTimeoutMillis);
+        event.putDouble("lastFrameMs", lastFrameMillis);
+        event.putDouble("rebuildMs", SystemClock.elapsedRealtime() - start);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                sendNativeEvent(PROCESSING_STALLED, event);
+            }
+        });
+        return detector;
     }
 
     /**
@@ -306,6 +1315,9 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
             try {
                 mPreview.start(mCameraSource, mGraphicOverlay);
                 mIsPaused = false;
+                if (mMotionMonitor != null) {
+                    mMotionMonitor.start();
+                }
             } catch (IOException e) {
                 Log.e(TAG, "Unable to start camera source.", e);
                 mCameraSource.release();
@@ -318,10 +1330,46 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
 
     private void tryAutoFocus() {
         if (mCameraSource != null) {
+            if (mFocusGate != null) {
+                mFocusGate.onAutoFocusMoving(true);
+            }
             mCameraSource.autoFocus(this);
         }
     }
 
+    /**
+     * Aims focus and metering at the text of the last frame (or lets the camera choose if there
+     * was none) and, in auto focus modes, starts a focus run.  Continuous modes refocus on their
+     * own once the areas change.  Runs on the UI thread.
+     */
+    private void refocus() {
+        CameraSource cameraSource = mCameraSource;
+        if (cameraSource == null) {
+            return;
+        }
+        cameraSource.setFocusArea(getTextBounds(mTextRegions));
+        String mode = cameraSource.getFocusMode();
+        if (Camera.Parameters.FOCUS_MODE_AUTO.equals(mode)
+                || Camera.Parameters.FOCUS_MODE_MACRO.equals(mode)) {
+            tryAutoFocus();
+        }
+    }
+
+    /**
+     * Returns the bounds of all the regions, or null if there are none.
+     */
+    @Nullable
+    private static RectF getTextBounds(List<RectF> regions) {
+        if (regions.isEmpty()) {
+            return null;
+        }
+        RectF bounds = new RectF(regions.get(0));
+        for (RectF region : regions) {
+            bounds.union(region);
+        }
+        return bounds;
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         if (mCameraSource != null && mCameraSource.getFocusMode() != null && mCameraSource.getFocusMode().equals(Camera.Parameters.FOCUS_MODE_AUTO)) {
@@ -334,23 +1382,107 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
 
     @Override
     public void onAutoFocus(boolean success) {
-        // No actions needed for the focus callback.
         Log.d(TAG, "Did autofocus.");
+        if (mFocusGate != null) {
+            mFocusGate.onAutoFocusMoving(false);
+        }
     }
 
-    @Override
-    public void receiveDetections(Detector.Detections<TextBlock> detections) {
-        mGraphicOverlay.clear();
+    private void receiveDetections(Detector.Detections<TextBlock> detections) {
+        if (detections.getFrameMetadata().getId() == mStalledFrameId) {
+            // From a detector the watchdog replaced, which came back after all.
+            return;
+        }
+        ScanSession session = mSession;
+        if (session != null && session.isSettled()) {
+            // The session already has its result and the camera is being stopped.
+            return;
+        }
+
         SparseArray<TextBlock> items = detections.getDetectedItems();
+        List<OcrGraphic> graphics = new ArrayList<>(items.size());
         WritableArray text = Arguments.createArray();
+
+        SparseArray<PointF> offsets = getItemOffsets(items);
+
+        // Boxes are in upright coordinates, so swap the frame size when it is rotated sideways.
+        Frame.Metadata metadata = detections.getFrameMetadata();
+        boolean sideways = metadata.getRotation() == Frame.ROTATION_90
+                || metadata.getRotation() == Frame.ROTATION_270;
+        int frameWidth = sideways ? metadata.getHeight() : metadata.getWidth();
+        int frameHeight = sideways ? metadata.getWidth() : metadata.getHeight();
+
+        if (mConfigurationChanged) {
+            mConfigurationChanged = false;
+            sendConfiguration(metadata.getWidth(), metadata.getHeight());
+        }
+
+        List<RectF> regions = new ArrayList<>(items.size());
         for (int i = 0; i < items.size(); ++i) {
             TextBlock item = items.valueAt(i);
+            PointF offset = offsets.valueAt(i);
             if (item != null && item.getValue() != null) {
                 Log.d("OcrDetectorProcessor", "Text detected! " + item.getValue());
                 text.pushString(item.getValue());
+
+                RectF box = new RectF(item.getBoundingBox());
+                box.offset(offset.x, offset.y);
+                regions.add(new RectF(box.left / frameWidth, box.top / frameHeight,
+                        box.right / frameWidth, box.bottom / frameHeight));
+            }
+            graphics.add(new OcrGraphic(mGraphicOverlay, item, offset.x, offset.y));
+        }
+        mGraphicOverlay.setGraphics(graphics);
+        mFrameWidth = frameWidth;
+        mFrameHeight = frameHeight;
+        mTextRegions = regions;
+        if (mFocusGate != null && !regions.isEmpty()) {
+            // Judge sharpness where the text is, and keep doing so while it is out of view.
+            mFocusGate.setRegion(getTextBounds(regions));
+        }
+
+        if (session != null) {
+            offerToSession(session, items, offsets);
+        }
+
+        PreviewSizeSelector previewSizeSelector = mPreviewSizeSelector;
+        AutoZoomController autoZoom = mStitcher == null ? mAutoZoom : null;
+        if (previewSizeSelector != null || autoZoom != null) {
+            List<Float> lineHeights = getLineHeights(items);
+            if (previewSizeSelector != null) {
+                selectPreviewSize(previewSizeSelector, Math.max(frameWidth, frameHeight),
+                        metadata.getTimestampMillis(), lineHeights);
             }
-            OcrGraphic graphic = new OcrGraphic(mGraphicOverlay, item);
-            mGraphicOverlay.add(graphic);
+            if (autoZoom != null) {
+                zoom(autoZoom, autoZoom.offerFrame(regions, lineHeights, metadata.getTimestampMillis()));
+            }
+        }
+
+        TextStitcher stitcher = mStitcher;
+        if (stitcher != null) {
+            stitch(stitcher, frameWidth, frameHeight, items, offsets);
+        }
+
+        LayoutAnalyzer layout = mLayout;
+        if (layout != null && items.size() > 0) {
+            sendLayout(layout, items, offsets);
+        }
+
+        MrzReader mrzReader = mMrzReader;
+        if (mrzReader != null) {
+            readMrz(mrzReader, frameWidth, frameHeight, items, offsets);
+            return;
+        }
+
+        CatalogueIndex catalogue = mCatalogue;
+        if (catalogue != null && catalogue.isLoaded()) {
+            sendCatalogueMatches(catalogue, items, offsets);
+        }
+
+        PatternExtractor extractor = mExtractor;
+        if (extractor != null) {
+            sendExtractedText(extractor, items, offsets);
+            return;
         }
 
         // Fungsi untuk mengirim data hasi Detection ke Javascript module
@@ -359,6 +1491,390 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
         sendNativeEvent(TEXT_READ, event);
     }
 
+    /**
+     * Returns where each block's frame sits in the full upright frame, in the same order as the
+     * blocks: blocks found in a cropped region of interest, or in an area of the incremental or
+     * coarse-to-fine passes, are relative to that.
+     */
+    private SparseArray<PointF> getItemOffsets(SparseArray<TextBlock> items) {
+        int regionX = mRegionDetector != null ? mRegionDetector.getRegionOffsetX() : 0;
+        int regionY = mRegionDetector != null ? mRegionDetector.getRegionOffsetY() : 0;
+        SparseArray<PointF> offsets = new SparseArray<>(items.size());
+        for (int i = 0; i < items.size(); ++i) {
+            int key = items.keyAt(i);
+            offsets.append(key, mIncremental != null
+                    ? new PointF(regionX + mIncremental.getItemOffsetX(key),
+                            regionY + mIncremental.getItemOffsetY(key))
+                    : new PointF(regionX, regionY));
+        }
+        return offsets;
+    }
+
+    /**
+     * Resolves the session once it has found its target, and has the UI thread stop the camera.
+     */
+    private void offerToSession(final ScanSession session, SparseArray<TextBlock> items,
+                                SparseArray<PointF> offsets) {
+        ScanSession.Hit hit = session.offer(items, offsets);
+        if (hit == null) {
+            return;
+        }
+
+        WritableMap result = Arguments.createMap();
+        result.putString("name", hit.mName);
+        result.putString("value", hit.mValue);
+        result.putMap("block", createTextMap(hit.mBlockText, hit.mBlockBox));
+        if (session.resolve(result)) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    endSession(session, true);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends the effective capture and pipeline settings, with the preview size as seen in frames.
+     */
+    private void sendConfiguration(int previewWidth, int previewHeight) {
+        PerformanceProfile profile = mProfile;
+        CameraSource cameraSource = mCameraSource;
+        WritableMap event = Arguments.createMap();
+        event.putString("profile", profile.getName());
+        event.putInt("previewWidth", previewWidth);
+        event.putInt("previewHeight", previewHeight);
+        event.putDouble("fps", profile.getFps());
+        event.putString("focusMode", cameraSource != null ? cameraSource.getFocusMode() : null);
+        event.putInt("fillMode", mFillMode);
+        event.putBoolean("skipEmptyFrames", mSkipEmptyFrames || profile.skipsEmptyFrames());
+        event.putBoolean("incremental", mIncrementalEnabled || profile.isIncremental());
+        event.putBoolean("coarseToFine", mCoarseToFineEnabled || profile.isCoarseToFine());
+        event.putBoolean("motionGating", mMotionGating || profile.gatesMotion());
+        event.putBoolean("focusGating", mFocusGating || profile.gatesFocus());
+        event.putBoolean("adaptiveResolution", mPreviewSizeSelector != null);
+        event.putBoolean("autoZoom", mAutoZoom != null);
+        sendNativeEvent(CONFIGURATION, event);
+    }
+
+    /**
+     * Returns the heights of all the lines of the blocks, in frame pixels.
+     */
+    private static List<Float> getLineHeights(SparseArray<TextBlock> items) {
+        List<Float> heights = new ArrayList<>();
+        for (int i = 0; i < items.size(); ++i) {
+            TextBlock item = items.valueAt(i);
+            if (item == null) {
+                continue;
+            }
+            for (Text line : item.getComponents()) {
+                heights.add((float) line.getBoundingBox().height());
+            }
+        }
+        return heights;
+    }
+
+    /**
+     * Hands the frame's line heights to the selector, and switches the preview size on the UI
+     * thread if it picks another tier.
+     */
+    private void selectPreviewSize(final PreviewSizeSelector selector, int frameWidth, long timestampMillis,
+                                   List<Float> lineHeights) {
+        final int tier = selector.offerFrame(lineHeights, frameWidth, timestampMillis);
+        if (tier < 0) {
+            return;
+        }
+        // Switching waits for the detector to finish its frame, so it can't be done from here.
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (mPreviewSizeSelector != selector || mPreview == null) {
+                    return;
+                }
+                if (mCapturing.get() != null) {
+                    // Restarting the preview would lose the picture being taken, so switch
+                    // once it's in.
+                    postDelayed(this, CAPTURE_RETRY_MILLIS);
+                    return;
+                }
+                mPreview.setPreviewSize(PreviewSizeSelector.TIERS[tier][0],
+                        PreviewSizeSelector.TIERS[tier][1]);
+                mConfigurationChanged = true;
+            }
+        });
+    }
+
+    /**
+     * Zooms to the ratio the controller asked for, if any, and tells it where the camera ended up.
+     */
+    private void zoom(final AutoZoomController autoZoom, final float ratio) {
+        if (ratio <= 0) {
+            return;
+        }
+        // Zooming takes the camera lock, which is held while the detector thread is joined, so it
+        // can't be done from here.
+        post(new Runnable() {
+            @Override
+            public void run() {
+                CameraSource cameraSource = mCameraSource;
+                if (mAutoZoom == autoZoom && cameraSource != null) {
+                    autoZoom.onZoomed(ratio, cameraSource.setZoomRatio(ratio));
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds the frame's lines to the stitcher and sends those it saw for the first time.
+     */
+    private void stitch(TextStitcher stitcher, int width, int height, SparseArray<TextBlock> items,
+                        SparseArray<PointF> offsets) {
+        List<TextStitcher.Line> lines = new ArrayList<>();
+        for (int i = 0; i < items.size(); ++i) {
+            TextBlock item = items.valueAt(i);
+            if (item == null) {
+                continue;
+            }
+            PointF offset = offsets.valueAt(i);
+            for (Text line : item.getComponents()) {
+                RectF box = new RectF(line.getBoundingBox());
+                box.offset(offset.x, offset.y);
+                lines.add(new TextStitcher.Line(line.getValue(), box));
+            }
+        }
+
+        List<String> fresh = stitcher.addFrame(lines, width, height);
+        if (fresh.isEmpty()) {
+            return;
+        }
+        WritableArray data = Arguments.createArray();
+        for (String line : fresh) {
+            data.pushString(line);
+        }
+        WritableMap event = Arguments.createMap();
+        event.putArray("data", data);
+        sendNativeEvent(TEXT_STITCHED, event);
+    }
+
+    /**
+     * Sends the frame's blocks in reading order, with the labelled fields found on their lines.
+     */
+    private void sendLayout(LayoutAnalyzer layout, SparseArray<TextBlock> items,
+                            SparseArray<PointF> offsets) {
+        List<String> texts = new ArrayList<>(items.size());
+        List<RectF> boxes = new ArrayList<>(items.size());
+        List<LayoutAnalyzer.Line> lines = new ArrayList<>();
+        for (int i = 0; i < items.size(); ++i) {
+            TextBlock item = items.valueAt(i);
+            if (item == null || item.getValue() == null) {
+                continue;
+            }
+            PointF offset = offsets.valueAt(i);
+            RectF box = new RectF(item.getBoundingBox());
+            box.offset(offset.x, offset.y);
+            texts.add(item.getValue());
+            boxes.add(box);
+            for (Text line : item.getComponents()) {
+                RectF lineBox = new RectF(line.getBoundingBox());
+                lineBox.offset(offset.x, offset.y);
+                lines.add(new LayoutAnalyzer.Line(line.getValue(), lineBox));
+            }
+        }
+
+        WritableArray blocks = Arguments.createArray();
+        for (int index : LayoutAnalyzer.readingOrder(boxes)) {
+            blocks.pushMap(createTextMap(texts.get(index), boxes.get(index)));
+        }
+        WritableArray fields = Arguments.createArray();
+        for (LayoutAnalyzer.Field field : layout.findFields(lines)) {
+            WritableMap entry = Arguments.createMap();
+            entry.putString("name", field.getName());
+            entry.putString("label", field.getLabel());
+            entry.putString("value", field.getValue());
+            entry.putMap("bounds", createBoundsMap(field.getValueBox()));
+            fields.pushMap(entry);
+        }
+
+        WritableMap event = Arguments.createMap();
+        event.putArray("blocks", blocks);
+        event.putArray("fields", fields);
+        sendNativeEvent(LAYOUT_READ, event);
+    }
+
+    /**
+     * Feeds the frame's lines to the MRZ reader, moves the region of interest to where the zone
+     * was seen, and sends the document once it is read.
+     */
+    private void readMrz(MrzReader reader, int width, int height, SparseArray<TextBlock> items,
+                         SparseArray<PointF> offsets) {
+        List<MrzReader.Line> lines = new ArrayList<>();
+        for (int i = 0; i < items.size(); ++i) {
+            TextBlock item = items.valueAt(i);
+            if (item == null) {
+                continue;
+            }
+            PointF offset = offsets.valueAt(i);
+            for (Text line : item.getComponents()) {
+                RectF box = new RectF(line.getBoundingBox());
+                box.offset(offset.x, offset.y);
+                lines.add(new MrzReader.Line(line.getValue(), box));
+            }
+        }
+
+        MrzReader.Result result = reader.addFrame(lines, width, height);
+        if (reader == mMrzReader) {
+            mRegionDetector.setRegion(reader.getRegionOfInterest());
+        }
+        if (result == null) {
+            return;
+        }
+
+        WritableArray raw = Arguments.createArray();
+        for (String line : result.getLines()) {
+            raw.pushString(line);
+        }
+        WritableMap data = Arguments.createMap();
+        data.putString("format", result.getFormat());
+        data.putString("documentType", result.getDocumentType());
+        data.putString("issuingCountry", result.getIssuingCountry());
+        data.putString("documentNumber", result.getDocumentNumber());
+        data.putString("nationality", result.getNationality());
+        data.putString("birthDate", result.getBirthDate());
+        data.putString("sex", result.getSex());
+        data.putString("expiryDate", result.getExpiryDate());
+        data.putString("surname", result.getSurname());
+        data.putString("givenNames", result.getGivenNames());
+        data.putString("optionalData", result.getOptionalData());
+        data.putInt("frames", result.getFrameCount());
+        data.putArray("lines", raw);
+
+        WritableMap event = Arguments.createMap();
+        event.putMap("data", data);
+        sendNativeEvent(MRZ_READ, event);
+    }
+
+    /**
+     * Looks up every recognized line in the catalogue and sends the ids of the entries found.
+     * Nothing is sent for a frame without matches.
+     */
+    private void sendCatalogueMatches(CatalogueIndex catalogue, SparseArray<TextBlock> items,
+                                      SparseArray<PointF> offsets) {
+        int maxDistance = mCatalogueMaxDistance;
+        WritableArray matches = Arguments.createArray();
+        for (int i = 0; i < items.size(); ++i) {
+            TextBlock item = items.valueAt(i);
+            if (item == null) {
+                continue;
+            }
+            for (Text line : item.getComponents()) {
+                CatalogueIndex.Match match = catalogue.findClosest(line.getValue(), maxDistance);
+                if (match == null) {
+                    continue;
+                }
+                WritableMap entry = Arguments.createMap();
+                entry.putString("id", match.getId());
+                entry.putString("label", match.getLabel());
+                entry.putInt("distance", match.getDistance());
+                entry.putString("text", line.getValue());
+                RectF box = new RectF(line.getBoundingBox());
+                box.offset(offsets.valueAt(i).x, offsets.valueAt(i).y);
+                entry.putMap("bounds", createBoundsMap(box));
+                matches.pushMap(entry);
+            }
+        }
+
+        if (matches.size() > 0) {
+            WritableMap event = Arguments.createMap();
+            event.putArray("data", matches);
+            sendNativeEvent(CATALOGUE_MATCH, event);
+        }
+    }
+
+    /**
+     * Runs the extractor over every block and sends only the matches, each with the block it was
+     * found in.  Nothing is sent for a frame without matches.
+     */
+    private void sendExtractedText(PatternExtractor extractor, SparseArray<TextBlock> items,
+                                   SparseArray<PointF> offsets) {
+        WritableArray matches = Arguments.createArray();
+        for (int i = 0; i < items.size(); ++i) {
+            TextBlock item = items.valueAt(i);
+            if (item == null || item.getValue() == null) {
+                continue;
+            }
+            for (PatternExtractor.Match match : extractor.extract(item.getValue())) {
+                WritableMap entry = Arguments.createMap();
+                entry.putString("name", match.getName());
+                entry.putString("value", match.getValue());
+                // A bridge map can only be consumed once, so every match gets its own block map.
+                RectF box = new RectF(item.getBoundingBox());
+                box.offset(offsets.valueAt(i).x, offsets.valueAt(i).y);
+                entry.putMap("block", createTextMap(item.getValue(), box));
+                matches.pushMap(entry);
+            }
+        }
+
+        if (matches.size() > 0) {
+            WritableMap event = Arguments.createMap();
+            event.putArray("data", matches);
+            sendNativeEvent(TEXT_EXTRACTED, event);
+        }
+    }
+
+    /**
+     * Returns the text block under the given point, or null if there is none.  The point and the
+     * returned bounds are in pixels relative to this view.
+     */
+    public WritableMap getTextAt(float x, float y) {
+        int[] location = new int[2];
+        getLocationOnScreen(location);
+        OcrGraphic graphic = mGraphicOverlay.getGraphicAtLocation(location[0] + x, location[1] + y);
+        return graphic != null
+                ? createTextMap(graphic.getTextBlock().getValue(), graphic.getBoundingBox()) : null;
+    }
+
+    /**
+     * Returns all text blocks intersecting the given rectangle.  The rectangle and the returned
+     * bounds are in pixels relative to this view.
+     */
+    public WritableArray getTextInRect(RectF rect) {
+        int[] location = new int[2];
+        getLocationOnScreen(location);
+        WritableArray result = Arguments.createArray();
+        for (OcrGraphic graphic : mGraphicOverlay.getGraphicsInRegion(location[0] + rect.left,
+                location[1] + rect.top, location[0] + rect.right, location[1] + rect.bottom)) {
+            result.pushMap(createTextMap(graphic.getTextBlock().getValue(), graphic.getBoundingBox()));
+        }
+        return result;
+    }
+
+    /**
+     * Describes a piece of text and its on-screen bounds (in dp, relative to this view) for JS.
+     * The box is in preview coordinates.
+     */
+    private WritableMap createTextMap(String text, RectF previewBox) {
+        WritableMap map = Arguments.createMap();
+        map.putString("text", text);
+        map.putMap("bounds", createBoundsMap(previewBox));
+        return map;
+    }
+
+    /**
+     * Converts a box in preview coordinates to {x, y, width, height} in dp relative to this view.
+     */
+    private WritableMap createBoundsMap(RectF previewBox) {
+        RectF box = new RectF();
+        mGraphicOverlay.toViewRect(previewBox, box);
+        box.offset(mOverlayLeft, mOverlayTop);
+
+        WritableMap bounds = Arguments.createMap();
+        bounds.putDouble("x", PixelUtil.toDIPFromPixel(box.left));
+        bounds.putDouble("y", PixelUtil.toDIPFromPixel(box.top));
+        bounds.putDouble("width", PixelUtil.toDIPFromPixel(box.width()));
+        bounds.putDouble("height", PixelUtil.toDIPFromPixel(box.height()));
+        return bounds;
+    }
+
     private void sendNativeEvent(String key, WritableMap event) {
         if (getId() < 0) {
             Log.w(TAG, "Tried to send native event with negative id!");
@@ -403,6 +1919,19 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
         return text != null;
     }
 
+    private class VisibilityListener implements ViewTreeObserver.OnScrollChangedListener,
+            ViewTreeObserver.OnGlobalLayoutListener {
+        @Override
+        public void onScrollChanged() {
+            updateVisibility();
+        }
+
+        @Override
+        public void onGlobalLayout() {
+            updateVisibility();
+        }
+    }
+
     private class CaptureGestureListener extends GestureDetector.SimpleOnGestureListener {
 
         @Override
@@ -463,6 +1992,10 @@ public class OcrReaderView extends ViewGroup implements CameraSource.AutoFocusCa
         public void onScaleEnd(ScaleGestureDetector detector) {
             if (mCameraSource != null) {
                 mCameraSource.doZoom(detector.getScaleFactor());
+                AutoZoomController autoZoom = mAutoZoom;
+                if (autoZoom != null) {
+                    autoZoom.onManualZoom(mCameraSource.getZoomRatio());
+                }
             }
         }
     }
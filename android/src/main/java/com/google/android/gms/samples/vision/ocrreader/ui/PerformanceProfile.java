@@ -0,0 +1,131 @@
+package com.google.android.gms.samples.vision.ocrreader.ui;
+
+import android.support.annotation.Nullable;
+
+/**
+ * A coherent set of capture and pipeline settings for {@link OcrReaderView}, picked with the
+ * performanceProfile prop.  The pipeline stages a profile turns on come in addition to those
+ * turned on by their own props.
+ */
+public class PerformanceProfile {
+    /**
+     * Small preview at a high frame rate, with every stage that saves work on.  For large, close
+     * text where answers should come fast.
+     */
+    public static final PerformanceProfile LOW_LATENCY = new PerformanceProfile("LOW_LATENCY",
+            640, 480, 15.0f, true, true, false, true, false);
+
+    /**
+     * Medium preview at a moderate frame rate; finds text at half resolution and skips frames
+     * that can't be read.
+     */
+    public static final PerformanceProfile BALANCED = new PerformanceProfile("BALANCED",
+            1280, 960, 5.0f, true, true, true, true, true);
+
+    /**
+     * The largest preview at a low frame rate, every frame recognized whole, and only blurred
+     * frames skipped.  For fine print.
+     */
+    public static final PerformanceProfile MAX_ACCURACY = new PerformanceProfile("MAX_ACCURACY",
+            4096, 3072, 2.0f, false, false, false, true, true);
+
+    /**
+     * The settings used without a profile.
+     */
+    static final PerformanceProfile NONE = new PerformanceProfile(null,
+            1280, 1024, 2.0f, false, false, false, false, false);
+
+    private static final PerformanceProfile[] PROFILES = {LOW_LATENCY, BALANCED, MAX_ACCURACY};
+
+    private final String mName;
+    private final int mPreviewWidth;
+    private final int mPreviewHeight;
+    private final float mFps;
+    private final boolean mSkipEmptyFrames;
+    private final boolean mIncremental;
+    private final boolean mCoarseToFine;
+    private final boolean mMotionGating;
+    private final boolean mFocusGating;
+
+    private PerformanceProfile(String name, int previewWidth, int previewHeight, float fps,
+                               boolean skipEmptyFrames, boolean incremental, boolean coarseToFine,
+                               boolean motionGating, boolean focusGating) {
+        mName = name;
+        mPreviewWidth = previewWidth;
+        mPreviewHeight = previewHeight;
+        mFps = fps;
+        mSkipEmptyFrames = skipEmptyFrames;
+        mIncremental = incremental;
+        mCoarseToFine = coarseToFine;
+        mMotionGating = motionGating;
+        mFocusGating = focusGating;
+    }
+
+    /**
+     * Returns the profile with the given name, or {@link #NONE} for null.
+     *
+     * @throws IllegalArgumentException if there is no profile with that name
+     */
+    static PerformanceProfile forName(@Nullable String name) {
+        if (name == null) {
+            return NONE;
+        }
+        for (PerformanceProfile profile : PROFILES) {
+            if (profile.mName.equals(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown performance profile " + name);
+    }
+
+    /**
+     * Returns a copy of this profile with other capture settings.
+     */
+    PerformanceProfile withCapture(int previewWidth, int previewHeight, float fps) {
+        return new PerformanceProfile(mName, previewWidth, previewHeight, fps, mSkipEmptyFrames,
+                mIncremental, mCoarseToFine, mMotionGating, mFocusGating);
+    }
+
+    /**
+     * Name of the profile, null for {@link #NONE}.
+     */
+    @Nullable
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Requested preview size; the camera picks the closest it supports.
+     */
+    public int getPreviewWidth() {
+        return mPreviewWidth;
+    }
+
+    public int getPreviewHeight() {
+        return mPreviewHeight;
+    }
+
+    public float getFps() {
+        return mFps;
+    }
+
+    public boolean skipsEmptyFrames() {
+        return mSkipEmptyFrames;
+    }
+
+    public boolean isIncremental() {
+        return mIncremental;
+    }
+
+    public boolean isCoarseToFine() {
+        return mCoarseToFine;
+    }
+
+    public boolean gatesMotion() {
+        return mMotionGating;
+    }
+
+    public boolean gatesFocus() {
+        return mFocusGating;
+    }
+}
@@ -0,0 +1,144 @@
+package com.google.android.gms.samples.vision.ocrreader.ui;
+
+import android.graphics.PointF;
+import android.graphics.RectF;
+import android.util.SparseArray;
+
+import com.facebook.react.bridge.Promise;
+import com.google.android.gms.samples.vision.ocrreader.text.PatternExtractor;
+import com.google.android.gms.vision.text.TextBlock;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A scan that runs until a target is found, entirely on the native side.<p>
+ *
+ * Each frame's blocks are offered to the session on the detector thread.  A frame qualifies when
+ * one of the session's patterns matches (or, without patterns, when any text is recognized), and
+ * the session is done once the same value has qualified in {@code minStableFrames} consecutive
+ * frames.  The promise is settled exactly once: with the hit, on timeout, or on cancellation.
+ */
+class ScanSession {
+
+    /**
+     * The value a session ended with, and where it was found.
+     */
+    static class Hit {
+        final String mName;
+        final String mValue;
+        final String mBlockText;
+        final RectF mBlockBox;
+
+        Hit(String name, String value, String blockText, RectF blockBox) {
+            mName = name;
+            mValue = value;
+            mBlockText = blockText;
+            mBlockBox = blockBox;
+        }
+    }
+
+    private final PatternExtractor mExtractor;
+    private final int mMinStableFrames;
+    private final long mTimeoutMillis;
+    private final Promise mPromise;
+    private final AtomicBoolean mSettled = new AtomicBoolean(false);
+
+    // Only touched on the detector thread.
+    private String mCandidate;
+    private int mStableFrames;
+
+    /**
+     * @param extractor       the patterns a value must match, or null to accept any text
+     * @param minStableFrames consecutive frames the same value must be seen in
+     * @param timeoutMillis   time after which the session fails, or 0 for no timeout
+     */
+    ScanSession(PatternExtractor extractor, int minStableFrames, long timeoutMillis, Promise promise) {
+        mExtractor = extractor;
+        mMinStableFrames = Math.max(1, minStableFrames);
+        mTimeoutMillis = timeoutMillis;
+        mPromise = promise;
+    }
+
+    long getTimeoutMillis() {
+        return mTimeoutMillis;
+    }
+
+    boolean isSettled() {
+        return mSettled.get();
+    }
+
+    /**
+     * Considers one frame's blocks.  Returns the hit once the session's target has been stable for
+     * enough frames, or null to keep scanning.
+     */
+    Hit offer(SparseArray<TextBlock> items, SparseArray<PointF> offsets) {
+        if (mSettled.get()) {
+            return null;
+        }
+
+        Hit hit = findFirst(items, offsets);
+        if (hit == null) {
+            mCandidate = null;
+            mStableFrames = 0;
+            return null;
+        }
+
+        if (hit.mValue.equals(mCandidate)) {
+            mStableFrames++;
+        } else {
+            mCandidate = hit.mValue;
+            mStableFrames = 1;
+        }
+        return mStableFrames >= mMinStableFrames ? hit : null;
+    }
+
+    /**
+     * Resolves the promise, unless the session was already settled.  Returns true if this call
+     * ended the session.
+     */
+    boolean resolve(Object value) {
+        if (!mSettled.compareAndSet(false, true)) {
+            return false;
+        }
+        mPromise.resolve(value);
+        return true;
+    }
+
+    /**
+     * Rejects the promise, unless the session was already settled.  Returns true if this call
+     * ended the session.
+     */
+    boolean reject(String code, String message) {
+        if (!mSettled.compareAndSet(false, true)) {
+            return false;
+        }
+        mPromise.reject(code, message);
+        return true;
+    }
+
+    private Hit findFirst(SparseArray<TextBlock> items, SparseArray<PointF> offsets) {
+        for (int i = 0; i < items.size(); ++i) {
+            TextBlock item = items.valueAt(i);
+            if (item == null || item.getValue() == null || item.getValue().isEmpty()) {
+                continue;
+            }
+
+            String name = null;
+            String value = item.getValue();
+            if (mExtractor != null) {
+                List<PatternExtractor.Match> matches = mExtractor.extract(item.getValue());
+                if (matches.isEmpty()) {
+                    continue;
+                }
+                name = matches.get(0).getName();
+                value = matches.get(0).getValue();
+            }
+
+            RectF box = new RectF(item.getBoundingBox());
+            box.offset(offsets.valueAt(i).x, offsets.valueAt(i).y);
+            return new Hit(name, value, item.getValue(), box);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,215 @@
+package com.google.android.gms.samples.vision.ocrreader.camera;
+
+import android.hardware.Camera.CameraInfo;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowCamera;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class CameraSourceWatchdogTest {
+    private static final long DEADLINE_MILLIS = 500;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private CameraSource mCameraSource;
+
+    @Before
+    public void setUp() {
+        CameraInfo info = new CameraInfo();
+        info.facing = CameraInfo.CAMERA_FACING_BACK;
+        ShadowCamera.addCameraInfo(0, info);
+    }
+
+    @After
+    public void tearDown() {
+        if (mCameraSource != null) {
+            mCameraSource.stop();
+        }
+        ShadowCamera.clearCameraInfo();
+    }
+
+    @Test
+    public void replacesDetectorStuckPastDeadline() throws Exception {
+        // Both chains hand detections to the same processor, like the view's do.
+        RecordingProcessor processor = new RecordingProcessor();
+        BlockingDetector stuck = new BlockingDetector(processor);
+        final BlockingDetector next = new BlockingDetector(processor);
+        next.mProceed.countDown();
+        final AtomicInteger stalledFrameId = new AtomicInteger(-1);
+        final CountDownLatch stalled = new CountDownLatch(1);
+
+        mCameraSource = new CameraSource.Builder(RuntimeEnvironment.application, stuck).build();
+        mCameraSource.setProcessingWatchdog(DEADLINE_MILLIS, new CameraSource.StallListener() {
+            @Override
+            public Detector<?> onProcessingStalled(int frameId, long stalledMillis,
+                                                   long lastFrameMillis) {
+                stalledFrameId.set(frameId);
+                stalled.countDown();
+                return next;
+            }
+        });
+        mCameraSource.start();
+
+        // The test alone decides when time is up, rather than the watchdog's thread.
+        ProcessingWatchdog watchdog = mCameraSource.getProcessingWatchdog();
+        watchdog.stop();
+        ShadowCamera camera = Shadows.shadowOf(mCameraSource.getCamera());
+        List<byte[]> buffers = new ArrayList<>(camera.getAddedCallbackBuffers());
+
+        long startMillis = SystemClock.elapsedRealtime();
+        camera.invokePreviewCallback(buffers.get(0));
+        assertTrue(stuck.mEntered.await(TIMEOUT_SECONDS, SECONDS));
+        // Waits behind the stuck frame.
+        camera.invokePreviewCallback(buffers.get(1));
+
+        // Up to the deadline, the frame is left alone.
+        assertFalse(watchdog.check(startMillis + DEADLINE_MILLIS));
+        assertEquals(1, stalled.getCount());
+
+        // Past it, the listener is asked for a new detector.
+        assertTrue(watchdog.check(SystemClock.elapsedRealtime() + DEADLINE_MILLIS + 1));
+        assertTrue(stalled.await(TIMEOUT_SECONDS, SECONDS));
+        assertEquals(1, stalledFrameId.get());
+
+        // The pending buffer went back to the camera, followed by a new one standing in for the
+        // stuck frame's, which is out of circulation.
+        List<byte[]> added = camera.getAddedCallbackBuffers();
+        assertEquals(buffers.size() + 2, added.size());
+        assertSame(buffers.get(1), added.get(buffers.size()));
+        byte[] fresh = added.get(buffers.size() + 1);
+        for (byte[] buffer : buffers) {
+            assertNotSame(buffer, fresh);
+        }
+        assertEquals(buffers.get(0).length, fresh.length);
+        assertTrue(mCameraSource.isPreviewBuffer(fresh));
+        assertFalse(mCameraSource.isPreviewBuffer(buffers.get(0)));
+
+        // Processing carries on with it while the stuck call still hangs.
+        camera.invokePreviewCallback(fresh);
+        assertTrue(next.mEntered.await(TIMEOUT_SECONDS, SECONDS));
+        assertEquals(1, stuck.mReleased.getCount());
+
+        assertTrue(processor.mReceived.await(TIMEOUT_SECONDS, SECONDS));
+
+        // Once the stuck call returns, its detector is released, and only that one: the processor
+        // it shares with the new detector is left alone.
+        stuck.mProceed.countDown();
+        assertTrue(stuck.mReleased.await(TIMEOUT_SECONDS, SECONDS));
+        assertEquals(1, next.mReleased.getCount());
+        assertEquals(0, processor.mReleases.get());
+    }
+
+    @Test
+    public void stopGivesUpOnDetectorStuckPastDeadline() throws Exception {
+        RecordingProcessor processor = new RecordingProcessor();
+        BlockingDetector stuck = new BlockingDetector(processor);
+        final BlockingDetector next = new BlockingDetector(processor);
+        final CountDownLatch stalled = new CountDownLatch(1);
+
+        mCameraSource = new CameraSource.Builder(RuntimeEnvironment.application, stuck).build();
+        mCameraSource.setProcessingWatchdog(DEADLINE_MILLIS, new CameraSource.StallListener() {
+            @Override
+            public Detector<?> onProcessingStalled(int frameId, long stalledMillis,
+                                                   long lastFrameMillis) {
+                stalled.countDown();
+                return next;
+            }
+        });
+        mCameraSource.start();
+        mCameraSource.getProcessingWatchdog().stop();
+        ShadowCamera camera = Shadows.shadowOf(mCameraSource.getCamera());
+        camera.invokePreviewCallback(camera.getAddedCallbackBuffers().get(0));
+        assertTrue(stuck.mEntered.await(TIMEOUT_SECONDS, SECONDS));
+
+        // Stopping waits for the stuck frame no longer than the deadline, then replaces it.
+        mCameraSource.stop();
+        assertEquals(0, stalled.getCount());
+        assertEquals(1, stuck.mReleased.getCount());
+
+        stuck.mProceed.countDown();
+        assertTrue(stuck.mReleased.await(TIMEOUT_SECONDS, SECONDS));
+        assertEquals(1, next.mReleased.getCount());
+        assertEquals(0, processor.mReleases.get());
+    }
+
+    /**
+     * Hangs in {@link #detect} until told to proceed, like a recognizer stuck in native code:
+     * being interrupted doesn't get it out.
+     */
+    private static class BlockingDetector extends Detector<String> {
+        final CountDownLatch mEntered = new CountDownLatch(1);
+        final CountDownLatch mProceed = new CountDownLatch(1);
+        final CountDownLatch mReleased = new CountDownLatch(1);
+
+        BlockingDetector(Detector.Processor<String> processor) {
+            setProcessor(processor);
+        }
+
+        @Override
+        public SparseArray<String> detect(Frame frame) {
+            mEntered.countDown();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mProceed.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return new SparseArray<>();
+        }
+
+        @Override
+        public void release() {
+            mReleased.countDown();
+            super.release();
+        }
+    }
+
+    /**
+     * Counts the detections it is handed and how often it is released, which, like the view's
+     * processor, should do nothing.
+     */
+    private static class RecordingProcessor implements Detector.Processor<String> {
+        final CountDownLatch mReceived = new CountDownLatch(1);
+        final AtomicInteger mReleases = new AtomicInteger();
+
+        @Override
+        public void receiveDetections(Detector.Detections<String> detections) {
+            mReceived.countDown();
+        }
+
+        @Override
+        public void release() {
+            mReleases.incrementAndGet();
+        }
+    }
+}
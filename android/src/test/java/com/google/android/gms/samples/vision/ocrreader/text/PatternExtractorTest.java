@@ -0,0 +1,88 @@
+package com.google.android.gms.samples.vision.ocrreader.text;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PatternExtractorTest {
+    @Test
+    public void luhnAcceptsValidNumbersWithSeparators() {
+        assertTrue(PatternExtractor.isLuhnValid("4111111111111111"));
+        assertTrue(PatternExtractor.isLuhnValid("4111 1111 1111 1111"));
+        assertTrue(PatternExtractor.isLuhnValid("5500-0000-0000-0004"));
+    }
+
+    @Test
+    public void luhnRejectsWrongCheckDigitAndSingleDigits() {
+        assertFalse(PatternExtractor.isLuhnValid("4111 1111 1111 1112"));
+        // A transposition of neighbouring digits is caught.
+        assertFalse(PatternExtractor.isLuhnValid("4111 1111 1111 1141"));
+        assertFalse(PatternExtractor.isLuhnValid("0"));
+        assertFalse(PatternExtractor.isLuhnValid(""));
+    }
+
+    @Test
+    public void mod97AcceptsValidIbans() {
+        assertTrue(PatternExtractor.isMod97Valid("GB82 WEST 1234 5698 7654 32"));
+        assertTrue(PatternExtractor.isMod97Valid("DE89370400440532013000"));
+        assertTrue(PatternExtractor.isMod97Valid("gb82west12345698765432"));
+    }
+
+    @Test
+    public void mod97RejectsWrongChecksumsAndOtherCharacters() {
+        assertFalse(PatternExtractor.isMod97Valid("GB82 WEST 1234 5698 7654 33"));
+        assertFalse(PatternExtractor.isMod97Valid("GB28 WEST 1234 5698 7654 32"));
+        assertFalse(PatternExtractor.isMod97Valid("GB82-WEST-1234-5698-7654-32"));
+        assertFalse(PatternExtractor.isMod97Valid("GB82"));
+    }
+
+    @Test
+    public void renumbersBackReferencesPastOffset() {
+        assertEquals("(a)(?:\\4)", PatternExtractor.renumberBackReferences("(a)\\1", 3));
+        // With a single group, \10 is \1 followed by a literal 0.
+        assertEquals("(a)(?:\\4)0", PatternExtractor.renumberBackReferences("(a)\\10", 3));
+        // Quoted text and escaped backslashes are left alone.
+        assertEquals("(a)\\Q\\1\\E", PatternExtractor.renumberBackReferences("(a)\\Q\\1\\E", 3));
+        assertEquals("(a)\\\\1", PatternExtractor.renumberBackReferences("(a)\\\\1", 3));
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void rejectsNamedGroups() {
+        PatternExtractor.renumberBackReferences("(?<letter>a)\\k<letter>", 1);
+    }
+
+    @Test
+    public void combinedRulesKeepTheirOwnBackReferences() {
+        PatternExtractor extractor = PatternExtractor.compile(Arrays.asList(
+                new PatternExtractor.Rule("PAIR", "(\\d)(\\d)", PatternExtractor.VALIDATOR_NONE),
+                new PatternExtractor.Rule("DOUBLE", "([a-z])\\1", PatternExtractor.VALIDATOR_NONE)));
+
+        List<PatternExtractor.Match> matches = extractor.extract("12 ab xx");
+        assertEquals(2, matches.size());
+        assertEquals("PAIR", matches.get(0).getName());
+        assertEquals("12", matches.get(0).getValue());
+        assertEquals("DOUBLE", matches.get(1).getName());
+        assertEquals("xx", matches.get(1).getValue());
+        assertEquals(6, matches.get(1).getStart());
+    }
+
+    @Test
+    public void rejectedCandidateLeavesRoomForOtherRules() {
+        PatternExtractor extractor = PatternExtractor.compile(Arrays.asList(
+                PatternExtractor.getBuiltInRule("CARD"), PatternExtractor.getBuiltInRule("PHONE")));
+
+        List<PatternExtractor.Match> matches = extractor.extract("call 4111 1111 1111 1112");
+        assertEquals(1, matches.size());
+        assertEquals("PHONE", matches.get(0).getName());
+
+        matches = extractor.extract("card 4111 1111 1111 1111");
+        assertEquals(1, matches.size());
+        assertEquals("CARD", matches.get(0).getName());
+    }
+}
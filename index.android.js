@@ -1,10 +1,19 @@
 import React, { Component } from 'react';
-import { requireNativeComponent, NativeModules, View, TouchableHighlight } from 'react-native';
+import { requireNativeComponent, NativeModules, DeviceEventEmitter, View, TouchableHighlight } from 'react-native';
 import PropTypes from 'prop-types'
 
 const ocrReaderModule = NativeModules['OcrReaderModule'];
 
 const TEXT_READ = "text_read";
+const TEXT_EXTRACTED = "text_extracted";
+const CATALOGUE_MATCH = "catalogue_match";
+const CATALOGUE_ERROR = "catalogue_error";
+const MRZ_READ = "mrz_read";
+const TEXT_STITCHED = "text_stitched";
+const LAYOUT_READ = "layout_read";
+const CONFIGURATION = "configuration";
+const PROCESSING_STALLED = "processing_stalled";
+const STANDBY_CHANGED = "standby_changed";
 const LOW_STORAGE_EXCEPTION = "low_storage";
 const NOT_YET_OPERATIONAL_EXCEPTION = "not_yet_operational";
 const NO_PLAY_SERVICES_EXCEPTION = 'no_play_services';
@@ -13,9 +22,37 @@ class OcrReader extends Component {
   static propTypes = {
     onTextRead: PropTypes.func, // Callback that fires whenever a new ocr is read
     onException: PropTypes.func, // function(reason)
+    onTextExtracted: PropTypes.func, // Fires with validated matches when extractors are set (replaces onTextRead)
+
+    extractors: PropTypes.arrayOf(PropTypes.oneOfType([
+      PropTypes.string, // built-in: IBAN, CARD, DATE, AMOUNT, PHONE, EMAIL
+      PropTypes.shape({ name: PropTypes.string, pattern: PropTypes.string, validator: PropTypes.string })
+    ])),
+    onCatalogueMatch: PropTypes.func, // Fires with [{id, label, distance, text, bounds}] for lines found in the catalogue
+    catalogue: PropTypes.shape({ path: PropTypes.string, maxDistance: PropTypes.number }),
+    onCatalogueError: PropTypes.func, // Fires with {path, message} when the catalogue can't be indexed
+    onMrzRead: PropTypes.func, // Fires once per document in mrzMode with the validated MRZ fields
+    mrzMode: PropTypes.bool, // bool
+    skipEmptyFrames: PropTypes.bool, // Skip recognition on frames that show nothing text-like
+    focusGating: PropTypes.bool, // Skip frames while the lens focuses, refocus on the text when frames stay blurry
+    motionGating: PropTypes.bool, // Skip frames taken while the device moves fast
+    adaptiveResolution: PropTypes.bool, // Lower the preview resolution for large text, raise it for fine print
+    autoZoom: PropTypes.bool, // Zoom in on small text and back out when it is cut off or lost
+    coarseToFine: PropTypes.bool, // Find text at half resolution, then recognize only around it at full resolution
+    incremental: PropTypes.bool, // Only re-recognize the parts of the frame that changed
+    onTextStitched: PropTypes.func, // Fires with the lines seen for the first time while stitching
+    stitching: PropTypes.bool, // Stitch frames into one transcript while panning over a long document
+    onLayoutRead: PropTypes.func, // Fires with {blocks, fields}: blocks in reading order, fields as {name, label, value, bounds}
+    layout: PropTypes.shape({ labels: PropTypes.objectOf(PropTypes.arrayOf(PropTypes.string)) }), // e.g. {labels: {total: ['Total', 'Amount due']}}
 
     focusMode: PropTypes.number, // int
     cameraFillMode: PropTypes.number, // int
+    performanceProfile: PropTypes.oneOf(['LOW_LATENCY', 'BALANCED', 'MAX_ACCURACY']), // Capture and pipeline settings; stage props add to it
+    onConfiguration: PropTypes.func, // Fires with the effective settings, including the actual preview size, whenever they change
+    processingTimeout: PropTypes.number, // ms a frame may spend in the recognizer before it is rebuilt; 0 (default) = no watchdog
+    onProcessingStalled: PropTypes.func, // Fires with {frameId, stalledMs, timeoutMs, lastFrameMs, rebuildMs} after each rebuild
+    autoStandby: PropTypes.bool, // Stop recognizing while the reader can't be seen (default true)
+    onStandbyChange: PropTypes.func, // Fires with {standby, reason, previousStateMs} when the reader goes on or off standby
     ...View.propTypes
   };
 
@@ -56,6 +93,66 @@ class OcrReader extends Component {
           });
         }
         break;
+      case TEXT_EXTRACTED:
+        if (this.props.onTextExtracted) {
+          this.props.onTextExtracted({
+            data: event.nativeEvent.data,
+          });
+        }
+        break;
+      case CATALOGUE_MATCH:
+        if (this.props.onCatalogueMatch) {
+          this.props.onCatalogueMatch({
+            data: event.nativeEvent.data,
+          });
+        }
+        break;
+      case CATALOGUE_ERROR:
+        if (this.props.onCatalogueError) {
+          const { key, ...error } = event.nativeEvent;
+          this.props.onCatalogueError(error);
+        }
+        break;
+      case MRZ_READ:
+        if (this.props.onMrzRead) {
+          this.props.onMrzRead({
+            data: event.nativeEvent.data,
+          });
+        }
+        break;
+      case TEXT_STITCHED:
+        if (this.props.onTextStitched) {
+          this.props.onTextStitched({
+            data: event.nativeEvent.data,
+          });
+        }
+        break;
+      case LAYOUT_READ:
+        if (this.props.onLayoutRead) {
+          this.props.onLayoutRead({
+            blocks: event.nativeEvent.blocks,
+            fields: event.nativeEvent.fields,
+          });
+        }
+        break;
+      case CONFIGURATION:
+        if (this.props.onConfiguration) {
+          const { key, ...configuration } = event.nativeEvent;
+          this.props.onConfiguration(configuration);
+        }
+        break;
+      case PROCESSING_STALLED:
+        if (this.props.onProcessingStalled) {
+          const { key, ...stall } = event.nativeEvent;
+          this.props.onProcessingStalled(stall);
+        }
+        break;
+      case STANDBY_CHANGED:
+        if (this.props.onStandbyChange) {
+          const { key, ...change } = event.nativeEvent;
+          this.props.onStandbyChange(change);
+        }
+        break;
       case NOT_YET_OPERATIONAL_EXCEPTION:
       case LOW_STORAGE_EXCEPTION:
       case NO_PLAY_SERVICES_EXCEPTION:
@@ -92,10 +189,86 @@ export const FocusMode = ocrReaderModule.FocusMode;
 // Alternatives: COVER, FIT
 export const CameraFillMode = ocrReaderModule.CameraFillMode;
 
+// Alternatives: LOW_LATENCY, BALANCED, MAX_ACCURACY
+export const PerformanceProfile = ocrReaderModule.PerformanceProfile;
+
 export const Exception = { LOW_STORAGE: LOW_STORAGE_EXCEPTION, NOT_OPERATIONAL: NOT_YET_OPERATIONAL_EXCEPTION, NO_PLAY_SERVICES: NO_PLAY_SERVICES_EXCEPTION };
 
 // Mapping fungsi Native ke Javascript
 export const pauseReader = ocrReaderModule.pause;
 export const resumeReader = ocrReaderModule.resume;
 
+// Query the text currently shown on the overlay. Coordinates are in dp relative to the reader view.
+// getTextAt(x, y) => Promise<{text, bounds} | null>, getTextInRect({x, y, width, height}) => Promise<[{text, bounds}]>
+// Queries and bounds use where the text was last detected. The overlay draws boxes where they are
+// predicted to have moved since, so while the camera pans a box can be drawn a little ahead of
+// where it is hit.
+export const getTextAt = ocrReaderModule.getTextAt;
+export const getTextInRect = ocrReaderModule.getTextInRect;
+
+// Scan until a target is read, then stop the camera natively.
+// startSession({patterns, minStableFrames, timeoutMs}) => Promise<{name, value, block}>
+// Rejects with code "7" on timeout and "8" when cancelled or replaced by another session.
+export const startSession = ocrReaderModule.startSession;
+export const cancelSession = ocrReaderModule.cancelSession;
+
+// Take a full resolution picture and read the areas where the preview shows text, for fine print.
+// captureText() => Promise<{data, blocks}>, with bounds in dp relative to the reader view.
+export const captureText = ocrReaderModule.captureText;
+
+// Recognize text in a photo without the camera. uri is a file path, file:// or content:// URI.
+// recognizeImage(uri, {maxDimension, region: {x, y, width, height}, tiled, tileSize, tileOverlap})
+//   => Promise<{data, blocks, width, height}>
+// blocks are [{text, bounds}] with bounds in pixels of the upright image. Set tiled for very large
+// photos: they are then read at full resolution in overlapping tiles instead of being downscaled.
+export const recognizeImage = ocrReaderModule.recognizeImage;
+
+// Measure which preview size and frame rate suit this device, and keep them for readers without
+// a performanceProfile. Pause the reader first; takes a few seconds.
+// calibrate() => Promise<{previewWidth, previewHeight, fps, latencyMs}>, rejects with code "11"
+// when the camera or recognizer isn't available, or no preview size read the sample; nothing is
+// stored then. getCalibration() resolves with the stored result or null.
+export const calibrate = ocrReaderModule.calibrate;
+export const getCalibration = ocrReaderModule.getCalibration;
+
+// Recognize many photos on a native worker pool, streaming each result as it finishes.
+// onItem({index, uri, result | error, completed, total}) fires per image; the returned promise
+// resolves with {total, succeeded, failed, cancelled} after the last item. cancel() skips the
+// images not started yet.
+let batchCounter = 0;
+export function recognizeBatch(uris, options, onItem) {
+  const batchId = `batch-${Date.now()}-${++batchCounter}`;
+  const subscription = DeviceEventEmitter.addListener(ocrReaderModule.BatchItemEvent, event => {
+    if (event.batchId === batchId && onItem) onItem(event);
+  });
+  const promise = ocrReaderModule.recognizeBatch(batchId, uris, options || {});
+  promise.then(() => subscription.remove(), () => subscription.remove());
+  return { promise, cancel: () => ocrReaderModule.cancelBatch(batchId) };
+}
+
+// Listen to memory trims. When the system runs low on memory, the reader drops its caches and
+// spare buffers, and in the background releases the camera and recognizer until it is resumed.
+// listener({level, releasedBytes, releasedRecognizers, cameraReleased}); returns a subscription.
+export function addMemoryTrimListener(listener) {
+  return DeviceEventEmitter.addListener(ocrReaderModule.MemoryTrimmedEvent, listener);
+}
+
+// Scan without a reader view, for unattended devices: no preview, no overlay, results as events.
+// startHeadless({facing: 'back' | 'front', previewWidth, previewHeight, fps}, onText)
+//   => Promise<{previewWidth, previewHeight}>, rejects with code "12" when the camera can't be used.
+// onText({data, blocks, width, height, frameId}) fires when the text in view changes; blocks are
+// [{text, bounds}] in pixels of the upright frame. Call stop() on the returned object to finish.
+export function startHeadless(options, onText) {
+  const subscription = DeviceEventEmitter.addListener(ocrReaderModule.HeadlessTextEvent, event => {
+    if (onText) onText(event);
+  });
+  const promise = ocrReaderModule.startHeadless(options || {});
+  promise.catch(() => subscription.remove());
+  const stop = () => {
+    subscription.remove();
+    return ocrReaderModule.stopHeadless();
+  };
+  return { promise, stop };
+}
+
 export default OcrReader;